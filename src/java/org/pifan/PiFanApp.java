@@ -19,14 +19,61 @@
 
 package org.pifan;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.management.ObjectName;
+
+import org.pifan.config.ConfigDiff;
+import org.pifan.config.ConfigWatcher;
+import org.pifan.config.ControlLoopConfig;
+import org.pifan.config.PifanConfig;
+import org.pifan.config.PifanConfigs;
+import org.pifan.config.PinConfig;
+import org.pifan.config.RelayBankConfig;
+import org.pifan.config.ScheduleConfig;
+import org.pifan.control.ControlLoop;
+import org.pifan.control.ControlLoops;
+import org.pifan.history.TimeSeriesBuffer;
+import org.pifan.io.FanSpeedControl;
+import org.pifan.io.GpioBackend;
+import org.pifan.io.GpioCommandQueue;
 import org.pifan.io.GpioControl;
-import org.pifan.schedule.JobScheduler;
+import org.pifan.io.RelayBank;
+import org.pifan.io.TransitionGovernor;
+import org.pifan.jmx.PifanMBeans;
+import org.pifan.journal.Journal;
+import org.pifan.journal.Journals;
+import org.pifan.metrics.MetricsServer;
+import org.pifan.metrics.MetricsServers;
+import org.pifan.metrics.PrometheusRegistry;
+import org.pifan.schedule.WorkerScheduler;
+import org.pifan.schedule.WorkerSchedulers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Wires up the pins, relay banks, control loops and schedules described by
+ * the configuration file given as the first argument (see
+ * {@link PifanConfigs}).
+ * <p>
+ * The configuration file is watched and any change to the pins, relay banks
+ * or schedules is applied in place: only the workers that changed are
+ * re-registered and only the pins whose number or description changed are
+ * re-provisioned (every other pin keeps its state). A control loop's
+ * thresholds or gains are swapped in between two cycles. Anything else (e.g.
+ * a control loop's sensor or mode or the scheduler engine) still needs a
+ * restart.
  *
  * @author Dave Irwin (dhirwinjr@gmail.com)
  */
@@ -36,56 +83,504 @@ public class PiFanApp {
      */
     private static final Logger logger = LoggerFactory.getLogger(PiFanApp.class);
 
+    /**
+     * The configuration currently applied.
+     */
+    private volatile PifanConfig config;
+
+    /**
+     * The provisioned pins and relay banks by name (looked up by the workers
+     * and control loops each time they fire so they follow a reload).
+     */
+    private final Map<String, GpioControl> pins = new ConcurrentHashMap<>();
+    private final Map<String, RelayBank> banks = new ConcurrentHashMap<>();
+
+    /**
+     * The variable speed pins' duty cycle controls by pin name (these pins are
+     * driven by their PWM rather than through the command queue).
+     */
+    private final Map<String, FanSpeedControl> speeds = new ConcurrentHashMap<>();
+
+    /**
+     * The pin MBeans by pin name (guarded by this).
+     */
+    private final Map<String, ObjectName> pinMBeans = new HashMap<>();
+
+    /**
+     * The running control loops by the name of the pin they drive and by
+     * their own name.
+     */
+    private final Map<String, ControlLoop> loopsByPin = new HashMap<>();
+    private final Map<String, ControlLoop> loopsByName = new HashMap<>();
+
+    /**
+     * Every pin write goes through the single writer thread.
+     */
+    private final GpioCommandQueue gpioQueue = new GpioCommandQueue("pifan");
+
+    /**
+     * Set once started.
+     */
+    private Journal journal;
+    private PifanMBeans mbeans;
+    private PrometheusRegistry metrics;
+    private WorkerScheduler scheduler;
+    private volatile ConfigWatcher watcher;
+
     /**
      * 
+     * @param config
      */
-    private PiFanApp() {
+    private PiFanApp(PifanConfig config) {
         super();
+
+        this.config = config;
     }
 
     /**
      * 
      */
-    private void start() {
-        logger.debug("Starting PiFan application");
+    private void start() throws IOException {
+        logger.debug("Starting PiFan application [config: {}]", this.config);
+
+        final Properties properties = this.config.getProperties();
+
+        // durable transitions and readings (only if a journal directory is configured)
+        final Journal journal = this.journal = Journals.open(properties);
+
+        // visible over the JMX port alongside the JVM's own MBeans
+        final PifanMBeans mbeans = this.mbeans = new PifanMBeans(properties);
+
+        // the Prometheus endpoint (only if a metrics port is configured)
+        final PrometheusRegistry metrics = this.metrics = new PrometheusRegistry();
+
+        synchronized (this) {
+            for (PinConfig pinConfig : this.config.getPins()) {
+                this.provision(pinConfig);
+            }
+        }
+
+        for (RelayBankConfig bankConfig : this.config.getBanks()) {
+            this.banks.put(bankConfig.getName(), new RelayBank(bankConfig.getName(), bankConfig.getPinNums()));
+        }
 
-        final GpioControl gpio = new GpioControl(8, "Outlet");
+        // the sensor driven loops (if enabled) take priority over the fixed schedules for their pin
+        final List<ControlLoop> controlLoops = new ArrayList<>();
+        for (ControlLoopConfig loopConfig : this.config.getControlLoops()) {
+            final String pinName = loopConfig.getPin();
+
+            ControlLoop loop = ControlLoops.create(loopConfig.getName(), this.config.getSnapshot(),
+                    duty -> this.output(pinName, duty));
+
+            if (loop != null) {
+                loop.setJournal(journal, controlLoops.size());
+                mbeans.registerControlLoop(loop);
+                metrics.register(loop);
+
+                controlLoops.add(loop);
+                this.loopsByPin.put(loopConfig.getPin(), loop);
+                this.loopsByName.put(loopConfig.getName(), loop);
+            }
+        }
+
+        final MetricsServer metricsServer = MetricsServers.start(properties, metrics);
 
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
-                gpio.shutdown();
+                final ConfigWatcher watcher = PiFanApp.this.watcher;
+                if (watcher != null) {
+                    try {
+                        watcher.close();
+                    } catch (IOException e) {
+                        logger.error("Error closing configuration watcher: " + e, e);
+                    }
+                }
+
+                // stop everything that writes to the pins before tearing them down
+                final WorkerScheduler scheduler;
+                synchronized (PiFanApp.this) {
+                    scheduler = PiFanApp.this.scheduler;
+                }
+                if (scheduler != null) {
+                    scheduler.shutdown();
+                }
+                for (ControlLoop loop : controlLoops) {
+                    loop.stop();
+                }
+                PiFanApp.this.gpioQueue.shutdown(1000);
+                for (FanSpeedControl speed : PiFanApp.this.speeds.values()) {
+                    speed.shutdown();
+                }
+
+                // release the pins and banks, then shut each (shared) backend down once
+                final Set<GpioBackend> backends = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (GpioControl gpio : PiFanApp.this.pins.values()) {
+                    gpio.release();
+                    backends.add(gpio.getBackend());
+                }
+                for (RelayBank bank : PiFanApp.this.banks.values()) {
+                    bank.release();
+                    backends.add(bank.getBackend());
+                }
+                for (GpioBackend backend : backends) {
+                    backend.shutdown();
+                }
+
+                if (journal != null) {
+                    journal.close();
+                }
+
+                mbeans.unregisterAll();
+
+                if (metricsServer != null) {
+                    metricsServer.stop();
+                }
             }
         });
 
         try {
-            Properties schProps = new Properties();
+            // poller.engine selects Quartz or the lightweight timing wheel
+            WorkerScheduler scheduler = WorkerSchedulers.create(properties);
+            mbeans.registerScheduler("FanSchedule", scheduler);
+            metrics.register("FanSchedule", scheduler);
+
+            synchronized (this) {
+                this.scheduler = scheduler;
+
+                for (ScheduleConfig schedule : this.config.getSchedules()) {
+                    this.register(schedule);
+                }
+            }
 
-            JobScheduler scheduler = new JobScheduler(schProps);
-            scheduler.registerWorker(() -> {
-                gpio.turnOn();
-            }, "0 10,40 * * * ?", "fanOn");
+            // put every pin in its initial state
+            for (PinConfig pinConfig : this.config.getPins()) {
+                this.output(pinConfig.getName(), pinConfig.getInitialState() ? 100 : 0);
+            }
 
-            scheduler.registerWorker(() -> {
-                gpio.turnOff();
-            }, "0 25,55 * * * ?", "fanOff");
+            for (ControlLoop loop : controlLoops) {
+                loop.start();
+            }
 
-            // default by turning the fan on
-            gpio.turnOn();
+            // apply changes to the configuration file as they're made
+            this.watcher = PifanConfigs.watch(this.config, this::apply);
         } catch (Exception ex) {
             logger.error("Error: " + ex, ex);
         }
     }
 
     /**
-     * @param args
+     * Apply a reloaded configuration. Workers are unregistered before the
+     * pins and banks they drive are released and only registered again once
+     * everything they drive is in place.
+     * 
+     * @param previous
+     * @param current
+     * @param diff
+     */
+    private synchronized void apply(PifanConfig previous, PifanConfig current, ConfigDiff diff) {
+        logger.info("Applying configuration [source: {}]", current.getSource());
+
+        // pins that can't be updated in place
+        final Set<String> replacedPins = new HashSet<>();
+        for (String name : diff.getChangedPins()) {
+            PinConfig before = previous.getPin(name);
+            PinConfig after = current.getPin(name);
+
+            if (before.getPinNum() != after.getPinNum() || !Objects.equals(before.getDesc(), after.getDesc())
+                    || before.getPwmFrequencyHz() != after.getPwmFrequencyHz()) {
+                replacedPins.add(name);
+            }
+        }
+
+        // stop the old workers first so nothing fires at a released pin
+        for (String workerName : diff.getRemovedSchedules()) {
+            this.scheduler.unregisterWorker(workerName);
+        }
+        for (String workerName : diff.getChangedSchedules()) {
+            this.scheduler.unregisterWorker(workerName);
+        }
+
+        // release everything before provisioning anything, pin numbers may have moved
+        for (String name : diff.getRemovedBanks()) {
+            this.banks.remove(name).release();
+        }
+        for (String name : diff.getChangedBanks()) {
+            this.banks.remove(name).release();
+        }
+        for (String name : diff.getRemovedPins()) {
+            this.release(name);
+        }
+        for (String name : replacedPins) {
+            this.release(name);
+        }
+
+        final Set<String> provisionedPins = new HashSet<>();
+        for (String name : diff.getChangedPins()) {
+            if (!replacedPins.contains(name)) {
+                this.update(previous.getPin(name), current.getPin(name));
+            } else if (this.tryProvision(current.getPin(name))) {
+                provisionedPins.add(name);
+            }
+        }
+        for (String name : diff.getAddedPins()) {
+            if (this.tryProvision(current.getPin(name))) {
+                provisionedPins.add(name);
+            }
+        }
+
+        for (String name : diff.getChangedBanks()) {
+            this.tryProvision(current.getBank(name));
+        }
+        for (String name : diff.getAddedBanks()) {
+            this.tryProvision(current.getBank(name));
+        }
+
+        this.config = current;
+
+        for (String workerName : diff.getChangedSchedules()) {
+            this.register(current.getSchedule(workerName));
+        }
+        for (String workerName : diff.getAddedSchedules()) {
+            this.register(current.getSchedule(workerName));
+        }
+
+        // newly provisioned pins start in their initial state
+        for (String name : provisionedPins) {
+            this.output(name, current.getPin(name).getInitialState() ? 100 : 0);
+        }
+
+        // the loops pick up their new tuning on their next cycle
+        for (String name : diff.getRetunedControlLoops()) {
+            this.retune(name, current);
+        }
+
+        if (!diff.getRestartKeys().isEmpty()) {
+            logger.warn("Configuration changes that need a restart were not applied: {}", diff.getRestartKeys());
+        }
+    }
+
+    /**
+     * 
+     * @param pinConfig
+     * @return
+     */
+    private GpioControl provision(PinConfig pinConfig) {
+        GpioControl gpio = new GpioControl(pinConfig.getPinNum(), pinConfig.getDesc());
+        gpio.setJournal(this.journal);
+        gpio.setCommandQueue(this.gpioQueue);
+
+        if (pinConfig.getHistorySize() > 0) {
+            gpio.setHistory(new TimeSeriesBuffer(pinConfig.getDesc(), pinConfig.getHistorySize()));
+        }
+        if (pinConfig.isGoverned()) {
+            gpio.setTransitionGovernor(new TransitionGovernor(pinConfig.getMinOnTimeInMs(),
+                    pinConfig.getMinOffTimeInMs(), pinConfig.getMaxTransitionsPerHour()));
+        }
+
+        if (pinConfig.isVariableSpeed()) {
+            try {
+                this.speeds.put(pinConfig.getName(), new FanSpeedControl(gpio, pinConfig.getPwmFrequencyHz(), true));
+            } catch (IllegalArgumentException e) {
+                logger.error("Unable to drive GPIO at a variable speed, switching it on/off instead [name: "
+                        + pinConfig.getName() + "]: " + e);
+            }
+        }
+
+        this.pins.put(pinConfig.getName(), gpio);
+        this.pinMBeans.put(pinConfig.getName(), this.mbeans.registerGpio(gpio));
+        this.metrics.register(gpio);
+
+        return gpio;
+    }
+
+    /**
+     * Drive a pin at a duty cycle (a plain on/off pin is on for anything over
+     * 0%).
+     * 
+     * @param pinName
+     * @param dutyPercent
+     */
+    private void output(String pinName, int dutyPercent) {
+        final FanSpeedControl speed = this.speeds.get(pinName);
+        if (speed != null) {
+            try {
+                speed.setDutyCycle(dutyPercent);
+            } catch (IllegalStateException e) {
+                logger.debug("Fan speed control already shut down [pin: {}]", pinName);
+            }
+            return;
+        }
+
+        final GpioControl gpio = this.pins.get(pinName);
+        if (gpio != null) {
+            this.gpioQueue.submit(gpio, dutyPercent > 0);
+        }
+    }
+
+    /**
+     * 
+     * @param name
+     * @param current
+     */
+    private void retune(String name, PifanConfig current) {
+        final ControlLoop loop = this.loopsByName.get(name);
+        if (loop == null) {
+            // not enabled
+            return;
+        }
+
+        try {
+            if (ControlLoops.retune(loop, current.getSnapshot())) {
+                logger.info("Control loop retuned [name: {}]", name);
+            } else {
+                logger.warn("Control loop mode changed, not retuned until a restart [name: {}]", name);
+            }
+        } catch (Exception e) {
+            logger.error("Error retuning control loop [name: " + name + "]: " + e, e);
+        }
+    }
+
+    /**
+     * 
+     * @param pinConfig
+     * @return Whether the pin was provisioned (an error is logged if not)
+     */
+    private boolean tryProvision(PinConfig pinConfig) {
+        try {
+            this.provision(pinConfig);
+            return true;
+        } catch (Exception e) {
+            logger.error("Error provisioning GPIO [name: " + pinConfig.getName() + ", pinNum: "
+                    + pinConfig.getPinNum() + "]: " + e, e);
+            return false;
+        }
+    }
+
+    /**
+     * 
+     * @param bankConfig
+     */
+    private void tryProvision(RelayBankConfig bankConfig) {
+        try {
+            this.banks.put(bankConfig.getName(), new RelayBank(bankConfig.getName(), bankConfig.getPinNums()));
+        } catch (Exception e) {
+            logger.error("Error provisioning relay bank [name: " + bankConfig.getName() + "]: " + e, e);
+        }
+    }
+
+    /**
+     * Update a pin's history and governor in place, keeping its state.
+     * 
+     * @param before
+     * @param after
+     */
+    private void update(PinConfig before, PinConfig after) {
+        final GpioControl gpio = this.pins.get(after.getName());
+
+        logger.info("Updating GPIO [name: {}, pinNum: {}]", after.getName(), after.getPinNum());
+
+        if (before.getHistorySize() != after.getHistorySize()) {
+            gpio.setHistory(after.getHistorySize() > 0 ? new TimeSeriesBuffer(after.getDesc(),
+                    after.getHistorySize()) : null);
+        }
+
+        if (before.getMinOnTimeInMs() != after.getMinOnTimeInMs()
+                || before.getMinOffTimeInMs() != after.getMinOffTimeInMs()
+                || before.getMaxTransitionsPerHour() != after.getMaxTransitionsPerHour()) {
+            gpio.setTransitionGovernor(after.isGoverned() ? new TransitionGovernor(after.getMinOnTimeInMs(),
+                    after.getMinOffTimeInMs(), after.getMaxTransitionsPerHour()) : null);
+        }
+    }
+
+    /**
+     * Turn the pin off and release it.
+     * 
+     * @param name
+     */
+    private void release(String name) {
+        final GpioControl gpio = this.pins.remove(name);
+
+        logger.info("Releasing GPIO [name: {}, pinNum: {}]", name, gpio.getPinNum());
+
+        final FanSpeedControl speed = this.speeds.remove(name);
+        if (speed != null) {
+            speed.shutdown();
+        }
+
+        this.mbeans.unregister(this.pinMBeans.remove(name));
+        this.metrics.unregister(gpio);
+
+        gpio.release();
+    }
+
+    /**
+     * 
+     * @param schedule
+     */
+    private void register(ScheduleConfig schedule) {
+        final WorkerScheduler scheduler = this.scheduler;
+        final Runnable worker = this.newWorker(schedule);
+        final String workerName = schedule.getWorkerName();
+
+        // a null policy puts back the scheduler's default (e.g. when removed on a reload)
+        scheduler.setMisfirePolicy(workerName, schedule.getMisfirePolicy(), schedule.getMisfireGroup());
+
+        if (schedule.isCron()) {
+            scheduler.registerWorker(worker, schedule.getCronExp(), workerName);
+        } else if (schedule.isFixedRate()) {
+            scheduler.registerWorkerAtFixedRate(worker, schedule.getIntervalInMs(), schedule.getDelayInMs(),
+                    workerName);
+        } else {
+            scheduler.registerWorkerOnce(worker, schedule.getDelayInMs(), workerName);
+        }
+    }
+
+    /**
+     * 
+     * @param schedule
+     * @return A worker that sets the schedule's pin or relay bank channel
+     */
+    private Runnable newWorker(ScheduleConfig schedule) {
+        final String workerName = schedule.getWorkerName();
+        final boolean on = schedule.getState();
+
+        if (schedule.getBank() != null) {
+            final String bankName = schedule.getBank();
+            final int channel = schedule.getChannel();
+
+            return () -> {
+                RelayBank bank = this.banks.get(bankName);
+                if (bank == null) {
+                    logger.warn("Relay bank not provisioned [worker: {}, bank: {}]", workerName, bankName);
+                } else {
+                    this.gpioQueue.submit(bank, channel, on);
+                }
+            };
+        }
+
+        final String pinName = schedule.getPin();
+        final ControlLoop loop = this.loopsByPin.get(pinName);
+
+        return () -> {
+            GpioControl gpio = this.pins.get(pinName);
+            if (gpio == null) {
+                logger.warn("GPIO not provisioned [worker: {}, pin: {}]", workerName, pinName);
+            } else if (loop == null || loop.isFallbackActive()) {
+                this.output(pinName, on ? 100 : 0);
+            }
+        };
+    }
+
+    /**
+     * @param args The configuration file
      */
     public static void main(String[] args) {
         try {
-            PiFanApp app = new PiFanApp();
+            PiFanApp app = new PiFanApp(PifanConfigs.load(args));
             app.start();
         } catch (Exception ex) {
             logger.error("Error: " + ex, ex);
         }
     }
-}
\ No newline at end of file
+}
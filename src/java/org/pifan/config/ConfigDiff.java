@@ -0,0 +1,287 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import org.pifan.control.ControlLoops;
+import org.pifan.util.ConfigSnapshot;
+
+/**
+ * What changed between two configuration snapshots: the pins, relay banks
+ * and scheduled workers added, removed or changed (by name), the control
+ * loops whose tuning changed, plus any other keys that changed and only take
+ * effect on a restart.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class ConfigDiff {
+    /**
+     * The keys that can be applied to a running application.
+     */
+    private static final String[] reloadablePrefixes = { PifanConfigs.PINS, PifanConfigs.PIN_PREFIX,
+            PifanConfigs.BANKS, PifanConfigs.BANK_PREFIX, PifanConfigs.SCHEDULES, PifanConfigs.SCHEDULE_PREFIX,
+            "config.reload." };
+
+    /**
+     * 
+     */
+    private final List<String> addedPins = new ArrayList<>();
+    private final List<String> removedPins = new ArrayList<>();
+    private final List<String> changedPins = new ArrayList<>();
+
+    private final List<String> addedBanks = new ArrayList<>();
+    private final List<String> removedBanks = new ArrayList<>();
+    private final List<String> changedBanks = new ArrayList<>();
+
+    private final List<String> addedSchedules = new ArrayList<>();
+    private final List<String> removedSchedules = new ArrayList<>();
+    private final List<String> changedSchedules = new ArrayList<>();
+
+    private final List<String> retunedControlLoops = new ArrayList<>();
+
+    private final Set<String> restartKeys = new TreeSet<>();
+
+    /**
+     * 
+     * @param previous
+     * @param current
+     */
+    public ConfigDiff(PifanConfig previous, PifanConfig current) {
+        super();
+
+        diff(index(previous.getPins(), PinConfig::getName), index(current.getPins(), PinConfig::getName),
+                this.addedPins, this.removedPins, this.changedPins);
+        diff(index(previous.getBanks(), RelayBankConfig::getName), index(current.getBanks(),
+                RelayBankConfig::getName), this.addedBanks, this.removedBanks, this.changedBanks);
+        diff(index(previous.getSchedules(), ScheduleConfig::getWorkerName), index(current.getSchedules(),
+                ScheduleConfig::getWorkerName), this.addedSchedules, this.removedSchedules, this.changedSchedules);
+
+        final ConfigSnapshot before = previous.getSnapshot();
+        final ConfigSnapshot after = current.getSnapshot();
+
+        final Set<String> keys = new TreeSet<>(before.keySet());
+        keys.addAll(after.keySet());
+
+        for (String key : keys) {
+            if (isReloadable(key) || Objects.equals(before.getStringValue(key), after.getStringValue(key))) {
+                continue;
+            }
+
+            String loop = tuningLoop(current, key);
+            if (loop == null) {
+                this.restartKeys.add(key);
+            } else if (!this.retunedControlLoops.contains(loop)) {
+                this.retunedControlLoops.add(loop);
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param config
+     * @param key
+     * @return The name of the control loop the key tunes (or null if it's not
+     *         a tuning key)
+     */
+    private static String tuningLoop(PifanConfig config, String key) {
+        for (ControlLoopConfig loop : config.getControlLoops()) {
+            String prefix = ControlLoops.PREFIX + loop.getName() + ".";
+            if (key.startsWith(prefix) && ControlLoops.isTuningKey(key.substring(prefix.length()))) {
+                return loop.getName();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 
+     * @param configs
+     * @param name
+     * @return
+     */
+    private static <T> Map<String, T> index(Iterable<T> configs, Function<T, String> name) {
+        Map<String, T> index = new LinkedHashMap<>();
+        for (T config : configs) {
+            index.put(name.apply(config), config);
+        }
+        return index;
+    }
+
+    /**
+     * 
+     * @param before
+     * @param after
+     * @param added
+     * @param removed
+     * @param changed
+     */
+    private static <T> void diff(Map<String, T> before, Map<String, T> after, List<String> added,
+            List<String> removed, List<String> changed) {
+        for (Map.Entry<String, T> entry : after.entrySet()) {
+            T previous = before.get(entry.getKey());
+            if (previous == null) {
+                added.add(entry.getKey());
+            } else if (!previous.equals(entry.getValue())) {
+                changed.add(entry.getKey());
+            }
+        }
+
+        for (String name : before.keySet()) {
+            if (!after.containsKey(name)) {
+                removed.add(name);
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param key
+     * @return
+     */
+    private static boolean isReloadable(String key) {
+        for (String prefix : reloadablePrefixes) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 
+     * @return Whether nothing that can be applied changed
+     */
+    public boolean isEmpty() {
+        return this.addedPins.isEmpty() && this.removedPins.isEmpty() && this.changedPins.isEmpty()
+                && this.addedBanks.isEmpty() && this.removedBanks.isEmpty() && this.changedBanks.isEmpty()
+                && this.addedSchedules.isEmpty() && this.removedSchedules.isEmpty()
+                && this.changedSchedules.isEmpty() && this.retunedControlLoops.isEmpty();
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public List<String> getAddedPins() {
+        return Collections.unmodifiableList(this.addedPins);
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public List<String> getRemovedPins() {
+        return Collections.unmodifiableList(this.removedPins);
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public List<String> getChangedPins() {
+        return Collections.unmodifiableList(this.changedPins);
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public List<String> getAddedBanks() {
+        return Collections.unmodifiableList(this.addedBanks);
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public List<String> getRemovedBanks() {
+        return Collections.unmodifiableList(this.removedBanks);
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public List<String> getChangedBanks() {
+        return Collections.unmodifiableList(this.changedBanks);
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public List<String> getAddedSchedules() {
+        return Collections.unmodifiableList(this.addedSchedules);
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public List<String> getRemovedSchedules() {
+        return Collections.unmodifiableList(this.removedSchedules);
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public List<String> getChangedSchedules() {
+        return Collections.unmodifiableList(this.changedSchedules);
+    }
+
+    /**
+     * 
+     * @return The control loops whose tuning (thresholds or gains) changed
+     */
+    public List<String> getRetunedControlLoops() {
+        return Collections.unmodifiableList(this.retunedControlLoops);
+    }
+
+    /**
+     * 
+     * @return The changed keys that only take effect on a restart (e.g. the
+     *         scheduler engine or a control loop's tuning)
+     */
+    public Set<String> getRestartKeys() {
+        return Collections.unmodifiableSet(this.restartKeys);
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ConfigDiff [pins: +" + this.addedPins + " -" + this.removedPins + " ~" + this.changedPins
+                + ", banks: +" + this.addedBanks + " -" + this.removedBanks + " ~" + this.changedBanks
+                + ", schedules: +" + this.addedSchedules + " -" + this.removedSchedules + " ~"
+                + this.changedSchedules + ", retunedControlLoops: " + this.retunedControlLoops + ", restartKeys: "
+                + this.restartKeys + "]";
+    }
+}
@@ -0,0 +1,252 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.config;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the configuration file and reloads it whenever it's modified.
+ * <p>
+ * The file's directory is watched (a {@link WatchService} can't watch a single
+ * file) and events for other files are ignored. Editors tend to write a file
+ * in several steps so the reload waits until the file has been quiet for the
+ * debounce period. A new configuration that fails to load or validate is
+ * logged and otherwise ignored, leaving the current one in place.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class ConfigWatcher implements Closeable {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ConfigWatcher.class);
+
+    /**
+     * Notified (on the watcher thread) of every successfully reloaded
+     * configuration that differs from the current one.
+     */
+    public interface Listener {
+        /**
+         * 
+         * @param previous
+         * @param current
+         * @param diff
+         */
+        void configChanged(PifanConfig previous, PifanConfig current, ConfigDiff diff);
+    }
+
+    /**
+     * 
+     */
+    private final Path path;
+    private final Listener listener;
+    private final long debounceInMs;
+
+    /**
+     * 
+     */
+    private final WatchService watchService;
+    private final Thread watchThread;
+    private volatile boolean running = false;
+
+    /**
+     * The configuration currently in effect (only touched by the watch
+     * thread once started).
+     */
+    private volatile PifanConfig current;
+
+    /**
+     * 
+     * @param path The configuration file
+     * @param current The configuration loaded from the file
+     * @param listener
+     * @param debounceInMs How long the file must be unchanged before it's
+     *            reloaded
+     * @throws IOException
+     */
+    public ConfigWatcher(Path path, PifanConfig current, Listener listener, long debounceInMs) throws IOException {
+        super();
+
+        this.path = path.toAbsolutePath();
+        this.current = current;
+        this.listener = listener;
+        this.debounceInMs = Math.max(0, debounceInMs);
+
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.path.getParent().register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+
+        this.watchThread = new Thread(this::watchLoop, "config-watcher");
+        this.watchThread.setDaemon(true);
+    }
+
+    /**
+     * 
+     */
+    public void start() {
+        logger.info("Watching configuration for changes [path: {}]", this.path);
+        logger.info("  debounce: {} ms", this.debounceInMs);
+
+        this.running = true;
+        this.watchThread.start();
+    }
+
+    /**
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        this.running = false;
+        this.watchService.close();
+    }
+
+    /**
+     * 
+     */
+    private void watchLoop() {
+        try {
+            while (this.running) {
+                WatchKey key = this.watchService.take();
+                boolean changed = this.isChanged(key);
+
+                // wait for the writes to settle down
+                while (changed && this.running) {
+                    WatchKey next = this.watchService.poll(this.debounceInMs, TimeUnit.MILLISECONDS);
+                    if (next == null || !this.isChanged(next)) {
+                        break;
+                    }
+                }
+
+                if (changed && this.running) {
+                    this.reload();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // closed
+        }
+
+        logger.debug("Configuration watcher stopped [path: {}]", this.path);
+    }
+
+    /**
+     * 
+     * @param key
+     * @return Whether any of the key's events were for the configuration
+     *         file
+     */
+    private boolean isChanged(WatchKey key) {
+        boolean changed = false;
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed = true;
+            } else if (this.path.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+
+        return changed;
+    }
+
+    /**
+     * Load and apply the new configuration file.
+     */
+    public synchronized void reload() {
+        PifanConfig config;
+        try {
+            config = PifanConfigs.reload(this.current);
+        } catch (Exception e) {
+            logger.error("Error reloading configuration, keeping the current configuration [path: " + this.path
+                    + "]: " + e, e);
+            return;
+        }
+
+        this.update(config);
+    }
+
+    /**
+     * Set (or remove) a runtime override and apply it just like a change to
+     * the file. Overrides are kept across reloads of the file.
+     * 
+     * @param key
+     * @param value The value (null to remove the override)
+     * @throws IllegalArgumentException If the configuration with the override
+     *             isn't valid (in which case it's not applied)
+     */
+    public synchronized void override(String key, String value) {
+        this.update(PifanConfigs.override(this.current, key, value));
+    }
+
+    /**
+     * 
+     * @param config
+     */
+    private void update(PifanConfig config) {
+        final PifanConfig previous = this.current;
+
+        ConfigDiff diff = new ConfigDiff(previous, config);
+        if (diff.isEmpty() && diff.getRestartKeys().isEmpty()) {
+            logger.debug("Configuration reloaded with no changes [path: {}]", this.path);
+            this.current = config;
+            return;
+        }
+
+        logger.info("Configuration changed [path: {}]: {}", this.path, diff);
+
+        try {
+            this.listener.configChanged(previous, config, diff);
+        } catch (Exception e) {
+            logger.error("Error applying configuration [path: " + this.path + "]: " + e, e);
+        }
+
+        this.current = config;
+    }
+
+    /**
+     * 
+     * @return The configuration currently in effect
+     */
+    public PifanConfig getCurrent() {
+        return this.current;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public final Path getPath() {
+        return this.path;
+    }
+}
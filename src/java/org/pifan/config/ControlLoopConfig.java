@@ -0,0 +1,75 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.config;
+
+/**
+ * A control loop and the pin it drives. The loop itself is built by
+ * {@link org.pifan.control.ControlLoops} from the
+ * <code>control.&lt;name&gt;.*</code> properties.
+ * 
+ * <pre>
+ * control.fan.pin = outlet
+ * </pre>
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class ControlLoopConfig {
+    /**
+     * 
+     */
+    private final String name;
+    private final String pin;
+
+    /**
+     * 
+     * @param name
+     * @param pin
+     */
+    public ControlLoopConfig(String name, String pin) {
+        super();
+
+        this.name = name;
+        this.pin = pin;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * 
+     * @return The name of the pin the loop drives
+     */
+    public String getPin() {
+        return this.pin;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ControlLoopConfig [name: " + this.name + ", pin: " + this.pin + "]";
+    }
+}
@@ -0,0 +1,209 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.config;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+
+import org.pifan.util.ConfigLayers;
+import org.pifan.util.ConfigSnapshot;
+
+/**
+ * An immutable, already parsed and validated snapshot of the application
+ * configuration (see {@link PifanConfigs}).
+ * <p>
+ * Everything the application wires up from is a plain field; the raw
+ * properties are kept as a pre-parsed {@link ConfigSnapshot} for the
+ * factories that build themselves from properties (the scheduler, control
+ * loops, journal, etc.). A reload builds a whole new snapshot, so publishing
+ * one through a volatile field is all it takes to swap configurations.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class PifanConfig {
+    /**
+     * 
+     */
+    private final String source;
+    private final ConfigLayers layers;
+    private final ConfigSnapshot snapshot;
+
+    /**
+     * By name, in the order they were declared.
+     */
+    private final Map<String, PinConfig> pins;
+    private final Map<String, RelayBankConfig> banks;
+    private final Map<String, ScheduleConfig> schedules;
+    private final Map<String, ControlLoopConfig> controlLoops;
+
+    /**
+     * 
+     */
+    private final String schedulerEngine;
+    private final int schedulerThreads;
+
+    /**
+     * 
+     * @param source Where the configuration was loaded from
+     * @param layers The layers the configuration was resolved from
+     * @param snapshot The resolved layers, parsed
+     * @param pins
+     * @param banks
+     * @param schedules
+     * @param controlLoops
+     * @param schedulerEngine
+     * @param schedulerThreads
+     */
+    PifanConfig(String source, ConfigLayers layers, ConfigSnapshot snapshot, Map<String, PinConfig> pins,
+            Map<String, RelayBankConfig> banks, Map<String, ScheduleConfig> schedules,
+            Map<String, ControlLoopConfig> controlLoops, String schedulerEngine, int schedulerThreads) {
+        super();
+
+        this.source = source;
+        this.layers = layers;
+        this.snapshot = snapshot;
+        this.pins = pins;
+        this.banks = banks;
+        this.schedules = schedules;
+        this.controlLoops = controlLoops;
+        this.schedulerEngine = schedulerEngine;
+        this.schedulerThreads = schedulerThreads;
+    }
+
+    /**
+     * 
+     * @return Where the configuration was loaded from
+     */
+    public String getSource() {
+        return this.source;
+    }
+
+    /**
+     * 
+     * @return A copy of the (layered) properties the snapshot was parsed from
+     */
+    public Properties getProperties() {
+        return this.snapshot.toProperties();
+    }
+
+    /**
+     * 
+     * @return The layers the configuration was resolved from (e.g. to see
+     *         where a value came from or to replace a layer)
+     */
+    public ConfigLayers getLayers() {
+        return this.layers;
+    }
+
+    /**
+     * 
+     * @return The (layered) properties the configuration was parsed from,
+     *         already parsed
+     */
+    public ConfigSnapshot getSnapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public Collection<PinConfig> getPins() {
+        return this.pins.values();
+    }
+
+    /**
+     * 
+     * @param name
+     * @return The pin or null if there's no such pin
+     */
+    public PinConfig getPin(String name) {
+        return this.pins.get(name);
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public Collection<RelayBankConfig> getBanks() {
+        return this.banks.values();
+    }
+
+    /**
+     * 
+     * @param name
+     * @return The relay bank or null if there's no such bank
+     */
+    public RelayBankConfig getBank(String name) {
+        return this.banks.get(name);
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public Collection<ScheduleConfig> getSchedules() {
+        return this.schedules.values();
+    }
+
+    /**
+     * 
+     * @param workerName
+     * @return The scheduled worker or null if there's no such worker
+     */
+    public ScheduleConfig getSchedule(String workerName) {
+        return this.schedules.get(workerName);
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public Collection<ControlLoopConfig> getControlLoops() {
+        return this.controlLoops.values();
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public String getSchedulerEngine() {
+        return this.schedulerEngine;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public int getSchedulerThreads() {
+        return this.schedulerThreads;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "PifanConfig [source: " + this.source + ", pins: " + this.pins.keySet() + ", banks: "
+                + this.banks.keySet() + ", schedules: " + this.schedules.keySet() + ", controlLoops: "
+                + this.controlLoops.keySet() + "]";
+    }
+}
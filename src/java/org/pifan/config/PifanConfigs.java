@@ -0,0 +1,507 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.config;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.pifan.control.ControlLoops;
+import org.pifan.schedule.MisfirePolicy;
+import org.pifan.schedule.WorkerSchedulers;
+import org.pifan.util.ConfigLayers;
+import org.pifan.util.ConfigLayers.Layer;
+import org.pifan.util.ConfigSnapshot;
+import org.pifan.util.PropertiesUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the application configuration into a {@link PifanConfig}.
+ * <p>
+ * The configuration file is the first program argument (the
+ * <code>APP_CFG</code> file in runPifan.bash) or the
+ * <code>pifan.config</code> system property, looked up as a file and then on
+ * the classpath (which includes the configuration directory). It's layered
+ * over the built in {@link #defaults()} and under the system properties, so
+ * any key can still be overridden with a <code>-D</code> option, and those
+ * are under any runtime overrides (see {@link ConfigLayers}).
+ * 
+ * <pre>
+ * gpio.pins        = outlet              (see {@link PinConfig})
+ * relay.banks      = rack                (see {@link RelayBankConfig})
+ * schedule.workers = fanOn, fanOff       (see {@link ScheduleConfig})
+ * control.loops    = fan                 (see {@link ControlLoopConfig})
+ * </pre>
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class PifanConfigs {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(PifanConfigs.class);
+
+    /**
+     * 
+     */
+    public static final String CONFIG_PROPERTY = "pifan.config";
+
+    /**
+     * 
+     */
+    public static final String PINS = "gpio.pins";
+    public static final String PIN_PREFIX = "gpio.pin.";
+    public static final String BANKS = "relay.banks";
+    public static final String BANK_PREFIX = "relay.bank.";
+    public static final String SCHEDULES = "schedule.workers";
+    public static final String SCHEDULE_PREFIX = "schedule.worker.";
+    public static final String CONTROL_LOOPS = "control.loops";
+
+    /**
+     * Private non-instantiable constructor.
+     */
+    private PifanConfigs() {
+    }
+
+    /**
+     * The configuration the application used before it was configurable: the
+     * "Outlet" fan on pin 8, switched on at 10 and 40 past the hour and off at
+     * 25 and 55 past, and the "fan" control loop (if it's enabled).
+     * 
+     * @return
+     */
+    public static Properties defaults() {
+        return PropertiesUtils.fromMap(PropertiesUtils.newBuilder().set(PINS, "outlet")
+                .set(PIN_PREFIX + "outlet.num", "8")
+                .set(PIN_PREFIX + "outlet.desc", "Outlet")
+                .set(PIN_PREFIX + "outlet.historySize", "10000")
+                .set(PIN_PREFIX + "outlet.initialState", "on")
+                .set(SCHEDULES, "fanOn, fanOff")
+                .set(SCHEDULE_PREFIX + "fanOn.pin", "outlet")
+                .set(SCHEDULE_PREFIX + "fanOn.state", "on")
+                .set(SCHEDULE_PREFIX + "fanOn.cron", "0 10,40 * * * ?")
+                .set(SCHEDULE_PREFIX + "fanOn.misfirePolicy", "coalesce")
+                .set(SCHEDULE_PREFIX + "fanOn.misfireGroup", "fan")
+                .set(SCHEDULE_PREFIX + "fanOff.pin", "outlet")
+                .set(SCHEDULE_PREFIX + "fanOff.state", "off")
+                .set(SCHEDULE_PREFIX + "fanOff.cron", "0 25,55 * * * ?")
+                .set(SCHEDULE_PREFIX + "fanOff.misfirePolicy", "coalesce")
+                .set(SCHEDULE_PREFIX + "fanOff.misfireGroup", "fan")
+                .set(CONTROL_LOOPS, "fan")
+                .set(ControlLoops.PREFIX + "fan.pin", "outlet")
+                .get());
+    }
+
+    /**
+     * 
+     * @param args The program arguments
+     * @return
+     * @throws IOException
+     */
+    public static PifanConfig load(String[] args) throws IOException {
+        return load(args != null && args.length > 0 ? args[0] : System.getProperty(CONFIG_PROPERTY));
+    }
+
+    /**
+     * 
+     * @param name The configuration file (null to only use the defaults and
+     *            system properties)
+     * @return
+     * @throws IOException
+     */
+    public static PifanConfig load(String name) throws IOException {
+        final ConfigLayers defaults = ConfigLayers.empty().with(Layer.DEFAULTS, defaults())
+                .with(Layer.SYSTEM, System.getProperties());
+
+        if (name == null) {
+            logger.warn("No configuration file given, using the defaults");
+            return parse("defaults", defaults);
+        }
+
+        // prefer the actual file path as the source so it can be watched
+        Path path = locate(name);
+
+        return parse(path != null ? path.toString() : name, defaults.with(Layer.FILE, read(name)));
+    }
+
+    /**
+     * Re-read the configuration file, keeping the other layers (including any
+     * runtime overrides) as they are.
+     * 
+     * @param config
+     * @return
+     * @throws IOException
+     */
+    public static PifanConfig reload(PifanConfig config) throws IOException {
+        return parse(config.getSource(), config.getLayers().with(Layer.FILE, read(config.getSource())));
+    }
+
+    /**
+     * 
+     * @param config
+     * @param key
+     * @param value The value (null to remove the override)
+     * @return The configuration with the given runtime override
+     */
+    public static PifanConfig override(PifanConfig config, String key, String value) {
+        return parse(config.getSource(), config.getLayers().withOverride(key, value));
+    }
+
+    /**
+     * Watch the file the configuration was loaded from and hand every valid
+     * change to the listener, unless <code>config.reload.enabled</code> is
+     * false.
+     * 
+     * @param config
+     * @param listener
+     * @return The (started) watcher or null if reloading is disabled or the
+     *         configuration didn't come from a file
+     * @throws IOException
+     */
+    public static ConfigWatcher watch(PifanConfig config, ConfigWatcher.Listener listener) throws IOException {
+        final ConfigSnapshot reload = config.getSnapshot().view("config.reload.");
+
+        if (!reload.getBooleanValue("enabled", true)) {
+            return null;
+        }
+
+        Path path = locate(config.getSource());
+        if (path == null) {
+            logger.info("Configuration isn't a file, not watching for changes [source: {}]", config.getSource());
+            return null;
+        }
+
+        ConfigWatcher watcher = new ConfigWatcher(path, config, listener,
+                reload.getLongValue("debounceMs", 500));
+        watcher.start();
+
+        return watcher;
+    }
+
+    /**
+     * 
+     * @param name A file path or classpath resource
+     * @return The file or null if there's no such file (or the resource isn't
+     *         a plain file)
+     */
+    public static Path locate(String name) {
+        Path path = Paths.get(name);
+        if (Files.isRegularFile(path)) {
+            return path.toAbsolutePath();
+        }
+
+        URL url = PifanConfigs.class.getClassLoader().getResource(name);
+        if (url != null && "file".equals(url.getProtocol())) {
+            try {
+                return Paths.get(url.toURI());
+            } catch (URISyntaxException e) {
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Read a configuration file (with every value trimmed).
+     * 
+     * @param name A file path or classpath resource
+     * @return
+     * @throws IOException
+     */
+    public static Properties read(String name) throws IOException {
+        Properties properties = new Properties();
+
+        Path path = Paths.get(name);
+        if (Files.isRegularFile(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                properties.load(in);
+            }
+        } else {
+            try (InputStream in = PifanConfigs.class.getClassLoader().getResourceAsStream(name)) {
+                if (in == null) {
+                    throw new FileNotFoundException("Configuration file not found: " + name);
+                }
+                properties.load(in);
+            }
+        }
+
+        for (String key : properties.stringPropertyNames()) {
+            properties.setProperty(key, properties.getProperty(key).trim());
+        }
+
+        logger.info("Configuration loaded [name: {}, keys: {}]", name, properties.size());
+
+        return properties;
+    }
+
+    /**
+     * Parse and validate the properties.
+     * 
+     * @param source Where the properties came from
+     * @param properties
+     * @return
+     * @throws IllegalArgumentException If the configuration isn't valid
+     */
+    public static PifanConfig parse(String source, Properties properties) {
+        return parse(source, ConfigLayers.empty().with(Layer.FILE, properties));
+    }
+
+    /**
+     * Parse and validate the resolved layers.
+     * 
+     * @param source Where the file layer came from
+     * @param layers
+     * @return
+     * @throws IllegalArgumentException If the configuration isn't valid
+     */
+    public static PifanConfig parse(String source, ConfigLayers layers) {
+        logger.debug("Parsing configuration [source: {}]: {}", source, layers);
+
+        // everything is parsed once from the snapshot, which the config then keeps
+        final ConfigSnapshot config = layers.snapshot();
+
+        final Map<String, PinConfig> pins = new LinkedHashMap<>();
+        for (String name : names(config, PINS)) {
+            pins.put(name, parsePin(config, name));
+        }
+
+        final Map<String, RelayBankConfig> banks = new LinkedHashMap<>();
+        for (String name : names(config, BANKS)) {
+            banks.put(name, parseBank(config, name));
+        }
+
+        checkPins(pins, banks);
+
+        final Map<String, ScheduleConfig> schedules = new LinkedHashMap<>();
+        for (String name : names(config, SCHEDULES)) {
+            ScheduleConfig schedule = parseSchedule(config, name);
+
+            if (schedule.getPin() != null && !pins.containsKey(schedule.getPin())) {
+                throw new IllegalArgumentException("Unknown pin for scheduled worker [workerName: " + name + "]: "
+                        + schedule.getPin());
+            }
+            if (schedule.getBank() != null) {
+                RelayBankConfig bank = banks.get(schedule.getBank());
+                if (bank == null) {
+                    throw new IllegalArgumentException("Unknown relay bank for scheduled worker [workerName: " + name
+                            + "]: " + schedule.getBank());
+                }
+                if (schedule.getChannel() < 0 || schedule.getChannel() >= bank.getChannelCount()) {
+                    throw new IllegalArgumentException("Invalid relay bank channel for scheduled worker [workerName: "
+                            + name + "]: " + schedule.getChannel());
+                }
+            }
+
+            schedules.put(name, schedule);
+        }
+
+        final Map<String, ControlLoopConfig> controlLoops = new LinkedHashMap<>();
+        for (String name : names(config, CONTROL_LOOPS)) {
+            String pin = config.getStringValue(ControlLoops.PREFIX + name + ".pin");
+            if (pin == null || !pins.containsKey(pin)) {
+                throw new IllegalArgumentException("Unknown pin for control loop [name: " + name + "]: " + pin);
+            }
+
+            controlLoops.put(name, new ControlLoopConfig(name, pin));
+        }
+
+        final String engine = config.getStringValue(WorkerSchedulers.ENGINE_PROPERTY, WorkerSchedulers.QUARTZ);
+        final int threads = config.getIntegerValue("poller.FanSchedule.numThreads", 5);
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of scheduler threads must be > 0: " + threads);
+        }
+
+        return new PifanConfig(source, layers, config,
+                Collections.unmodifiableMap(pins), Collections.unmodifiableMap(banks),
+                Collections.unmodifiableMap(schedules), Collections.unmodifiableMap(controlLoops), engine, threads);
+    }
+
+    /**
+     * 
+     * @param config
+     * @param name
+     * @return
+     */
+    private static PinConfig parsePin(ConfigSnapshot config, String name) {
+        final ConfigSnapshot pin = config.view(PIN_PREFIX + name + ".");
+
+        return new PinConfig(name, requirePinNum(pin, "num"),
+                pin.getStringValue("desc", name),
+                pin.getIntegerValue("historySize", 0),
+                parseState(pin, "initialState", false),
+                pin.getLongValue("minOnTimeMs", 0),
+                pin.getLongValue("minOffTimeMs", 0),
+                pin.getIntegerValue("maxTransitionsPerHour", 0),
+                pin.getIntegerValue("pwmFrequencyHz", 0));
+    }
+
+    /**
+     * 
+     * @param config
+     * @param name
+     * @return
+     */
+    private static RelayBankConfig parseBank(ConfigSnapshot config, String name) {
+        final String key = BANK_PREFIX + name + ".pins";
+
+        List<String> values = names(config, key);
+        int[] pinNums = new int[values.size()];
+        for (int i = 0; i < pinNums.length; i++) {
+            try {
+                pinNums[i] = Integer.parseInt(values.get(i));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid pin number [key: " + key + "]: " + values.get(i));
+            }
+        }
+
+        return new RelayBankConfig(name, pinNums);
+    }
+
+    /**
+     * 
+     * @param config
+     * @param name
+     * @return
+     */
+    private static ScheduleConfig parseSchedule(ConfigSnapshot config, String name) {
+        final ConfigSnapshot worker = config.view(SCHEDULE_PREFIX + name + ".");
+
+        String policy = worker.getStringValue("misfirePolicy");
+
+        return new ScheduleConfig(name, worker.getStringValue("pin"),
+                worker.getStringValue("bank"),
+                worker.getIntegerValue("channel", 0),
+                parseState(worker, "state", true),
+                worker.getStringValue("cron"),
+                worker.getLongValue("intervalMs", 0),
+                worker.getLongValue("delayMs", 0),
+                policy == null ? null : MisfirePolicy.parse(policy),
+                worker.getStringValue("misfireGroup"));
+    }
+
+    /**
+     * Make sure no pin is used twice.
+     * 
+     * @param pins
+     * @param banks
+     */
+    private static void checkPins(Map<String, PinConfig> pins, Map<String, RelayBankConfig> banks) {
+        final Map<Integer, String> owners = new LinkedHashMap<>();
+
+        for (PinConfig pin : pins.values()) {
+            checkPin(owners, pin.getPinNum(), "pin " + pin.getName());
+        }
+        for (RelayBankConfig bank : banks.values()) {
+            for (int pinNum : bank.getPinNums()) {
+                checkPin(owners, pinNum, "relay bank " + bank.getName());
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param owners
+     * @param pinNum
+     * @param owner
+     */
+    private static void checkPin(Map<Integer, String> owners, int pinNum, String owner) {
+        String existing = owners.put(pinNum, owner);
+        if (existing != null) {
+            throw new IllegalArgumentException("Pin number " + pinNum + " used by both " + existing + " and "
+                    + owner);
+        }
+    }
+
+    /**
+     * 
+     * @param config
+     * @param key
+     * @return
+     */
+    private static int requirePinNum(ConfigSnapshot config, String key) {
+        int pinNum = config.getIntegerValue(key, -1);
+        if (pinNum < 0) {
+            throw new IllegalArgumentException("No valid pin number configured: " + config.getPrefix() + key);
+        }
+        return pinNum;
+    }
+
+    /**
+     * 
+     * @param config
+     * @param key
+     * @param defaultState
+     * @return
+     */
+    private static boolean parseState(ConfigSnapshot config, String key, boolean defaultState) {
+        String value = config.getStringValue(key);
+        if (value == null) {
+            return defaultState;
+        } else if ("on".equalsIgnoreCase(value) || "true".equalsIgnoreCase(value)) {
+            return true;
+        } else if ("off".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+            return false;
+        }
+
+        throw new IllegalArgumentException("Invalid state (expected on or off) [key: " + config.getPrefix() + key
+                + "]: " + value);
+    }
+
+    /**
+     * 
+     * @param config
+     * @param key
+     * @return The comma separated names (empty if the key isn't set)
+     */
+    private static List<String> names(ConfigSnapshot config, String key) {
+        final List<String> names = new ArrayList<>();
+
+        String value = config.getStringValue(key);
+        if (value == null) {
+            return names;
+        }
+
+        for (String name : value.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (names.contains(name)) {
+                throw new IllegalArgumentException("Duplicate name [key: " + key + "]: " + name);
+            }
+            names.add(name);
+        }
+
+        return names;
+    }
+}
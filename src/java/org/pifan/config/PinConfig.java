@@ -0,0 +1,218 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.config;
+
+/**
+ * The configuration of a single relay pin.
+ * 
+ * <pre>
+ * gpio.pin.outlet.num                   = 8
+ * gpio.pin.outlet.desc                  = Outlet
+ * gpio.pin.outlet.historySize           = 10000     (transitions kept in memory, 0 for none)
+ * gpio.pin.outlet.initialState          = on | off
+ * gpio.pin.outlet.minOnTimeMs           = 0
+ * gpio.pin.outlet.minOffTimeMs          = 0
+ * gpio.pin.outlet.maxTransitionsPerHour = 0         (a governor is only used if any of these are set)
+ * gpio.pin.outlet.pwmFrequencyHz        = 0         (variable speed if > 0, see {@link org.pifan.io.FanSpeedControl})
+ * </pre>
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class PinConfig {
+    /**
+     * 
+     */
+    private final String name;
+    private final int pinNum;
+    private final String desc;
+    private final int historySize;
+    private final boolean initialState;
+
+    /**
+     * 
+     */
+    private final long minOnTimeInMs;
+    private final long minOffTimeInMs;
+    private final int maxTransitionsPerHour;
+
+    /**
+     */
+    private final int pwmFrequencyHz;
+
+    /**
+     * 
+     * @param name
+     * @param pinNum
+     * @param desc
+     * @param historySize
+     * @param initialState
+     * @param minOnTimeInMs
+     * @param minOffTimeInMs
+     * @param maxTransitionsPerHour
+     * @param pwmFrequencyHz The software PWM frequency (0 for a plain on/off
+     *            pin)
+     */
+    public PinConfig(String name, int pinNum, String desc, int historySize, boolean initialState,
+            long minOnTimeInMs, long minOffTimeInMs, int maxTransitionsPerHour, int pwmFrequencyHz) {
+        super();
+
+        if (pinNum < 0) {
+            throw new IllegalArgumentException("Pin number must be >= 0 [pin: " + name + "]: " + pinNum);
+        }
+        if (historySize < 0) {
+            throw new IllegalArgumentException("History size must be >= 0 [pin: " + name + "]: " + historySize);
+        }
+        if (pwmFrequencyHz < 0) {
+            throw new IllegalArgumentException("PWM frequency must be >= 0 [pin: " + name + "]: " + pwmFrequencyHz);
+        }
+
+        this.name = name;
+        this.pinNum = pinNum;
+        this.desc = desc;
+        this.historySize = historySize;
+        this.initialState = initialState;
+        this.minOnTimeInMs = minOnTimeInMs;
+        this.minOffTimeInMs = minOffTimeInMs;
+        this.maxTransitionsPerHour = maxTransitionsPerHour;
+        this.pwmFrequencyHz = pwmFrequencyHz;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public int getPinNum() {
+        return this.pinNum;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public String getDesc() {
+        return this.desc;
+    }
+
+    /**
+     * 
+     * @return The number of transitions kept in memory (0 for none)
+     */
+    public int getHistorySize() {
+        return this.historySize;
+    }
+
+    /**
+     * 
+     * @return The state the pin is set to on startup
+     */
+    public boolean getInitialState() {
+        return this.initialState;
+    }
+
+    /**
+     * 
+     * @return Whether the pin's transitions should be governed
+     */
+    public boolean isGoverned() {
+        return this.minOnTimeInMs > 0 || this.minOffTimeInMs > 0 || this.maxTransitionsPerHour > 0;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getMinOnTimeInMs() {
+        return this.minOnTimeInMs;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getMinOffTimeInMs() {
+        return this.minOffTimeInMs;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public int getMaxTransitionsPerHour() {
+        return this.maxTransitionsPerHour;
+    }
+
+    /**
+     * @return Whether the pin is driven with a duty cycle rather than on/off
+     */
+    public boolean isVariableSpeed() {
+        return this.pwmFrequencyHz > 0;
+    }
+
+    /**
+     * @return The software PWM frequency (0 for a plain on/off pin)
+     */
+    public int getPwmFrequencyHz() {
+        return this.pwmFrequencyHz;
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return 31 * this.name.hashCode() + this.pinNum;
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PinConfig)) {
+            return false;
+        }
+
+        PinConfig other = (PinConfig) obj;
+        return this.name.equals(other.name) && this.pinNum == other.pinNum && this.desc.equals(other.desc)
+                && this.historySize == other.historySize && this.initialState == other.initialState
+                && this.minOnTimeInMs == other.minOnTimeInMs && this.minOffTimeInMs == other.minOffTimeInMs
+                && this.maxTransitionsPerHour == other.maxTransitionsPerHour
+                && this.pwmFrequencyHz == other.pwmFrequencyHz;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "PinConfig [name: " + this.name + ", pinNum: " + this.pinNum + ", desc: " + this.desc + "]";
+    }
+}
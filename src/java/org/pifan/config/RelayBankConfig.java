@@ -0,0 +1,111 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.config;
+
+import java.util.Arrays;
+
+/**
+ * The configuration of a relay bank.
+ * 
+ * <pre>
+ * relay.bank.rack.pins = 17, 27, 22, 23     (channel 0 first)
+ * </pre>
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class RelayBankConfig {
+    /**
+     * 
+     */
+    private final String name;
+    private final int[] pinNums;
+
+    /**
+     * 
+     * @param name
+     * @param pinNums The pin number for each channel
+     */
+    public RelayBankConfig(String name, int[] pinNums) {
+        super();
+
+        if (pinNums.length == 0) {
+            throw new IllegalArgumentException("No pins given for relay bank: " + name);
+        }
+
+        this.name = name;
+        this.pinNums = pinNums.clone();
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * 
+     * @return The pin number for each channel
+     */
+    public int[] getPinNums() {
+        return this.pinNums.clone();
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public int getChannelCount() {
+        return this.pinNums.length;
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return 31 * this.name.hashCode() + Arrays.hashCode(this.pinNums);
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof RelayBankConfig)) {
+            return false;
+        }
+
+        RelayBankConfig other = (RelayBankConfig) obj;
+        return this.name.equals(other.name) && Arrays.equals(this.pinNums, other.pinNums);
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "RelayBankConfig [name: " + this.name + ", pins: " + Arrays.toString(this.pinNums) + "]";
+    }
+}
@@ -0,0 +1,245 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.config;
+
+import java.util.Objects;
+
+import org.pifan.schedule.MisfirePolicy;
+
+/**
+ * A scheduled worker that sets a pin (or a relay bank channel) to a fixed
+ * state.
+ * 
+ * <pre>
+ * schedule.worker.fanOn.pin           = outlet
+ * schedule.worker.fanOn.bank          = rack       (instead of a pin)
+ * schedule.worker.fanOn.channel       = 0
+ * schedule.worker.fanOn.state         = on | off
+ * schedule.worker.fanOn.cron          = 0 10,40 * * * ?
+ * schedule.worker.fanOn.intervalMs    = 60000      (instead of a CRON expression)
+ * schedule.worker.fanOn.delayMs       = 0          (run once after the delay if there's no CRON or interval)
+ * schedule.worker.fanOn.misfirePolicy = fire-once-now | skip-to-next | coalesce
+ * schedule.worker.fanOn.misfireGroup  = fan
+ * </pre>
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class ScheduleConfig {
+    /**
+     * 
+     */
+    private final String workerName;
+    private final String pin;
+    private final String bank;
+    private final int channel;
+    private final boolean state;
+
+    /**
+     * 
+     */
+    private final String cronExp;
+    private final long intervalInMs;
+    private final long delayInMs;
+
+    /**
+     * 
+     */
+    private final MisfirePolicy misfirePolicy;
+    private final String misfireGroup;
+
+    /**
+     * 
+     * @param workerName
+     * @param pin The pin name (null if the target is a relay bank channel)
+     * @param bank The relay bank name (null if the target is a pin)
+     * @param channel
+     * @param state
+     * @param cronExp The CRON expression (null for a fixed rate or one-off
+     *            worker)
+     * @param intervalInMs The fixed rate interval (0 for a CRON or one-off
+     *            worker)
+     * @param delayInMs
+     * @param misfirePolicy The misfire policy (null for the scheduler's
+     *            default)
+     * @param misfireGroup
+     */
+    public ScheduleConfig(String workerName, String pin, String bank, int channel, boolean state, String cronExp,
+            long intervalInMs, long delayInMs, MisfirePolicy misfirePolicy, String misfireGroup) {
+        super();
+
+        if ((pin == null) == (bank == null)) {
+            throw new IllegalArgumentException("Scheduled worker must target either a pin or a relay bank: "
+                    + workerName);
+        }
+        if (intervalInMs < 0 || delayInMs < 0) {
+            throw new IllegalArgumentException("Scheduled worker interval and delay must be >= 0: " + workerName);
+        }
+        if (cronExp != null && intervalInMs > 0) {
+            throw new IllegalArgumentException("Scheduled worker can't have both a CRON expression and an interval: "
+                    + workerName);
+        }
+
+        this.workerName = workerName;
+        this.pin = pin;
+        this.bank = bank;
+        this.channel = channel;
+        this.state = state;
+        this.cronExp = cronExp;
+        this.intervalInMs = intervalInMs;
+        this.delayInMs = delayInMs;
+        this.misfirePolicy = misfirePolicy;
+        this.misfireGroup = misfireGroup;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public String getWorkerName() {
+        return this.workerName;
+    }
+
+    /**
+     * 
+     * @return The pin name (null if the target is a relay bank channel)
+     */
+    public String getPin() {
+        return this.pin;
+    }
+
+    /**
+     * 
+     * @return The relay bank name (null if the target is a pin)
+     */
+    public String getBank() {
+        return this.bank;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public int getChannel() {
+        return this.channel;
+    }
+
+    /**
+     * 
+     * @return The state the worker sets (true for on)
+     */
+    public boolean getState() {
+        return this.state;
+    }
+
+    /**
+     * 
+     * @return The CRON expression (null for a fixed rate or one-off worker)
+     */
+    public String getCronExp() {
+        return this.cronExp;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public boolean isCron() {
+        return this.cronExp != null;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public boolean isFixedRate() {
+        return this.intervalInMs > 0;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getIntervalInMs() {
+        return this.intervalInMs;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getDelayInMs() {
+        return this.delayInMs;
+    }
+
+    /**
+     * 
+     * @return The misfire policy (null for the scheduler's default)
+     */
+    public MisfirePolicy getMisfirePolicy() {
+        return this.misfirePolicy;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public String getMisfireGroup() {
+        return this.misfireGroup;
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return this.workerName.hashCode();
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ScheduleConfig)) {
+            return false;
+        }
+
+        ScheduleConfig other = (ScheduleConfig) obj;
+        return this.workerName.equals(other.workerName) && Objects.equals(this.pin, other.pin)
+                && Objects.equals(this.bank, other.bank) && this.channel == other.channel
+                && this.state == other.state && Objects.equals(this.cronExp, other.cronExp)
+                && this.intervalInMs == other.intervalInMs && this.delayInMs == other.delayInMs
+                && this.misfirePolicy == other.misfirePolicy && Objects.equals(this.misfireGroup, other.misfireGroup);
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ScheduleConfig [workerName: " + this.workerName + ", target: "
+                + (this.pin != null ? this.pin : this.bank + "[" + this.channel + "]") + ", state: "
+                + (this.state ? "on" : "off") + ", schedule: "
+                + (this.cronExp != null ? this.cronExp : this.intervalInMs + "/" + this.delayInMs + " ms") + "]";
+    }
+}
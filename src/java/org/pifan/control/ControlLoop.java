@@ -0,0 +1,386 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.control;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.pifan.history.TimeSeriesBuffer;
+import org.pifan.journal.Journal;
+import org.pifan.util.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A closed-loop fan controller.
+ * <p>
+ * A dedicated thread polls a {@link TemperatureSource} at a fixed rate, feeds
+ * the reading to a {@link FanController} and hands the resulting duty cycle to
+ * a {@link FanOutput} whenever it changes. The loop itself doesn't allocate so
+ * it can comfortably run at 10 Hz on a PI Zero.
+ * <p>
+ * If the sensor fails <code>maxFailures</code> reads in a row the loop enters
+ * fallback mode: it stops driving the output and {@link #isFallbackActive()}
+ * returns true, which is the cue for the fixed cron schedules to take over.
+ * The loop leaves fallback mode as soon as the sensor reads again.
+ * <p>
+ * If a history buffer is set every reading (including failed ones, as NaN) is
+ * recorded along with whether the fan was being driven on.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class ControlLoop {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ControlLoop.class);
+
+    /**
+     * 
+     */
+    private final String name;
+    private final TemperatureSource source;
+    private final FanController controller;
+    private final FanOutput output;
+    private final long periodNanos;
+    private final int maxFailures;
+
+    /**
+     * 
+     */
+    private Thread loopThread;
+    private volatile boolean running = false;
+
+    /**
+     * Loop state (written by the loop thread only).
+     */
+    private volatile float lastCelsius = Float.NaN;
+    private volatile int lastDuty = -1;
+    private volatile boolean fallbackActive = true;
+    private volatile long cycles = 0;
+    private volatile long failedReads = 0;
+    private int consecutiveFailures = 0;
+
+    /**
+     * 
+     */
+    private volatile TimeSeriesBuffer history;
+
+    /**
+     * 
+     */
+    private volatile Journal journal;
+    private volatile int journalSource;
+
+    /**
+     * What readings are timestamped with, and what {@link #step()} reads the
+     * time from (the loop thread is always paced by the wall clock).
+     */
+    private volatile Clock clock = Clock.SYSTEM;
+
+    /**
+     * 
+     * @param name
+     * @param source
+     * @param controller
+     * @param output
+     * @param periodInMs The polling period
+     * @param maxFailures The number of consecutive failed reads before falling
+     *            back to the cron schedules
+     */
+    public ControlLoop(String name, TemperatureSource source, FanController controller, FanOutput output,
+            long periodInMs, int maxFailures) {
+        super();
+
+        if (periodInMs <= 0) {
+            throw new IllegalArgumentException("Control loop period must be > 0: " + periodInMs);
+        }
+
+        this.name = name;
+        this.source = source;
+        this.controller = controller;
+        this.output = output;
+        this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodInMs);
+        this.maxFailures = Math.max(1, maxFailures);
+    }
+
+    /**
+     * 
+     */
+    public synchronized void start() {
+        if (this.loopThread != null) {
+            return;
+        }
+
+        logger.info("Control loop [name: {}] starting", this.name);
+        logger.info("  sensor:       {}", this.source.getName());
+        logger.info("  controller:   {}", this.controller.getClass().getSimpleName());
+        logger.info("  period:       {}ms", TimeUnit.NANOSECONDS.toMillis(this.periodNanos));
+        logger.info("  max failures: {}", this.maxFailures);
+
+        this.running = true;
+        this.loopThread = new Thread(this::run, "control-loop-" + this.name);
+        this.loopThread.setDaemon(true);
+        this.loopThread.start();
+    }
+
+    /**
+     * 
+     */
+    public synchronized void stop() {
+        Thread thread = this.loopThread;
+        if (thread == null) {
+            return;
+        }
+
+        logger.info("Control loop [name: {}] stopping", this.name);
+
+        this.running = false;
+        LockSupport.unpark(thread);
+
+        try {
+            thread.join(TimeUnit.NANOSECONDS.toMillis(this.periodNanos) + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.loopThread = null;
+        this.source.close();
+        this.fallbackActive = true;
+    }
+
+    /**
+     * 
+     */
+    private void run() {
+        long deadline = System.nanoTime();
+
+        while (this.running) {
+            this.cycle(System.nanoTime());
+
+            deadline += this.periodNanos;
+
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0 && this.running) {
+                LockSupport.parkNanos(this, remaining);
+            }
+
+            // don't try and catch up on missed cycles
+            long now = System.nanoTime();
+            if (now - deadline > this.periodNanos) {
+                deadline = now;
+            }
+        }
+    }
+
+    /**
+     * Run a single control cycle on the calling thread, timestamped with the
+     * loop's clock. This is how the loop is driven in virtual time (e.g. from
+     * a worker registered with a
+     * {@link org.pifan.schedule.VirtualTimeScheduler}) instead of being
+     * started.
+     */
+    public void step() {
+        this.cycle(this.clock.nanoTime());
+    }
+
+    /**
+     * Run a single control cycle.
+     * 
+     * @param nowNanos
+     */
+    final void cycle(long nowNanos) {
+        this.cycles++;
+
+        final float celsius = this.source.readCelsius();
+        this.lastCelsius = celsius;
+
+        try {
+            this.control(celsius, nowNanos);
+        } finally {
+            final long now = this.clock.currentTimeMillis();
+            final byte state = this.lastDuty > 0 ? TimeSeriesBuffer.STATE_ON : TimeSeriesBuffer.STATE_OFF;
+
+            final TimeSeriesBuffer hist = this.history;
+            if (hist != null) {
+                hist.append(now, celsius, state);
+            }
+
+            final Journal jnl = this.journal;
+            if (jnl != null) {
+                jnl.append(Journal.TYPE_SAMPLE, this.journalSource, now, celsius, state);
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param celsius
+     * @param nowNanos
+     */
+    private void control(float celsius, long nowNanos) {
+        if (Float.isNaN(celsius)) {
+            this.failedReads++;
+
+            if (++this.consecutiveFailures >= this.maxFailures && !this.fallbackActive) {
+                logger.warn("Control loop [name: {}] sensor failed, falling back to the fixed schedules", this.name);
+
+                this.fallbackActive = true;
+                this.lastDuty = -1;
+                this.controller.reset();
+            }
+            return;
+        }
+
+        this.consecutiveFailures = 0;
+
+        if (this.fallbackActive) {
+            logger.info("Control loop [name: {}] sensor available, taking over fan control", this.name);
+            this.fallbackActive = false;
+        }
+
+        final int duty = this.controller.update(celsius, nowNanos);
+        if (duty != this.lastDuty) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Control loop [name: " + this.name + "] setting duty cycle [temp: " + celsius
+                        + ", duty: " + duty + "%]");
+            }
+
+            this.lastDuty = duty;
+            this.output.setDutyCycle(duty);
+        }
+    }
+
+    /**
+     * 
+     * @param history The buffer to record the readings in (null for none); it
+     *            must only be written by this loop
+     */
+    public void setHistory(TimeSeriesBuffer history) {
+        this.history = history;
+    }
+
+    /**
+     * 
+     * @param clock What readings are timestamped with
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public Clock getClock() {
+        return this.clock;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public TimeSeriesBuffer getHistory() {
+        return this.history;
+    }
+
+    /**
+     * 
+     * @param journal The journal to record the readings in (null for none)
+     * @param source The record source to use for this loop's readings
+     */
+    public void setJournal(Journal journal, int source) {
+        this.journalSource = source;
+        this.journal = journal;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public Journal getJournal() {
+        return this.journal;
+    }
+
+    /**
+     * 
+     * @return Whether the sensor has failed and the fixed schedules should be
+     *         in control
+     */
+    public boolean isFallbackActive() {
+        return this.fallbackActive;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public final String getName() {
+        return this.name;
+    }
+
+    /**
+     * 
+     * @return The last temperature read ({@link Float#NaN} if the read failed)
+     */
+    public float getLastCelsius() {
+        return this.lastCelsius;
+    }
+
+    /**
+     * 
+     * @return The last duty cycle sent to the output (-1 if none)
+     */
+    public int getLastDutyCycle() {
+        return this.lastDuty;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getCycleCount() {
+        return this.cycles;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getFailedReadCount() {
+        return this.failedReads;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public FanController getController() {
+        return this.controller;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public TemperatureSource getSource() {
+        return this.source;
+    }
+}
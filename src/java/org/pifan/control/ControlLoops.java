@@ -0,0 +1,225 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.control;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.pifan.history.TimeSeriesBuffer;
+import org.pifan.util.ConfigSnapshot;
+
+/**
+ * Builds {@link ControlLoop}s from properties. For a loop named
+ * <code>fan</code>:
+ * 
+ * <pre>
+ * control.fan.enabled       = true
+ * control.fan.rateHz        = 1
+ * control.fan.maxFailures   = 5
+ * control.fan.historySize   = 604800    (readings kept in memory, 0 for none)
+ * control.fan.sensor.type   = thermal | w1 | simulated
+ * control.fan.sensor.path   = /sys/class/thermal/thermal_zone0/temp
+ * control.fan.mode          = hysteresis | pid
+ * control.fan.onAbove       = 30
+ * control.fan.offBelow      = 27
+ * control.fan.pid.setpoint  = 28
+ * control.fan.pid.kp        = 20
+ * control.fan.pid.ki        = 0.5
+ * control.fan.pid.kd        = 0
+ * control.fan.pid.minDuty   = 20
+ * </pre>
+ * 
+ * The controller tuning (the thresholds and gains) can be changed on a
+ * running loop with {@link #retune(ControlLoop, ConfigSnapshot)}; everything
+ * else needs a new loop.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class ControlLoops {
+    /**
+     * 
+     */
+    public static final String PREFIX = "control.";
+
+    /**
+     * The keys (relative to the loop's prefix) that can be retuned.
+     */
+    private static final Set<String> tuningKeys = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "onAbove", "offBelow", "pid.setpoint", "pid.kp", "pid.ki", "pid.kd", "pid.minDuty")));
+
+    /**
+     * Private non-instantiable constructor.
+     */
+    private ControlLoops() {
+    }
+
+    /**
+     * 
+     * @param name The loop name
+     * @param properties
+     * @param output
+     * @return The (not yet started) loop or null if the loop isn't enabled
+     */
+    public static ControlLoop create(String name, Properties properties, FanOutput output) {
+        return create(name, ConfigSnapshot.of(properties), output);
+    }
+
+    /**
+     * 
+     * @param name The loop name
+     * @param config
+     * @param output
+     * @return The (not yet started) loop or null if the loop isn't enabled
+     */
+    public static ControlLoop create(String name, ConfigSnapshot config, FanOutput output) {
+        final ConfigSnapshot loopConfig = config.view(PREFIX + name + ".");
+
+        if (!loopConfig.getBooleanValue("enabled", false)) {
+            return null;
+        }
+
+        float rateHz = loopConfig.getFloatValue("rateHz", 1f);
+        if (rateHz <= 0) {
+            throw new IllegalArgumentException("Control loop rate must be > 0: " + rateHz);
+        }
+
+        int maxFailures = loopConfig.getIntegerValue("maxFailures", 5);
+
+        TemperatureSource source = createSource(name, loopConfig.view("sensor."));
+        FanController controller = createController(loopConfig);
+
+        ControlLoop loop = new ControlLoop(name, source, controller, output, Math.max(1, Math.round(1000f / rateHz)),
+                maxFailures);
+
+        // default to a week of readings at 1 Hz
+        int historySize = loopConfig.getIntegerValue("historySize", 7 * 24 * 60 * 60);
+        if (historySize > 0) {
+            loop.setHistory(new TimeSeriesBuffer(name, historySize));
+        }
+
+        return loop;
+    }
+
+    /**
+     * Apply the configured tuning to a running loop. The new tuning is
+     * validated first and published in one go, so the loop either carries on
+     * with the old tuning or picks up all of the new one on its next cycle.
+     * 
+     * @param loop
+     * @param config
+     * @return False if the loop's controller is a different mode than the one
+     *         configured (which needs a new loop)
+     * @throws IllegalArgumentException If the new tuning isn't valid
+     */
+    public static boolean retune(ControlLoop loop, ConfigSnapshot config) {
+        final ConfigSnapshot loopConfig = config.view(PREFIX + loop.getName() + ".");
+        final FanController controller = loop.getController();
+        final String mode = loopConfig.getStringValue("mode", "hysteresis");
+
+        if ("hysteresis".equalsIgnoreCase(mode) && controller instanceof HysteresisController) {
+            ((HysteresisController) controller).setTuning(hysteresisTuning(loopConfig));
+            return true;
+        } else if ("pid".equalsIgnoreCase(mode) && controller instanceof PidController) {
+            ((PidController) controller).setTuning(pidTuning(loopConfig));
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * 
+     * @param key A key relative to the loop's prefix (e.g. <code>pid.kp</code>)
+     * @return Whether the key can be changed with
+     *         {@link #retune(ControlLoop, ConfigSnapshot)}
+     */
+    public static boolean isTuningKey(String key) {
+        return tuningKeys.contains(key);
+    }
+
+    /**
+     * 
+     * @param name
+     * @param config The loop's <code>sensor.</code> view
+     * @return
+     */
+    private static TemperatureSource createSource(String name, ConfigSnapshot config) {
+        String type = config.getStringValue("type", "thermal");
+        String path = config.getStringValue("path");
+
+        if ("thermal".equalsIgnoreCase(type)) {
+            return path == null ? new ThermalZoneTemperatureSource() : new ThermalZoneTemperatureSource(path);
+        } else if ("w1".equalsIgnoreCase(type)) {
+            if (path == null) {
+                throw new IllegalArgumentException("No w1_slave path configured: " + config.getPrefix() + "path");
+            }
+            return new W1TemperatureSource(path);
+        } else if ("simulated".equalsIgnoreCase(type)) {
+            return new SimulatedTemperatureSource(name, config.getFloatValue("initialCelsius", 25f));
+        }
+
+        throw new IllegalArgumentException("Unknown temperature sensor type: " + type);
+    }
+
+    /**
+     * 
+     * @param config The loop's view
+     * @return
+     */
+    private static FanController createController(ConfigSnapshot config) {
+        String mode = config.getStringValue("mode", "hysteresis");
+
+        if ("hysteresis".equalsIgnoreCase(mode)) {
+            return new HysteresisController(hysteresisTuning(config));
+        } else if ("pid".equalsIgnoreCase(mode)) {
+            return new PidController(pidTuning(config));
+        }
+
+        throw new IllegalArgumentException("Unknown fan controller mode: " + mode);
+    }
+
+    /**
+     * 
+     * @param config The loop's view
+     * @return
+     */
+    private static HysteresisController.Tuning hysteresisTuning(ConfigSnapshot config) {
+        float onAbove = config.getFloatValue("onAbove", 30f);
+        float offBelow = config.getFloatValue("offBelow", onAbove - 3f);
+
+        return new HysteresisController.Tuning(onAbove, offBelow);
+    }
+
+    /**
+     * 
+     * @param config The loop's view
+     * @return
+     */
+    private static PidController.Tuning pidTuning(ConfigSnapshot config) {
+        return new PidController.Tuning(config.getFloatValue("pid.setpoint", 28f),
+                config.getFloatValue("pid.kp", 20f),
+                config.getFloatValue("pid.ki", 0.5f),
+                config.getFloatValue("pid.kd", 0f),
+                config.getIntegerValue("pid.minDuty", 20));
+    }
+}
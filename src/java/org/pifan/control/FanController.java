@@ -0,0 +1,40 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.control;
+
+/**
+ * Turns temperature readings into a fan duty cycle.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public interface FanController {
+    /**
+     * 
+     * @param celsius The latest temperature reading
+     * @param nowNanos The {@link System#nanoTime()} of the reading
+     * @return The fan duty cycle (0-100)
+     */
+    int update(float celsius, long nowNanos);
+
+    /**
+     * Forget any accumulated state (e.g. after the sensor failed for a while).
+     */
+    void reset();
+}
@@ -0,0 +1,36 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.control;
+
+/**
+ * Where a {@link ControlLoop} sends its output, e.g. an on/off relay via the
+ * GPIO command queue or a {@link org.pifan.io.FanSpeedControl}.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+@FunctionalInterface
+public interface FanOutput {
+    /**
+     * Only called when the duty cycle changes.
+     * 
+     * @param dutyPercent The fan duty cycle (0-100)
+     */
+    void setDutyCycle(int dutyPercent);
+}
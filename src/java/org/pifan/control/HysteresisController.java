@@ -0,0 +1,149 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.control;
+
+/**
+ * A simple thermostat: the fan turns fully on above one temperature and off
+ * below a lower one, and holds its state in between.
+ * <p>
+ * The thresholds can be changed while running with
+ * {@link #setTuning(Tuning)}.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class HysteresisController implements FanController {
+    /**
+     * An immutable pair of thresholds.
+     */
+    public static final class Tuning {
+        private final float onAbove;
+        private final float offBelow;
+
+        /**
+         * 
+         * @param onAbove Turn the fan on at or above this temperature
+         * @param offBelow Turn the fan off at or below this temperature
+         */
+        public Tuning(float onAbove, float offBelow) {
+            super();
+
+            if (offBelow > onAbove) {
+                throw new IllegalArgumentException("Hysteresis off temperature (" + offBelow
+                        + ") must not be above the on temperature (" + onAbove + ")");
+            }
+
+            this.onAbove = onAbove;
+            this.offBelow = offBelow;
+        }
+
+        /**
+         * 
+         * @return
+         */
+        public float getOnAbove() {
+            return this.onAbove;
+        }
+
+        /**
+         * 
+         * @return
+         */
+        public float getOffBelow() {
+            return this.offBelow;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return "Tuning [onAbove: " + this.onAbove + ", offBelow: " + this.offBelow + "]";
+        }
+    }
+
+    /**
+     * 
+     */
+    private volatile Tuning tuning;
+
+    /**
+     * 
+     */
+    private boolean on = false;
+
+    /**
+     * 
+     * @param onAbove Turn the fan on at or above this temperature
+     * @param offBelow Turn the fan off at or below this temperature
+     */
+    public HysteresisController(float onAbove, float offBelow) {
+        this(new Tuning(onAbove, offBelow));
+    }
+
+    /**
+     * 
+     * @param tuning
+     */
+    public HysteresisController(Tuning tuning) {
+        super();
+
+        this.tuning = tuning;
+    }
+
+    /**
+     * 
+     * @param tuning The thresholds to use from the next update on
+     */
+    public void setTuning(Tuning tuning) {
+        this.tuning = tuning;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public Tuning getTuning() {
+        return this.tuning;
+    }
+
+    /**
+     * @see org.pifan.control.FanController#update(float, long)
+     */
+    @Override
+    public int update(float celsius, long nowNanos) {
+        final Tuning t = this.tuning;
+
+        if (celsius >= t.onAbove) {
+            this.on = true;
+        } else if (celsius <= t.offBelow) {
+            this.on = false;
+        }
+
+        return this.on ? 100 : 0;
+    }
+
+    /**
+     * @see org.pifan.control.FanController#reset()
+     */
+    @Override
+    public void reset() {
+        this.on = false;
+    }
+}
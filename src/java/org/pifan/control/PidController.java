@@ -0,0 +1,214 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.control;
+
+/**
+ * A PID controller for proportional fan speed.
+ * <p>
+ * The controller is reverse acting: the further the temperature is above the
+ * setpoint the higher the duty cycle. The integral term is clamped so it can't
+ * wind up while the output is saturated, and the derivative is taken on the
+ * measurement (not the error) so setpoint changes don't kick the output. A
+ * computed duty cycle below <code>minDuty</code> turns the fan off since most
+ * fans stall at low duty cycles anyway.
+ * <p>
+ * The gains can be changed while running with {@link #setTuning(Tuning)};
+ * each update reads the current {@link Tuning} once so it never sees a mix of
+ * old and new gains.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class PidController implements FanController {
+    /**
+     * An immutable set of gains.
+     */
+    public static final class Tuning {
+        private final float setpoint;
+        private final float kp;
+        private final float ki;
+        private final float kd;
+        private final int minDuty;
+
+        /**
+         * 
+         * @param setpoint The target temperature
+         * @param kp Proportional gain (duty % per degree)
+         * @param ki Integral gain (duty % per degree-second)
+         * @param kd Derivative gain (duty % per degree/second)
+         * @param minDuty The lowest non-zero duty cycle the fan will run at
+         */
+        public Tuning(float setpoint, float kp, float ki, float kd, int minDuty) {
+            super();
+
+            this.setpoint = setpoint;
+            this.kp = kp;
+            this.ki = ki;
+            this.kd = kd;
+            this.minDuty = Math.max(0, Math.min(100, minDuty));
+        }
+
+        /**
+         * 
+         * @return
+         */
+        public float getSetpoint() {
+            return this.setpoint;
+        }
+
+        /**
+         * 
+         * @return
+         */
+        public float getKp() {
+            return this.kp;
+        }
+
+        /**
+         * 
+         * @return
+         */
+        public float getKi() {
+            return this.ki;
+        }
+
+        /**
+         * 
+         * @return
+         */
+        public float getKd() {
+            return this.kd;
+        }
+
+        /**
+         * 
+         * @return
+         */
+        public int getMinDuty() {
+            return this.minDuty;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return "Tuning [setpoint: " + this.setpoint + ", kp: " + this.kp + ", ki: " + this.ki + ", kd: "
+                    + this.kd + ", minDuty: " + this.minDuty + "]";
+        }
+    }
+
+    /**
+     * 
+     */
+    private volatile Tuning tuning;
+
+    /**
+     * 
+     */
+    private float integral = 0;
+    private float lastCelsius = Float.NaN;
+    private long lastNanos = 0;
+
+    /**
+     * 
+     * @param setpoint The target temperature
+     * @param kp Proportional gain (duty % per degree)
+     * @param ki Integral gain (duty % per degree-second)
+     * @param kd Derivative gain (duty % per degree/second)
+     * @param minDuty The lowest non-zero duty cycle the fan will run at
+     */
+    public PidController(float setpoint, float kp, float ki, float kd, int minDuty) {
+        this(new Tuning(setpoint, kp, ki, kd, minDuty));
+    }
+
+    /**
+     * 
+     * @param tuning
+     */
+    public PidController(Tuning tuning) {
+        super();
+
+        this.tuning = tuning;
+    }
+
+    /**
+     * 
+     * @param tuning The gains to use from the next update on
+     */
+    public void setTuning(Tuning tuning) {
+        this.tuning = tuning;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public Tuning getTuning() {
+        return this.tuning;
+    }
+
+    /**
+     * @see org.pifan.control.FanController#update(float, long)
+     */
+    @Override
+    public int update(float celsius, long nowNanos) {
+        final Tuning t = this.tuning;
+        final float error = celsius - t.setpoint;
+
+        float dt = 0;
+        float derivative = 0;
+        if (!Float.isNaN(this.lastCelsius)) {
+            dt = (nowNanos - this.lastNanos) / 1e9f;
+            if (dt > 0) {
+                derivative = (celsius - this.lastCelsius) / dt;
+            }
+        }
+
+        this.lastCelsius = celsius;
+        this.lastNanos = nowNanos;
+
+        // clamp the integral contribution to the output range (anti-windup)
+        if (t.ki != 0 && dt > 0) {
+            this.integral += error * dt;
+
+            float maxIntegral = 100f / Math.abs(t.ki);
+            this.integral = Math.max(-maxIntegral, Math.min(maxIntegral, this.integral));
+        }
+
+        float output = t.kp * error + t.ki * this.integral + t.kd * derivative;
+
+        int duty = Math.round(Math.max(0f, Math.min(100f, output)));
+        if (duty < t.minDuty) {
+            duty = 0;
+        }
+
+        return duty;
+    }
+
+    /**
+     * @see org.pifan.control.FanController#reset()
+     */
+    @Override
+    public void reset() {
+        this.integral = 0;
+        this.lastCelsius = Float.NaN;
+        this.lastNanos = 0;
+    }
+}
@@ -0,0 +1,79 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.control;
+
+/**
+ * A temperature source whose value is set directly, for running the control
+ * loop off of a Raspberry PI or in tests.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class SimulatedTemperatureSource implements TemperatureSource {
+    /**
+     * 
+     */
+    private final String name;
+    private volatile float celsius;
+
+    /**
+     * 
+     * @param name
+     * @param initialCelsius
+     */
+    public SimulatedTemperatureSource(String name, float initialCelsius) {
+        super();
+
+        this.name = name;
+        this.celsius = initialCelsius;
+    }
+
+    /**
+     * 
+     * @param celsius The new temperature ({@link Float#NaN} to simulate a failed
+     *            read)
+     */
+    public void setCelsius(float celsius) {
+        this.celsius = celsius;
+    }
+
+    /**
+     * @see org.pifan.control.TemperatureSource#getName()
+     */
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @see org.pifan.control.TemperatureSource#readCelsius()
+     */
+    @Override
+    public float readCelsius() {
+        return this.celsius;
+    }
+
+    /**
+     * @see org.pifan.control.TemperatureSource#close()
+     */
+    @Override
+    public void close() {
+        // nothing to release
+    }
+}
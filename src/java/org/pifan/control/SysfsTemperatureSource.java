@@ -0,0 +1,127 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.control;
+
+import java.io.IOException;
+
+import org.pifan.io.SysfsReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base class for temperature sources backed by a sysfs style file holding an
+ * integer value in millidegrees Celsius.
+ * <p>
+ * The file is read through a {@link SysfsReader} so it's kept open, re-read
+ * into the same direct buffer and parsed in place; a read doesn't allocate.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public abstract class SysfsTemperatureSource implements TemperatureSource {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(SysfsTemperatureSource.class);
+
+    /**
+     * 
+     */
+    private final String path;
+    private final SysfsReader reader;
+
+    /**
+     * Whether the last read failed; used so we only log the first failure.
+     */
+    private boolean failed = false;
+
+    /**
+     * 
+     * @param path
+     */
+    protected SysfsTemperatureSource(String path) {
+        super();
+
+        this.path = path;
+        this.reader = new SysfsReader(path);
+    }
+
+    /**
+     * @see org.pifan.control.TemperatureSource#getName()
+     */
+    @Override
+    public String getName() {
+        return this.path;
+    }
+
+    /**
+     * @see org.pifan.control.TemperatureSource#readCelsius()
+     */
+    @Override
+    public final float readCelsius() {
+        try {
+            this.reader.read();
+
+            long milliDegrees = this.parse(this.reader);
+            if (milliDegrees == SysfsReader.NO_VALUE) {
+                return this.readFailed(null);
+            }
+
+            this.failed = false;
+            return milliDegrees / 1000f;
+        } catch (IOException e) {
+            return this.readFailed(e);
+        }
+    }
+
+    /**
+     * @see org.pifan.control.TemperatureSource#close()
+     */
+    @Override
+    public void close() {
+        this.reader.close();
+    }
+
+    /**
+     * Extract the millidegree value from the file contents just read.
+     * 
+     * @param reader
+     * @return The value or {@link SysfsReader#NO_VALUE} if it couldn't be parsed
+     */
+    protected abstract long parse(SysfsReader reader);
+
+    /**
+     * 
+     * @param e
+     * @return
+     */
+    private float readFailed(IOException e) {
+        if (!this.failed) {
+            this.failed = true;
+
+            if (e != null) {
+                logger.warn("Error reading temperature [path: " + this.path + "]: " + e);
+            } else {
+                logger.warn("Unable to parse temperature [path: {}]", this.path);
+            }
+        }
+
+        return Float.NaN;
+    }
+}
@@ -0,0 +1,49 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.control;
+
+/**
+ * A source of temperature readings polled by a {@link ControlLoop}.
+ * <p>
+ * Reads happen on the control loop thread every cycle so implementations
+ * shouldn't allocate on the read path. A failed read is reported by returning
+ * {@link Float#NaN} rather than throwing.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public interface TemperatureSource {
+    /**
+     * 
+     * @return The source name (used for logging)
+     */
+    String getName();
+
+    /**
+     * 
+     * @return The current temperature in degrees Celsius or {@link Float#NaN} if
+     *         the read failed
+     */
+    float readCelsius();
+
+    /**
+     * Release any resources held by the source.
+     */
+    void close();
+}
@@ -0,0 +1,59 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.control;
+
+import org.pifan.io.SysfsReader;
+
+/**
+ * Reads the CPU temperature from a sysfs thermal zone (e.g.
+ * <code>/sys/class/thermal/thermal_zone0/temp</code>) which holds a single
+ * millidegree value.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class ThermalZoneTemperatureSource extends SysfsTemperatureSource {
+    /**
+     * 
+     */
+    public static final String DEFAULT_PATH = "/sys/class/thermal/thermal_zone0/temp";
+
+    /**
+     * 
+     */
+    public ThermalZoneTemperatureSource() {
+        this(DEFAULT_PATH);
+    }
+
+    /**
+     * 
+     * @param path
+     */
+    public ThermalZoneTemperatureSource(String path) {
+        super(path);
+    }
+
+    /**
+     * @see org.pifan.control.SysfsTemperatureSource#parse(org.pifan.io.SysfsReader)
+     */
+    @Override
+    protected long parse(SysfsReader reader) {
+        return reader.parseLong(0);
+    }
+}
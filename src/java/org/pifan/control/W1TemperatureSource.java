@@ -0,0 +1,72 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.control;
+
+import org.pifan.io.SysfsReader;
+
+/**
+ * Reads a DS18B20 1-wire temperature sensor via its <code>w1_slave</code> file,
+ * e.g. <code>/sys/bus/w1/devices/28-000005e2fdc3/w1_slave</code>:
+ * 
+ * <pre>
+ * 72 01 4b 46 7f ff 0e 10 57 : crc=57 YES
+ * 72 01 4b 46 7f ff 0e 10 57 t=23125
+ * </pre>
+ * 
+ * A reading is only accepted if the first line ends with a successful CRC
+ * ("YES").
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class W1TemperatureSource extends SysfsTemperatureSource {
+    /**
+     * 
+     * @param path The path to the sensor's w1_slave file
+     */
+    public W1TemperatureSource(String path) {
+        super(path);
+    }
+
+    /**
+     * 
+     */
+    private static final byte[] crcOk = { 'Y', 'E', 'S' };
+    private static final byte[] tempMarker = { 't', '=' };
+
+    /**
+     * @see org.pifan.control.SysfsTemperatureSource#parse(org.pifan.io.SysfsReader)
+     */
+    @Override
+    protected long parse(SysfsReader reader) {
+        // the CRC line has to end in "YES"
+        int eol = reader.indexOf((byte) '\n', 0);
+        if (eol < 0 || !reader.endsWith(eol, crcOk)) {
+            return SysfsReader.NO_VALUE;
+        }
+
+        // then find "t=" on the next line
+        int marker = reader.indexOf(tempMarker, eol + 1);
+        if (marker < 0) {
+            return SysfsReader.NO_VALUE;
+        }
+
+        return reader.parseLong(marker + tempMarker.length);
+    }
+}
@@ -0,0 +1,296 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.history;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pifan.util.Fences;
+
+/**
+ * A fixed capacity, in-memory history of samples (timestamp, value, state),
+ * e.g. sensor readings or relay states.
+ * <p>
+ * Samples are held in parallel primitive arrays used as a ring, so nothing is
+ * boxed and the memory footprint is fixed at 13 bytes per sample (7 days at
+ * 1 Hz is ~7.9 MB). There must be a single writer (or writers serialized by a
+ * lock); any number of readers can query concurrently without ever blocking
+ * the writer. A reader works from the published write sequence and discards
+ * (or retries) anything the writer may have overwritten while it was reading.
+ * <p>
+ * Timestamps are expected to be appended in non-decreasing order.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class TimeSeriesBuffer {
+    /**
+     * Common sample states.
+     */
+    public static final byte STATE_OFF = 0;
+    public static final byte STATE_ON = 1;
+
+    /**
+     * How many times a query is retried if the writer laps it.
+     */
+    private static final int maxQueryAttempts = 4;
+
+    /**
+     * 
+     */
+    private final String name;
+    private final int capacity;
+
+    /**
+     * The ring has one slot more than the capacity: that's the slot the writer
+     * may be in the middle of overwriting, so readers never look at it.
+     */
+    private final int slots;
+
+    /**
+     * The sample ring.
+     */
+    private final long[] timestamps;
+    private final float[] values;
+    private final byte[] states;
+
+    /**
+     * The number of samples ever written; published after the sample itself.
+     */
+    private final AtomicLong writeSeq = new AtomicLong();
+
+    /**
+     * 
+     * @param name
+     * @param capacity The number of samples to keep
+     */
+    public TimeSeriesBuffer(String name, int capacity) {
+        super();
+
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be > 0: " + capacity);
+        }
+
+        this.name = name;
+        this.capacity = capacity;
+        this.slots = capacity + 1;
+        this.timestamps = new long[this.slots];
+        this.values = new float[this.slots];
+        this.states = new byte[this.slots];
+    }
+
+    /**
+     * Append a sample. Must only be called by the single writer.
+     * 
+     * @param timestamp
+     * @param value The sample value ({@link Float#NaN} if the sample has no value)
+     * @param state The sample state
+     */
+    public void append(long timestamp, float value, byte state) {
+        final long seq = this.writeSeq.get();
+        final int index = (int) (seq % this.slots);
+
+        // the previous publish has to be visible before this slot's data is
+        Fences.storeFence();
+
+        this.timestamps[index] = timestamp;
+        this.values[index] = value;
+        this.states[index] = state;
+
+        // publish the sample
+        this.writeSeq.lazySet(seq + 1);
+    }
+
+    /**
+     * Compute statistics over the samples with timestamps in
+     * <code>[fromTime, toTime]</code>.
+     * 
+     * @param fromTime
+     * @param toTime
+     * @param stats Filled in with the results
+     * @return The given stats
+     */
+    public WindowStats query(long fromTime, long toTime, WindowStats stats) {
+        for (int attempt = 0; attempt < maxQueryAttempts; attempt++) {
+            stats.reset();
+
+            final long end = this.writeSeq.get();
+            final long start = Math.max(0, end - this.capacity);
+
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            double sum = 0;
+
+            long oldestUsed = end;
+
+            // walk back from the newest sample until we leave the window
+            for (long seq = end - 1; seq >= start; seq--) {
+                final int index = (int) (seq % this.slots);
+                final long timestamp = this.timestamps[index];
+
+                if (timestamp > toTime) {
+                    continue;
+                }
+                if (timestamp < fromTime) {
+                    break;
+                }
+
+                final float value = this.values[index];
+                final byte state = this.states[index];
+
+                oldestUsed = seq;
+
+                if (stats.count == 0) {
+                    stats.lastTimestamp = timestamp;
+                }
+                stats.firstTimestamp = timestamp;
+                stats.count++;
+
+                if (!Float.isNaN(value)) {
+                    stats.valueCount++;
+                    sum += value;
+                    if (value < min) {
+                        min = value;
+                    }
+                    if (value > max) {
+                        max = value;
+                    }
+                }
+
+                if (state != 0) {
+                    stats.activeCount++;
+                }
+            }
+
+            // make sure the writer didn't overwrite anything we used (the fence keeps the
+            // sample reads above from being satisfied after the re-check)
+            Fences.loadFence();
+            if (oldestUsed > this.writeSeq.get() - this.slots) {
+                if (stats.valueCount > 0) {
+                    stats.min = min;
+                    stats.max = max;
+                    stats.mean = sum / stats.valueCount;
+                }
+                return stats;
+            }
+        }
+
+        // the writer kept lapping us, nothing we can trust
+        stats.reset();
+        return stats;
+    }
+
+    /**
+     * Copy the samples with timestamps in <code>[fromTime, toTime]</code>
+     * (oldest first) into the given arrays.
+     * 
+     * @param fromTime
+     * @param toTime
+     * @param timestampsOut
+     * @param valuesOut
+     * @param statesOut
+     * @return The number of samples copied (limited by the array sizes; the most
+     *         recent samples are kept)
+     */
+    public int snapshot(long fromTime, long toTime, long[] timestampsOut, float[] valuesOut, byte[] statesOut) {
+        final int max = Math.min(timestampsOut.length, Math.min(valuesOut.length, statesOut.length));
+
+        for (int attempt = 0; attempt < maxQueryAttempts; attempt++) {
+            final long end = this.writeSeq.get();
+            final long start = Math.max(0, end - this.capacity);
+
+            // find the newest and oldest samples in the window
+            long last = end - 1;
+            while (last >= start && this.timestamps[(int) (last % this.slots)] > toTime) {
+                last--;
+            }
+
+            if (last < start || max == 0) {
+                return 0;
+            }
+
+            long first = last;
+            while (first - 1 >= start && last - first + 1 < max
+                    && this.timestamps[(int) ((first - 1) % this.slots)] >= fromTime) {
+                first--;
+            }
+
+            if (this.timestamps[(int) (first % this.slots)] < fromTime) {
+                return 0;
+            }
+
+            int count = 0;
+            for (long seq = first; seq <= last; seq++) {
+                final int index = (int) (seq % this.slots);
+
+                timestampsOut[count] = this.timestamps[index];
+                valuesOut[count] = this.values[index];
+                statesOut[count] = this.states[index];
+                count++;
+            }
+
+            Fences.loadFence();
+            if (first > this.writeSeq.get() - this.slots) {
+                return count;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * 
+     * @return The most recent timestamp (0 if empty)
+     */
+    public long getLastTimestamp() {
+        final long end = this.writeSeq.get();
+        return end == 0 ? 0 : this.timestamps[(int) ((end - 1) % this.slots)];
+    }
+
+    /**
+     * 
+     * @return The number of samples currently held
+     */
+    public int size() {
+        return (int) Math.min(this.writeSeq.get(), this.capacity);
+    }
+
+    /**
+     * 
+     * @return The number of samples ever appended
+     */
+    public long getWriteCount() {
+        return this.writeSeq.get();
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public final String getName() {
+        return this.name;
+    }
+}
@@ -0,0 +1,94 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.history;
+
+/**
+ * The result of a windowed query against a {@link TimeSeriesBuffer}.
+ * <p>
+ * Callers keep and reuse an instance so queries don't allocate.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class WindowStats {
+    /**
+     * The number of samples in the window.
+     */
+    public int count;
+
+    /**
+     * The number of samples with a non-NaN value and the value statistics over
+     * those (NaN if there were none).
+     */
+    public int valueCount;
+    public float min;
+    public float max;
+    public double mean;
+
+    /**
+     * The number of samples whose state was non-zero (e.g. relay on).
+     */
+    public int activeCount;
+
+    /**
+     * The timestamps of the oldest and newest samples in the window.
+     */
+    public long firstTimestamp;
+    public long lastTimestamp;
+
+    /**
+     * 
+     */
+    public WindowStats() {
+        super();
+
+        this.reset();
+    }
+
+    /**
+     * 
+     */
+    public void reset() {
+        this.count = 0;
+        this.valueCount = 0;
+        this.min = Float.NaN;
+        this.max = Float.NaN;
+        this.mean = Double.NaN;
+        this.activeCount = 0;
+        this.firstTimestamp = 0;
+        this.lastTimestamp = 0;
+    }
+
+    /**
+     * 
+     * @return The fraction of samples that were active (0 if there were none)
+     */
+    public double getActiveFraction() {
+        return this.count == 0 ? 0 : (double) this.activeCount / this.count;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "WindowStats [count: " + this.count + ", min: " + this.min + ", max: " + this.max + ", mean: "
+                + this.mean + ", activeCount: " + this.activeCount + "]";
+    }
+}
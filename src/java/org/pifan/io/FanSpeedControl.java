@@ -0,0 +1,313 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.io;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Variable speed (duty cycle) control for a fan pin already provisioned by a
+ * {@link GpioControl}.
+ * <p>
+ * If the backend can drive the pin from a hardware PWM channel the pin is
+ * re-provisioned as a PWM output and the duty cycle is handed straight to the
+ * hardware. Otherwise a software PWM is run from a dedicated timer thread that
+ * toggles the pin at absolute {@link System#nanoTime()} deadlines (parking
+ * until shortly before each edge and spinning the rest of the way). The
+ * software PWM thread only runs for duty cycles strictly between 0% and 100%;
+ * at either end the pin is simply held low or high.
+ * <p>
+ * Both modes drive raw pin levels: the duty cycle is the fraction of the time
+ * the pin is high, even on active low backends, so the same duty cycle gives
+ * the same fan speed either way. The {@link GpioControl} refuses on/off
+ * commands from the time it's handed over until {@link #shutdown()} hands it
+ * back.
+ * <p>
+ * Note that software PWM is only suitable for solid state relays or MOSFET
+ * drivers, not mechanical relays, so it's refused on active low backends
+ * (relay boards), where a low pin (0%) would energize the relay.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class FanSpeedControl {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(FanSpeedControl.class);
+
+    /**
+     * 
+     */
+    private static final int defaultSoftPwmFrequencyHz = 20;
+
+    /**
+     * How close to an edge we stop parking and start spinning.
+     */
+    private static final long spinThresholdNanos = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * 
+     */
+    private final GpioControl gpio;
+    private final GpioBackend backend;
+    private final int pinNum;
+
+    /**
+     * 
+     */
+    private final boolean hardwarePwm;
+    private final boolean activeLow;
+    private final long periodNanos;
+
+    /**
+     * The current duty cycle (0-100).
+     */
+    private volatile int dutyPercent = 0;
+
+    /**
+     * The software PWM timer thread (guarded by this).
+     */
+    private Thread softPwmThread;
+    private volatile boolean softPwmRunning = false;
+
+    /**
+     * Whether the pin has been handed back to the {@link GpioControl} (guarded
+     * by this).
+     */
+    private boolean released = false;
+
+    /**
+     * 
+     * @param gpio
+     */
+    public FanSpeedControl(GpioControl gpio) {
+        this(gpio, defaultSoftPwmFrequencyHz, true);
+    }
+
+    /**
+     * 
+     * @param gpio The already provisioned fan pin
+     * @param softPwmFrequencyHz The software PWM frequency
+     * @param preferHardwarePwm Whether to use hardware PWM if the pin supports
+     *            it
+     * @throws IllegalArgumentException If the pin would need software PWM on
+     *             an active low backend
+     */
+    public FanSpeedControl(GpioControl gpio, int softPwmFrequencyHz, boolean preferHardwarePwm) {
+        super();
+
+        if (softPwmFrequencyHz <= 0) {
+            throw new IllegalArgumentException("Software PWM frequency must be > 0: " + softPwmFrequencyHz);
+        }
+
+        this.gpio = gpio;
+        this.backend = gpio.getBackend();
+        this.pinNum = gpio.getPinNum();
+        this.periodNanos = TimeUnit.SECONDS.toNanos(1) / softPwmFrequencyHz;
+
+        this.hardwarePwm = preferHardwarePwm && this.backend.supportsHardwarePwm(this.pinNum);
+        this.activeLow = this.backend.isActiveLow();
+
+        if (!this.hardwarePwm && this.activeLow) {
+            throw new IllegalArgumentException("Software PWM not supported on an active low pin [pinNum: "
+                    + this.pinNum + "]");
+        }
+
+        gpio.claimForPwm();
+
+        if (this.hardwarePwm) {
+            this.backend.provisionPwmOutput(this.pinNum, gpio.getDesc());
+        } else {
+            // start at 0% like the hardware PWM does
+            this.drive(false);
+        }
+
+        logger.info("Fan speed control [pinNum: {}, desc: {}] initialized", this.pinNum, gpio.getDesc());
+        logger.info("  hardware PWM:           {}", this.hardwarePwm);
+        logger.info("  software PWM frequency: {} Hz", softPwmFrequencyHz);
+    }
+
+    /**
+     * 
+     * @param percent The duty cycle; clamped to 0-100
+     */
+    public synchronized void setDutyCycle(int percent) {
+        if (this.released) {
+            throw new IllegalStateException("Fan speed control has been shut down [pinNum: " + this.pinNum + "]");
+        }
+
+        final int duty = Math.max(0, Math.min(100, percent));
+
+        if (duty == this.dutyPercent) {
+            return;
+        }
+
+        logger.debug("Setting fan duty cycle [pinNum: {}, duty: {}%]", this.pinNum, duty);
+
+        this.dutyPercent = duty;
+
+        if (this.hardwarePwm) {
+            this.backend.setPwmDutyCycle(this.pinNum, duty);
+        } else if (duty == 0 || duty == 100) {
+            this.stopSoftPwm();
+            this.drive(duty == 100);
+        } else {
+            this.startSoftPwm();
+        }
+    }
+
+    /**
+     * 
+     * @return The current duty cycle (0-100)
+     */
+    public int getDutyCycle() {
+        return this.dutyPercent;
+    }
+
+    /**
+     * 
+     * @return Whether the duty cycle is driven by a hardware PWM channel
+     */
+    public boolean isHardwarePwm() {
+        return this.hardwarePwm;
+    }
+
+    /**
+     * 
+     * @return Whether the software PWM timer thread is running
+     */
+    public boolean isSoftPwmRunning() {
+        return this.softPwmRunning;
+    }
+
+    /**
+     * Stop any software PWM, turn the fan off and hand the pin back to the
+     * {@link GpioControl} (re-provisioned as a digital output if need be).
+     */
+    public synchronized void shutdown() {
+        if (this.released) {
+            return;
+        }
+
+        this.setDutyCycle(0);
+
+        if (this.hardwarePwm) {
+            this.backend.unprovisionOutput(this.pinNum);
+            this.backend.provisionOutput(this.pinNum, this.gpio.getDesc());
+        }
+
+        this.released = true;
+        this.gpio.releaseFromPwm();
+    }
+
+    /**
+     * 
+     */
+    private void startSoftPwm() {
+        if (this.softPwmThread != null) {
+            // already running, the new duty cycle is picked up on the next period
+            return;
+        }
+
+        this.softPwmRunning = true;
+        this.softPwmThread = new Thread(this::softPwmLoop, "soft-pwm-" + this.pinNum);
+        this.softPwmThread.setDaemon(true);
+        this.softPwmThread.setPriority(Thread.MAX_PRIORITY);
+        this.softPwmThread.start();
+    }
+
+    /**
+     * 
+     */
+    private void stopSoftPwm() {
+        Thread thread = this.softPwmThread;
+        if (thread == null) {
+            return;
+        }
+
+        this.softPwmRunning = false;
+        LockSupport.unpark(thread);
+
+        try {
+            thread.join(TimeUnit.NANOSECONDS.toMillis(this.periodNanos) + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.softPwmThread = null;
+    }
+
+    /**
+     * 
+     */
+    private void softPwmLoop() {
+        long deadline = System.nanoTime();
+
+        while (this.softPwmRunning) {
+            final long onNanos = this.periodNanos * this.dutyPercent / 100;
+
+            this.drive(true);
+            deadline += onNanos;
+            parkUntil(deadline);
+
+            if (!this.softPwmRunning) {
+                break;
+            }
+
+            this.drive(false);
+            deadline += this.periodNanos - onNanos;
+            parkUntil(deadline);
+
+            // if we fell a whole period behind (e.g. a GC pause) don't try and catch up
+            long now = System.nanoTime();
+            if (now - deadline > this.periodNanos) {
+                deadline = now;
+            }
+        }
+    }
+
+    /**
+     * Drive the raw pin level (the backend's on/off is inverted for active low
+     * boards).
+     * 
+     * @param high
+     */
+    private void drive(boolean high) {
+        this.backend.setState(this.pinNum, high != this.activeLow);
+    }
+
+    /**
+     * 
+     * @param deadline The {@link System#nanoTime()} to wait until
+     */
+    private void parkUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0 && this.softPwmRunning) {
+            if (remaining > spinThresholdNanos) {
+                LockSupport.parkNanos(this, remaining - spinThresholdNanos);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.io;
+
+/**
+ * The output driver that {@link GpioControl} delegates the actual pin
+ * writes to.
+ * <p>
+ * States are logical: <code>on</code> means the relay is energized,
+ * regardless of whether the underlying board is active high or active low.
+ * It's up to the backend to map that onto the physical pin level.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public interface GpioBackend {
+    /**
+     * 
+     * @return The backend name (e.g. "pi4j", "simulated")
+     */
+    String getName();
+
+    /**
+     * Provision the given pin as an output and leave it in the off state.
+     * 
+     * @param pinNum
+     * @param desc
+     */
+    void provisionOutput(int pinNum, String desc);
+
+    /**
+     * Turn the given pin off and release it (so it can be provisioned again),
+     * leaving every other pin as it is.
+     * 
+     * @param pinNum
+     */
+    void unprovisionOutput(int pinNum);
+
+    /**
+     * 
+     * @param pinNum
+     * @param on
+     */
+    void setState(int pinNum, boolean on);
+
+    /**
+     * Whether {@link #setStates(long, long)} is applied atomically, i.e. no
+     * observer can see only part of the batch applied.
+     * 
+     * @return
+     */
+    default boolean isBatchAtomic() {
+        return false;
+    }
+
+    /**
+     * Set several pins in one operation. Pins are addressed by bit position
+     * (bit <code>n</code> is pin number <code>n</code>) so only pins 0-63 can
+     * be batched.
+     * <p>
+     * The default implementation falls back to setting each pin in turn.
+     * 
+     * @param pinMask The pins to write
+     * @param onMask The pins (within <code>pinMask</code>) to turn on; the rest
+     *            are turned off
+     */
+    default void setStates(long pinMask, long onMask) {
+        long remaining = pinMask;
+        while (remaining != 0) {
+            int pinNum = Long.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+
+            this.setState(pinNum, (onMask & (1L << pinNum)) != 0);
+        }
+    }
+
+    /**
+     * Whether <code>on</code> is driven as a low pin level. Used to drive raw
+     * levels (e.g. software PWM) with the same polarity as hardware PWM.
+     * 
+     * @return
+     */
+    default boolean isActiveLow() {
+        return false;
+    }
+
+    /**
+     * 
+     * @param pinNum
+     * @return Whether the given pin can be driven by a hardware PWM channel
+     */
+    default boolean supportsHardwarePwm(int pinNum) {
+        return false;
+    }
+
+    /**
+     * Re-provision the given pin as a hardware PWM output with a 0% duty cycle.
+     * Only valid if {@link #supportsHardwarePwm(int)} returns true.
+     * <p>
+     * Unlike the on/off states the duty cycle is not inverted for active low
+     * boards; PWM fan drivers are active high.
+     * 
+     * @param pinNum
+     * @param desc
+     */
+    default void provisionPwmOutput(int pinNum, String desc) {
+        throw new UnsupportedOperationException("Hardware PWM not supported by GPIO backend: " + this.getName());
+    }
+
+    /**
+     * 
+     * @param pinNum
+     * @param dutyPercent The duty cycle (0-100)
+     */
+    default void setPwmDutyCycle(int pinNum, int dutyPercent) {
+        throw new UnsupportedOperationException("Hardware PWM not supported by GPIO backend: " + this.getName());
+    }
+
+    /**
+     * Release the backend and return every provisioned pin to its shutdown
+     * (off) state.
+     */
+    void shutdown();
+}
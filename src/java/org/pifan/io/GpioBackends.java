@@ -0,0 +1,84 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Used to look up the {@link GpioBackend} implementations.
+ * <p>
+ * The default backend is selected with the <code>pifan.gpio.backend</code>
+ * system property ("pi4j" or "simulated") and defaults to pi4j.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class GpioBackends {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(GpioBackends.class);
+
+    /**
+     * 
+     */
+    public static final String BACKEND_PROPERTY = "pifan.gpio.backend";
+
+    /**
+     * The shared default backend.
+     */
+    private static GpioBackend defaultBackend;
+
+    /**
+     * Private non-instantiable constructor.
+     */
+    private GpioBackends() {
+    }
+
+    /**
+     * 
+     * @return The shared backend selected by the <code>pifan.gpio.backend</code>
+     *         system property
+     */
+    public static synchronized GpioBackend getDefault() {
+        if (defaultBackend == null) {
+            defaultBackend = create(System.getProperty(BACKEND_PROPERTY, Pi4jGpioBackend.NAME));
+
+            logger.info("Using GPIO backend [name: {}]", defaultBackend.getName());
+        }
+
+        return defaultBackend;
+    }
+
+    /**
+     * 
+     * @param name The backend name
+     * @return A new backend instance
+     */
+    public static GpioBackend create(String name) {
+        if (Pi4jGpioBackend.NAME.equalsIgnoreCase(name)) {
+            return new Pi4jGpioBackend();
+        } else if (SimulatedGpioBackend.NAME.equalsIgnoreCase(name)) {
+            return new SimulatedGpioBackend();
+        }
+
+        throw new IllegalArgumentException("Unknown GPIO backend: " + name);
+    }
+}
@@ -0,0 +1,538 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.io;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.pifan.util.MpscArrayQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single-writer pipeline for GPIO commands.
+ * <p>
+ * Any number of threads (e.g. the scheduler worker threads) submit on/off
+ * commands which are queued on a bounded lock-free queue and applied by one
+ * dedicated writer thread, so the pins are only ever touched from a single
+ * thread and in submission order. Relay bank channels are queued the same
+ * way. The writer drains everything that's queued as a batch and coalesces
+ * conflicting commands for the same pin (or bank channel) down to the last one
+ * submitted; the channels of a bank are written together.
+ * <p>
+ * Each submission returns a future that's completed, with the resulting pin
+ * state (true for on), once the pin has actually been written. If the pin's
+ * {@link TransitionGovernor} defers the transition the future isn't completed
+ * until the deferred transition is applied, or, if it's dropped because the pin
+ * was asked to stay where it is, with the unchanged state. Deferred
+ * transitions of the pins that use this queue (see
+ * {@link GpioControl#setCommandQueue(GpioCommandQueue)}) come back through it
+ * to be applied, in order with everything else submitted for the pin.
+ * <p>
+ * Commands that are accepted while the queue is being shut down are still
+ * applied before the writer thread stops.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class GpioCommandQueue {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(GpioCommandQueue.class);
+
+    /**
+     * 
+     */
+    private static final int defaultCapacity = 1024;
+    private static final int maxBatchSize = 256;
+
+    /**
+     * A queued command.
+     */
+    private static final class Command {
+        private final GpioControl target;
+        private final RelayBank bank;
+        private final int channel;
+        private final boolean on;
+        private final long deferredGeneration;
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        private Command(GpioControl target, RelayBank bank, int channel, boolean on, long deferredGeneration) {
+            this.target = target;
+            this.bank = bank;
+            this.channel = channel;
+            this.on = on;
+            this.deferredGeneration = deferredGeneration;
+        }
+    }
+
+    /**
+     * 
+     */
+    private final String name;
+    private final MpscArrayQueue<Command> queue;
+    private final Thread writerThread;
+
+    /**
+     * Set while the writer is (about to be) parked waiting for work.
+     */
+    private final AtomicBoolean writerWaiting = new AtomicBoolean(false);
+    private volatile boolean running = true;
+
+    /**
+     * The number of submissions between checking {@link #running} and
+     * offering; the writer waits for it to drop to 0 before it stops so a
+     * command can't be left behind in the queue.
+     */
+    private final AtomicInteger submitting = new AtomicInteger();
+
+    /**
+     * The writer's reusable batch buffers (only touched by the writer thread).
+     */
+    private final Command[] batch = new Command[maxBatchSize];
+    private final int[] batchIndexes = new int[maxBatchSize];
+    private final GpioControl[] batchTargets = new GpioControl[maxBatchSize];
+    private final boolean[] batchStates = new boolean[maxBatchSize];
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private final CompletableFuture<Boolean>[] batchDeferred = new CompletableFuture[maxBatchSize];
+    private final RelayBank[] batchBanks = new RelayBank[maxBatchSize];
+    private final long[] batchBankChannels = new long[maxBatchSize];
+    private final long[] batchBankStates = new long[maxBatchSize];
+
+    /**
+     * 
+     */
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    /**
+     * 
+     * @param name
+     */
+    public GpioCommandQueue(String name) {
+        this(name, defaultCapacity);
+    }
+
+    /**
+     * 
+     * @param name
+     * @param capacity
+     */
+    public GpioCommandQueue(String name, int capacity) {
+        super();
+
+        this.name = name;
+        this.queue = new MpscArrayQueue<>(capacity);
+
+        this.writerThread = new Thread(this::drainLoop, "gpio-writer-" + name);
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+
+        logger.info("GPIO command queue [name: {}] started", this.name);
+        logger.info("  capacity: {}", this.queue.capacity());
+    }
+
+    /**
+     * 
+     * @param target
+     * @return
+     */
+    public CompletableFuture<Boolean> turnOn(GpioControl target) {
+        return this.submit(target, true);
+    }
+
+    /**
+     * 
+     * @param target
+     * @return
+     */
+    public CompletableFuture<Boolean> turnOff(GpioControl target) {
+        return this.submit(target, false);
+    }
+
+    /**
+     * Queue a command for the writer thread.
+     * 
+     * @param target
+     * @param on
+     * @return A future completed with the pin state after the command was
+     *         applied (or the deferred transition was); completed exceptionally
+     *         if the queue is full or shut down
+     */
+    public CompletableFuture<Boolean> submit(GpioControl target, boolean on) {
+        return this.enqueue(new Command(target, null, 0, on, 0));
+    }
+
+    /**
+     * Queue a relay bank channel command for the writer thread.
+     * 
+     * @param bank
+     * @param channel
+     * @param on
+     * @return A future completed with the channel state after the command was
+     *         applied; completed exceptionally if the queue is full or shut
+     *         down
+     */
+    public CompletableFuture<Boolean> submit(RelayBank bank, int channel, boolean on) {
+        if (channel < 0 || channel >= bank.getChannelCount()) {
+            throw new IndexOutOfBoundsException("Invalid relay bank channel: " + channel);
+        }
+
+        return this.enqueue(new Command(null, bank, channel, on, 0));
+    }
+
+    /**
+     * Queue the pin's deferred transition to be applied by the writer thread
+     * (if it's still pending by then).
+     * 
+     * @param target
+     * @param generation The deferred transition's generation
+     * @return A future completed once the deferred transition was applied (or
+     *         found to be stale); completed exceptionally if the queue is full
+     *         or shut down
+     */
+    CompletableFuture<Boolean> submitDeferred(GpioControl target, long generation) {
+        return this.enqueue(new Command(target, null, 0, false, generation));
+    }
+
+    /**
+     * 
+     * @param command
+     * @return
+     */
+    private CompletableFuture<Boolean> enqueue(Command command) {
+        this.submitting.incrementAndGet();
+        try {
+            if (!this.running) {
+                command.future.completeExceptionally(new RejectedExecutionException(
+                        "GPIO command queue is shut down: " + this.name));
+                return command.future;
+            }
+
+            if (!this.queue.offer(command)) {
+                this.rejected.increment();
+
+                logger.warn("GPIO command queue full, rejecting command [name: {}, pinNum: {}]", this.name,
+                        command.target != null ? command.target.getPinNum() : command.bank.getPinNum(command.channel));
+                command.future.completeExceptionally(new RejectedExecutionException("GPIO command queue is full: "
+                        + this.name));
+                return command.future;
+            }
+        } finally {
+            this.submitting.decrementAndGet();
+        }
+
+        this.submitted.increment();
+
+        if (this.writerWaiting.get() && this.writerWaiting.compareAndSet(true, false)) {
+            LockSupport.unpark(this.writerThread);
+        }
+
+        return command.future;
+    }
+
+    /**
+     * Stop accepting commands, apply whatever is still queued and stop the
+     * writer thread.
+     * 
+     * @param timeoutInMs How long to wait for the writer to finish
+     */
+    public void shutdown(long timeoutInMs) {
+        logger.debug("Shutting down GPIO command queue [name: {}]", this.name);
+
+        this.running = false;
+        LockSupport.unpark(this.writerThread);
+
+        try {
+            this.writerThread.join(timeoutInMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 
+     */
+    private void drainLoop() {
+        while (true) {
+            int count = this.drainBatch();
+
+            if (count > 0) {
+                this.applyBatch(count);
+                continue;
+            }
+
+            if (!this.running) {
+                // make sure nothing slipped in after the last drain (or is still being offered)
+                if (this.submitting.get() == 0 && this.queue.isEmpty()) {
+                    break;
+                }
+                Thread.yield();
+                continue;
+            }
+
+            // nothing to do; advertise that we're waiting and re-check before parking
+            this.writerWaiting.set(true);
+            if (this.queue.isEmpty() && this.running) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+            }
+            this.writerWaiting.set(false);
+        }
+
+        logger.debug("GPIO command queue writer stopped [name: {}]", this.name);
+    }
+
+    /**
+     * 
+     * @return The number of commands drained into the batch buffer
+     */
+    private int drainBatch() {
+        int count = 0;
+
+        Command command;
+        while (count < maxBatchSize && (command = this.queue.poll()) != null) {
+            this.batch[count++] = command;
+        }
+
+        return count;
+    }
+
+    /**
+     * 
+     * @param count
+     */
+    private void applyBatch(int count) {
+        this.batches.increment();
+
+        // coalesce the commands down to the last requested state per pin / bank channel
+        int targets = 0;
+        int banks = 0;
+        for (int i = 0; i < count; i++) {
+            Command command = this.batch[i];
+
+            if (command.bank != null) {
+                int b = indexOf(this.batchBanks, banks, command.bank);
+                if (b < 0) {
+                    b = banks++;
+                    this.batchBanks[b] = command.bank;
+                    this.batchBankChannels[b] = 0;
+                    this.batchBankStates[b] = 0;
+                }
+
+                long bit = 1L << command.channel;
+                if ((this.batchBankChannels[b] & bit) != 0) {
+                    this.coalesced.increment();
+                }
+                this.batchBankChannels[b] |= bit;
+                this.batchBankStates[b] = command.on ? this.batchBankStates[b] | bit : this.batchBankStates[b] & ~bit;
+                this.batchIndexes[i] = b;
+                continue;
+            }
+
+            int t = indexOf(this.batchTargets, targets, command.target);
+
+            if (command.deferredGeneration != 0) {
+                if (t < 0) {
+                    // nothing was submitted for the pin ahead of it in this batch so it can go now
+                    this.applyDeferred(command);
+                } else {
+                    // whatever came first replaced or cancelled the deferred transition
+                    this.coalesced.increment();
+                    command.future.complete(command.target.isOn());
+                }
+                this.batch[i] = null;
+                continue;
+            }
+
+            if (t < 0) {
+                t = targets++;
+                this.batchTargets[t] = command.target;
+            } else {
+                this.coalesced.increment();
+            }
+            this.batchStates[t] = command.on;
+            this.batchIndexes[i] = t;
+        }
+
+        // apply the final state for each pin
+        for (int t = 0; t < targets; t++) {
+            GpioControl target = this.batchTargets[t];
+
+            try {
+                target.setState(this.batchStates[t]);
+
+                // set if the governor deferred the transition
+                this.batchDeferred[t] = target.getDeferredResult();
+            } catch (Exception e) {
+                logger.error("Error applying GPIO command [name: " + this.name + ", pinNum: " + target.getPinNum()
+                        + "]: " + e, e);
+
+                // fail every command for this pin
+                for (int i = 0; i < count; i++) {
+                    if (this.batch[i] != null && this.batch[i].target == target) {
+                        this.batch[i].future.completeExceptionally(e);
+                        this.batch[i] = null;
+                    }
+                }
+            }
+        }
+
+        // write each bank's channels together
+        for (int b = 0; b < banks; b++) {
+            RelayBank bank = this.batchBanks[b];
+
+            try {
+                bank.setChannels(this.batchBankChannels[b], this.batchBankStates[b]);
+            } catch (Exception e) {
+                logger.error("Error applying relay bank command [name: " + this.name + ", bank: " + bank.getName()
+                        + "]: " + e, e);
+
+                for (int i = 0; i < count; i++) {
+                    if (this.batch[i] != null && this.batch[i].bank == bank) {
+                        this.batch[i].future.completeExceptionally(e);
+                        this.batch[i] = null;
+                    }
+                }
+            }
+        }
+
+        // now complete the rest with the resulting state
+        for (int i = 0; i < count; i++) {
+            Command command = this.batch[i];
+            if (command == null) {
+                continue;
+            }
+
+            if (command.bank != null) {
+                command.future.complete(command.bank.isOn(command.channel));
+            } else {
+                CompletableFuture<Boolean> deferred = this.batchDeferred[this.batchIndexes[i]];
+                if (deferred == null) {
+                    command.future.complete(command.target.isOn());
+                } else {
+                    final CompletableFuture<Boolean> future = command.future;
+                    deferred.whenComplete((state, error) -> {
+                        if (error != null) {
+                            future.completeExceptionally(error);
+                        } else {
+                            future.complete(state);
+                        }
+                    });
+                }
+            }
+            this.batch[i] = null;
+        }
+
+        for (int t = 0; t < targets; t++) {
+            this.batchTargets[t] = null;
+            this.batchDeferred[t] = null;
+        }
+        for (int b = 0; b < banks; b++) {
+            this.batchBanks[b] = null;
+        }
+    }
+
+    /**
+     * 
+     * @param command A deferred transition
+     */
+    private void applyDeferred(Command command) {
+        try {
+            command.target.applyDeferredNow(command.deferredGeneration);
+            command.future.complete(command.target.isOn());
+        } catch (Exception e) {
+            logger.error("Error applying deferred GPIO transition [name: " + this.name + ", pinNum: "
+                    + command.target.getPinNum() + "]: " + e, e);
+            command.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 
+     * @param items
+     * @param length
+     * @param item
+     * @return
+     */
+    private static int indexOf(Object[] items, int length, Object item) {
+        for (int i = 0; i < length; i++) {
+            if (items[i] == item) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public final String getName() {
+        return this.name;
+    }
+
+    /**
+     * 
+     * @return The number of commands waiting to be applied
+     */
+    public int getPendingCount() {
+        return this.queue.size();
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getSubmittedCount() {
+        return this.submitted.sum();
+    }
+
+    /**
+     * 
+     * @return The number of commands superseded by a later command for the same
+     *         pin in the same batch
+     */
+    public long getCoalescedCount() {
+        return this.coalesced.sum();
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getRejectedCount() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getBatchCount() {
+        return this.batches.sum();
+    }
+}
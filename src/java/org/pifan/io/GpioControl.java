@@ -19,22 +19,38 @@
 
 package org.pifan.io;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.pifan.history.TimeSeriesBuffer;
+import org.pifan.journal.Journal;
+import org.pifan.util.LatencyHistogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.pi4j.io.gpio.GpioController;
-import com.pi4j.io.gpio.GpioFactory;
-import com.pi4j.io.gpio.GpioPinDigitalOutput;
-import com.pi4j.io.gpio.Pin;
-import com.pi4j.io.gpio.PinState;
-import com.pi4j.io.gpio.RaspiPin;
-
 /**
  * Used to control the general I/O pins on a Raspberry PI.
+ * <p>
+ * The actual pin writes are delegated to a {@link GpioBackend} so the same
+ * control logic can run against pi4j on the PI or against the
+ * {@link SimulatedGpioBackend} anywhere else.
+ * <p>
+ * The last state written to the pin is cached so repeated on/off commands
+ * (e.g. the startup "on" followed by the first "fanOn" job) short-circuit
+ * without touching the backend. An optional {@link TransitionGovernor} can be
+ * set to defer transitions that would switch the relay too often. If the pin
+ * is written through a {@link GpioCommandQueue} the deferred transitions are
+ * handed back to the queue's writer thread, otherwise they're applied from the
+ * governor's thread.
+ * <p>
+ * While the pin is handed over to a {@link FanSpeedControl} on/off commands
+ * are refused (with an {@link IllegalStateException}) whether it's driven by
+ * hardware or software PWM.
  * 
  * @author Dave Irwin (dhirwinjr@gmail.com)
  */
-public class GpioControl {
+public class GpioControl implements TransitionGovernor.Applier {
     /**
      * Logger.
      */
@@ -43,7 +59,7 @@ public class GpioControl {
     /**
      * 
      */
-    private GpioController gpio;
+    private final GpioBackend backend;
 
     /**
      * 
@@ -51,7 +67,57 @@ public class GpioControl {
     private final int gpioPinNum;
     private final String desc;
 
-    private GpioPinDigitalOutput outletPin;
+    /**
+     * The last known pin state.
+     */
+    private static final int STATE_UNKNOWN = -1;
+    private static final int STATE_OFF = 0;
+    private static final int STATE_ON = 1;
+
+    private volatile int lastState = STATE_UNKNOWN;
+
+    /**
+     * Whether the pin is currently driven by a {@link FanSpeedControl}.
+     */
+    private volatile boolean pwmDriven = false;
+
+    /**
+     * Write counters.
+     */
+    private final LongAdder appliedWrites = new LongAdder();
+    private final LongAdder suppressedWrites = new LongAdder();
+
+    /**
+     * How long each backend write took (in microseconds).
+     */
+    private final LatencyHistogram writeLatencies = new LatencyHistogram("us");
+
+    /**
+     * 
+     */
+    private volatile TransitionGovernor governor;
+
+    /**
+     * The queue deferred transitions are applied through (null to apply them
+     * directly).
+     */
+    private volatile GpioCommandQueue commandQueue;
+
+    /**
+     * Completed with the resulting pin state once the deferred transition (if
+     * any) is applied or dropped (guarded by this).
+     */
+    private CompletableFuture<Boolean> deferredResult;
+
+    /**
+     * Records every applied transition (written under this object's lock).
+     */
+    private volatile TimeSeriesBuffer history;
+
+    /**
+     * Durably records every applied transition.
+     */
+    private volatile Journal journal;
 
     /**
      * 
@@ -59,10 +125,21 @@ public class GpioControl {
      * @param desc
      */
     public GpioControl(int gpioPinNum, String desc) {
+        this(gpioPinNum, desc, GpioBackends.getDefault());
+    }
+
+    /**
+     * 
+     * @param gpioPinNum
+     * @param desc
+     * @param backend
+     */
+    public GpioControl(int gpioPinNum, String desc, GpioBackend backend) {
         super();
 
         this.gpioPinNum = gpioPinNum;
         this.desc = desc;
+        this.backend = backend;
 
         this.init();
     }
@@ -71,16 +148,34 @@ public class GpioControl {
      * 
      */
     private void init() {
-        // create gpio controller
-        this.gpio = GpioFactory.getInstance();
+        // provision the gpio pin as an output pin and turn off
+        this.backend.provisionOutput(this.gpioPinNum, this.desc);
 
-        Pin gpioPin = RaspiPin.getPinByAddress(this.gpioPinNum);
+        this.lastState = STATE_OFF;
+    }
 
-        // provision gpio pin #08 as an output pin and turn off
-        this.outletPin = this.gpio.provisionDigitalOutputPin(gpioPin, this.desc, PinState.HIGH);
+    /**
+     * 
+     * @return
+     */
+    public final int getPinNum() {
+        return this.gpioPinNum;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public final String getDesc() {
+        return this.desc;
+    }
 
-        // set the shutdown state
-        this.outletPin.setShutdownOptions(true, PinState.HIGH);
+    /**
+     * 
+     * @return
+     */
+    public final GpioBackend getBackend() {
+        return this.backend;
     }
 
     /**
@@ -89,24 +184,371 @@ public class GpioControl {
     public void shutdown() {
         logger.debug("Shutting down GPIO");
 
-        this.gpio.shutdown();
+        synchronized (this) {
+            if (this.governor != null) {
+                this.governor.cancelPending();
+            }
+
+            this.backend.shutdown();
+
+            // the backend returns every pin to its shutdown (off) state
+            this.lastState = STATE_OFF;
+            this.settleDeferred(null);
+        }
     }
 
     /**
      * 
      */
     public void turnOff() {
-        logger.debug("Turning GPIO off [pinNum: {}, desc: {}]", this.gpioPinNum, this.desc);
-
-        this.outletPin.setState(PinState.HIGH);
+        this.setState(false);
     }
 
     /**
      * 
      */
     public void turnOn() {
-        logger.debug("Turning GPIO on [pinNum: {}, desc: {}]", this.gpioPinNum, this.desc);
+        this.setState(true);
+    }
+
+    /**
+     * Write the given state to the pin unless the pin is already known to be in
+     * that state.
+     * 
+     * @param on
+     * @return Whether the backend was actually written to
+     */
+    public boolean setState(boolean on) {
+        final int target = on ? STATE_ON : STATE_OFF;
+
+        // fast path, nothing to do
+        final TransitionGovernor fastGov = this.governor;
+        if (this.lastState == target && (fastGov == null || !fastGov.hasPending())) {
+            this.suppressedWrites.increment();
+            return false;
+        }
+
+        synchronized (this) {
+            if (this.pwmDriven) {
+                throw new IllegalStateException("GPIO pin is driven by PWM [pinNum: " + this.gpioPinNum + "]");
+            }
+
+            final TransitionGovernor gov = this.governor;
+
+            if (this.lastState == target) {
+                // staying put cancels any deferred transition away from this state
+                if (gov != null) {
+                    gov.cancelPending();
+                }
+                this.settleDeferred(null);
+
+                this.suppressedWrites.increment();
+                return false;
+            }
+
+            // wall clock for the history/journal timestamps, monotonic for the governor
+            final long now = System.currentTimeMillis();
+            final long nowNanos = System.nanoTime();
+
+            if (gov != null && this.lastState != STATE_UNKNOWN) {
+                long delay = gov.getRequiredDelay(on, nowNanos);
+                if (delay > 0) {
+                    gov.defer(on, delay, this);
+                    if (this.deferredResult == null) {
+                        this.deferredResult = new CompletableFuture<>();
+                    }
+                    return false;
+                }
+            }
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Turning GPIO " + (on ? "on" : "off") + " [pinNum: {}, desc: {}]", this.gpioPinNum,
+                        this.desc);
+            }
+
+            // if the write fails we no longer know what state the pin is in
+            this.lastState = STATE_UNKNOWN;
+
+            final long startNanos = System.nanoTime();
+            try {
+                this.backend.setState(this.gpioPinNum, on);
+            } catch (RuntimeException e) {
+                if (gov != null) {
+                    gov.cancelPending();
+                }
+                this.settleDeferred(e);
+                throw e;
+            }
+            this.writeLatencies.record((System.nanoTime() - startNanos) / 1000);
+
+            this.lastState = target;
+            this.appliedWrites.increment();
+
+            if (gov != null) {
+                gov.recordTransition(nowNanos);
+            }
+            this.settleDeferred(null);
+
+            final TimeSeriesBuffer hist = this.history;
+            if (hist != null) {
+                hist.append(now, Float.NaN, on ? TimeSeriesBuffer.STATE_ON : TimeSeriesBuffer.STATE_OFF);
+            }
 
-        this.outletPin.setState(PinState.LOW);
+            final Journal jnl = this.journal;
+            if (jnl != null) {
+                jnl.append(Journal.TYPE_TRANSITION, this.gpioPinNum, now, Float.NaN,
+                        on ? TimeSeriesBuffer.STATE_ON : TimeSeriesBuffer.STATE_OFF);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @see org.pifan.io.TransitionGovernor.Applier#applyDeferred(long)
+     */
+    @Override
+    public void applyDeferred(long generation) {
+        final GpioCommandQueue queue = this.commandQueue;
+        if (queue == null) {
+            this.applyDeferredNow(generation);
+            return;
+        }
+
+        queue.submitDeferred(this, generation).whenComplete((state, error) -> {
+            if (error instanceof RejectedExecutionException) {
+                this.dropDeferred(generation, error);
+            }
+        });
+    }
+
+    /**
+     * Apply the deferred transition with the given generation, if it's still
+     * the pending one.
+     * 
+     * @param generation
+     */
+    synchronized void applyDeferredNow(long generation) {
+        final TransitionGovernor gov = this.governor;
+
+        if (gov != null && gov.isPending(generation)) {
+            this.setState(gov.getPendingState());
+        }
+    }
+
+    /**
+     * Drop the deferred transition with the given generation (the queue
+     * wouldn't take it).
+     * 
+     * @param generation
+     * @param error
+     */
+    private synchronized void dropDeferred(long generation, Throwable error) {
+        final TransitionGovernor gov = this.governor;
+
+        if (gov != null && gov.isPending(generation)) {
+            logger.warn("Dropping deferred GPIO transition [pinNum: {}, desc: {}]: {}", this.gpioPinNum, this.desc,
+                    error.toString());
+
+            gov.cancelPending();
+            this.settleDeferred(error);
+        }
+    }
+
+    /**
+     * Turn the pin off and unprovision it. Unlike {@link #shutdown()} the
+     * backend's other pins are left as they are.
+     */
+    public void release() {
+        logger.debug("Releasing GPIO [pinNum: {}, desc: {}]", this.gpioPinNum, this.desc);
+
+        synchronized (this) {
+            if (this.governor != null) {
+                this.governor.cancelPending();
+            }
+
+            this.backend.unprovisionOutput(this.gpioPinNum);
+            this.lastState = STATE_OFF;
+            this.settleDeferred(null);
+        }
+    }
+
+    /**
+     * Hand the pin over to PWM; any deferred transition is dropped and on/off
+     * commands are refused until {@link #releaseFromPwm()} is called.
+     */
+    synchronized void claimForPwm() {
+        if (this.governor != null) {
+            this.governor.cancelPending();
+        }
+
+        this.pwmDriven = true;
+        this.lastState = STATE_UNKNOWN;
+        this.settleDeferred(new IllegalStateException("GPIO pin handed over to PWM [pinNum: " + this.gpioPinNum
+                + "]"));
+    }
+
+    /**
+     * Take the pin back from PWM and turn it off. The pin must be provisioned
+     * as a digital output again.
+     */
+    synchronized void releaseFromPwm() {
+        this.backend.setState(this.gpioPinNum, false);
+
+        this.lastState = STATE_OFF;
+        this.pwmDriven = false;
+    }
+
+    /**
+     * 
+     * @return Whether the pin is currently driven by a {@link FanSpeedControl}
+     */
+    public boolean isPwmDriven() {
+        return this.pwmDriven;
+    }
+
+    /**
+     * 
+     * @param commandQueue The queue the pin is written through, deferred
+     *            transitions are applied through it too (null to apply them
+     *            directly)
+     */
+    public void setCommandQueue(GpioCommandQueue commandQueue) {
+        this.commandQueue = commandQueue;
+    }
+
+    /**
+     * 
+     * @param governor The governor to use (null to remove)
+     */
+    public synchronized void setTransitionGovernor(TransitionGovernor governor) {
+        if (this.governor != null) {
+            this.governor.cancelPending();
+        }
+        this.settleDeferred(null);
+
+        this.governor = governor;
+    }
+
+    /**
+     * 
+     * @return A future completed with the resulting pin state once the
+     *         transition deferred by the governor is applied (or dropped); null
+     *         if nothing is deferred
+     */
+    synchronized CompletableFuture<Boolean> getDeferredResult() {
+        return this.deferredResult;
+    }
+
+    /**
+     * Complete the deferred result (guarded by this).
+     * 
+     * @param error The reason the deferred transition failed (null if it was
+     *            applied or dropped)
+     */
+    private void settleDeferred(Throwable error) {
+        final CompletableFuture<Boolean> result = this.deferredResult;
+        if (result == null) {
+            return;
+        }
+
+        this.deferredResult = null;
+        if (error != null) {
+            result.completeExceptionally(error);
+        } else {
+            result.complete(this.lastState == STATE_ON);
+        }
+    }
+
+    /**
+     * 
+     * @param history The buffer to record applied transitions in (null for
+     *            none); it must not be written by anything else
+     */
+    public void setHistory(TimeSeriesBuffer history) {
+        this.history = history;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public TimeSeriesBuffer getHistory() {
+        return this.history;
+    }
+
+    /**
+     * 
+     * @param journal The journal to record applied transitions in (null for
+     *            none); the pin number is used as the record source
+     */
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public Journal getJournal() {
+        return this.journal;
+    }
+
+    /**
+     * 
+     * @return The transition governor (null if none)
+     */
+    public TransitionGovernor getTransitionGovernor() {
+        return this.governor;
+    }
+
+    /**
+     * Forget the cached pin state so the next command is always written
+     * through to the backend. Useful if something else may have changed the
+     * pin behind our back.
+     */
+    public void invalidateState() {
+        this.lastState = STATE_UNKNOWN;
+    }
+
+    /**
+     * 
+     * @return Whether the pin was last set on (false if off or unknown)
+     */
+    public boolean isOn() {
+        return this.lastState == STATE_ON;
+    }
+
+    /**
+     * 
+     * @return Whether the pin state is currently known
+     */
+    public boolean isStateKnown() {
+        return this.lastState != STATE_UNKNOWN;
+    }
+
+    /**
+     * 
+     * @return The number of commands actually written to the backend
+     */
+    public long getAppliedWriteCount() {
+        return this.appliedWrites.sum();
+    }
+
+    /**
+     * 
+     * @return The number of commands skipped since the pin was already in the
+     *         requested state
+     */
+    public long getSuppressedWriteCount() {
+        return this.suppressedWrites.sum();
+    }
+
+    /**
+     * 
+     * @return How long the backend writes took (in microseconds)
+     */
+    public LatencyHistogram getWriteLatencies() {
+        return this.writeLatencies;
     }
-}
\ No newline at end of file
+}
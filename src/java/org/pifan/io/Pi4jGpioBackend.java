@@ -0,0 +1,230 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.io;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.pi4j.io.gpio.GpioController;
+import com.pi4j.io.gpio.GpioFactory;
+import com.pi4j.io.gpio.GpioPinDigitalOutput;
+import com.pi4j.io.gpio.GpioPinPwmOutput;
+import com.pi4j.io.gpio.Pin;
+import com.pi4j.io.gpio.PinMode;
+import com.pi4j.io.gpio.PinState;
+import com.pi4j.io.gpio.RaspiPin;
+
+/**
+ * The pi4j based backend used when running on an actual Raspberry PI.
+ * <p>
+ * The relay boards we use are active low so "on" is driven as
+ * {@link PinState#LOW} and "off" (also the shutdown state) as
+ * {@link PinState#HIGH}.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class Pi4jGpioBackend implements GpioBackend {
+    /**
+     * 
+     */
+    public static final String NAME = "pi4j";
+
+    /**
+     * The default Raspberry PI hardware PWM range.
+     */
+    private static final int pwmRange = 1024;
+
+    /**
+     * 
+     */
+    private final GpioController gpio;
+
+    /**
+     * The provisioned output pins keyed by pin number.
+     */
+    private final ConcurrentMap<Integer, GpioPinDigitalOutput> pins = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, GpioPinPwmOutput> pwmPins = new ConcurrentHashMap<>();
+
+    /**
+     * 
+     */
+    public Pi4jGpioBackend() {
+        super();
+
+        // create gpio controller
+        this.gpio = GpioFactory.getInstance();
+    }
+
+    /**
+     * @see org.pifan.io.GpioBackend#getName()
+     */
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * @see org.pifan.io.GpioBackend#provisionOutput(int, java.lang.String)
+     */
+    @Override
+    public void provisionOutput(int pinNum, String desc) {
+        Pin gpioPin = RaspiPin.getPinByAddress(pinNum);
+        if (gpioPin == null) {
+            throw new IllegalArgumentException("Unknown Raspberry PI pin address: " + pinNum);
+        }
+
+        // provision the gpio pin as an output pin and turn off
+        GpioPinDigitalOutput outputPin = this.gpio.provisionDigitalOutputPin(gpioPin, desc, PinState.HIGH);
+
+        // set the shutdown state
+        outputPin.setShutdownOptions(true, PinState.HIGH);
+
+        this.pins.put(pinNum, outputPin);
+    }
+
+    /**
+     * @see org.pifan.io.GpioBackend#unprovisionOutput(int)
+     */
+    @Override
+    public void unprovisionOutput(int pinNum) {
+        GpioPinDigitalOutput outputPin = this.pins.remove(pinNum);
+        if (outputPin != null) {
+            outputPin.setState(PinState.HIGH);
+            this.gpio.unprovisionPin(outputPin);
+        }
+
+        GpioPinPwmOutput pwmPin = this.pwmPins.remove(pinNum);
+        if (pwmPin != null) {
+            pwmPin.setPwm(0);
+            this.gpio.unprovisionPin(pwmPin);
+        }
+    }
+
+    /**
+     * @see org.pifan.io.GpioBackend#setState(int, boolean)
+     */
+    @Override
+    public void setState(int pinNum, boolean on) {
+        GpioPinDigitalOutput outputPin = this.pins.get(pinNum);
+        if (outputPin == null) {
+            throw new IllegalStateException("GPIO pin not provisioned [pinNum: " + pinNum + "]");
+        }
+
+        outputPin.setState(on ? PinState.LOW : PinState.HIGH);
+    }
+
+    /**
+     * Uses the controller's multi-pin <code>setState</code> so the batch costs
+     * (at most) one call per level. Note that pi4j still writes the pins one at
+     * a time underneath, so the batch isn't atomic.
+     * 
+     * @see org.pifan.io.GpioBackend#setStates(long, long)
+     */
+    @Override
+    public void setStates(long pinMask, long onMask) {
+        GpioPinDigitalOutput[] onPins = new GpioPinDigitalOutput[Long.bitCount(pinMask & onMask)];
+        GpioPinDigitalOutput[] offPins = new GpioPinDigitalOutput[Long.bitCount(pinMask & ~onMask)];
+        int onCount = 0;
+        int offCount = 0;
+
+        long remaining = pinMask;
+        while (remaining != 0) {
+            int pinNum = Long.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+
+            GpioPinDigitalOutput outputPin = this.pins.get(pinNum);
+            if (outputPin == null) {
+                throw new IllegalStateException("GPIO pin not provisioned [pinNum: " + pinNum + "]");
+            }
+
+            if ((onMask & (1L << pinNum)) != 0) {
+                onPins[onCount++] = outputPin;
+            } else {
+                offPins[offCount++] = outputPin;
+            }
+        }
+
+        if (onCount > 0) {
+            this.gpio.setState(PinState.LOW, onPins);
+        }
+        if (offCount > 0) {
+            this.gpio.setState(PinState.HIGH, offPins);
+        }
+    }
+
+    /**
+     * @see org.pifan.io.GpioBackend#isActiveLow()
+     */
+    @Override
+    public boolean isActiveLow() {
+        return true;
+    }
+
+    /**
+     * @see org.pifan.io.GpioBackend#supportsHardwarePwm(int)
+     */
+    @Override
+    public boolean supportsHardwarePwm(int pinNum) {
+        Pin gpioPin = RaspiPin.getPinByAddress(pinNum);
+        return gpioPin != null && gpioPin.getSupportedPinModes().contains(PinMode.PWM_OUTPUT);
+    }
+
+    /**
+     * @see org.pifan.io.GpioBackend#provisionPwmOutput(int, java.lang.String)
+     */
+    @Override
+    public void provisionPwmOutput(int pinNum, String desc) {
+        if (!this.supportsHardwarePwm(pinNum)) {
+            throw new IllegalArgumentException("Pin doesn't support hardware PWM: " + pinNum);
+        }
+
+        // release the digital output if the pin was already provisioned as one
+        GpioPinDigitalOutput outputPin = this.pins.remove(pinNum);
+        if (outputPin != null) {
+            this.gpio.unprovisionPin(outputPin);
+        }
+
+        GpioPinPwmOutput pwmPin = this.gpio.provisionPwmOutputPin(RaspiPin.getPinByAddress(pinNum), desc, 0);
+        pwmPin.setPwmRange(pwmRange);
+
+        this.pwmPins.put(pinNum, pwmPin);
+    }
+
+    /**
+     * @see org.pifan.io.GpioBackend#setPwmDutyCycle(int, int)
+     */
+    @Override
+    public void setPwmDutyCycle(int pinNum, int dutyPercent) {
+        GpioPinPwmOutput pwmPin = this.pwmPins.get(pinNum);
+        if (pwmPin == null) {
+            throw new IllegalStateException("GPIO PWM pin not provisioned [pinNum: " + pinNum + "]");
+        }
+
+        pwmPin.setPwm(dutyPercent * pwmRange / 100);
+    }
+
+    /**
+     * @see org.pifan.io.GpioBackend#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        this.gpio.shutdown();
+    }
+}
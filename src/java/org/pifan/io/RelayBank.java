@@ -0,0 +1,319 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.io;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Controls a multi-channel relay board (e.g. 8 or 16 channels) as a single
+ * unit.
+ * <p>
+ * Channels are numbered 0 to N-1 in the order the pin numbers were given and
+ * the state of the whole bank is expressed as a bitmask (bit <code>n</code> is
+ * channel <code>n</code>). Only the channels that actually change are written
+ * and they're written with a single {@link GpioBackend#setStates(long, long)}
+ * call, which is atomic if the backend supports it and falls back to setting
+ * the pins one at a time otherwise.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class RelayBank {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(RelayBank.class);
+
+    /**
+     * 
+     */
+    public static final int MAX_CHANNELS = 64;
+
+    /**
+     * 
+     */
+    private final String name;
+    private final GpioBackend backend;
+
+    /**
+     * The pin number and pin bit for each channel.
+     */
+    private final int[] pinNums;
+    private final long[] pinBits;
+
+    /**
+     * A mask with a bit set for every channel.
+     */
+    private final long channelMask;
+
+    /**
+     * The last channel states written (guarded by this).
+     */
+    private long states = 0;
+
+    /**
+     * Write counters.
+     */
+    private final LongAdder appliedWrites = new LongAdder();
+    private final LongAdder suppressedWrites = new LongAdder();
+
+    /**
+     * 
+     * @param name
+     * @param pinNums The pin number for each channel
+     */
+    public RelayBank(String name, int[] pinNums) {
+        this(name, pinNums, GpioBackends.getDefault());
+    }
+
+    /**
+     * 
+     * @param name
+     * @param pinNums The pin number for each channel
+     * @param backend
+     */
+    public RelayBank(String name, int[] pinNums, GpioBackend backend) {
+        super();
+
+        if (pinNums == null || pinNums.length == 0) {
+            throw new IllegalArgumentException("No pins given for relay bank: " + name);
+        }
+        if (pinNums.length > MAX_CHANNELS) {
+            throw new IllegalArgumentException("Relay bank can't have more than " + MAX_CHANNELS + " channels: "
+                    + pinNums.length);
+        }
+
+        this.name = name;
+        this.backend = backend;
+        this.pinNums = pinNums.clone();
+        this.pinBits = new long[pinNums.length];
+
+        long allPins = 0;
+        for (int channel = 0; channel < pinNums.length; channel++) {
+            int pinNum = pinNums[channel];
+            if (pinNum < 0 || pinNum >= 64) {
+                throw new IllegalArgumentException("Relay bank pin number must be between 0 and 63: " + pinNum);
+            }
+
+            long bit = 1L << pinNum;
+            if ((allPins & bit) != 0) {
+                throw new IllegalArgumentException("Duplicate pin number in relay bank: " + pinNum);
+            }
+
+            allPins |= bit;
+            this.pinBits[channel] = bit;
+        }
+
+        this.channelMask = pinNums.length == 64 ? -1L : (1L << pinNums.length) - 1;
+
+        this.init();
+    }
+
+    /**
+     * 
+     */
+    private void init() {
+        logger.debug("Provisioning relay bank [name: {}, pins: {}]", this.name, Arrays.toString(this.pinNums));
+
+        // provision every pin once up front (they all start off)
+        for (int channel = 0; channel < this.pinNums.length; channel++) {
+            this.backend.provisionOutput(this.pinNums[channel], this.name + "-" + channel);
+        }
+    }
+
+    /**
+     * Apply the given channel states to the whole bank.
+     * 
+     * @param channelStates A bitmask with bit <code>n</code> set if channel
+     *            <code>n</code> should be on
+     * @return Whether anything was written to the backend
+     */
+    public synchronized boolean apply(long channelStates) {
+        final long target = channelStates & this.channelMask;
+        final long changed = target ^ this.states;
+
+        if (changed == 0) {
+            this.suppressedWrites.increment();
+            return false;
+        }
+
+        // translate the changed channels into pin masks
+        long pinMask = 0;
+        long onMask = 0;
+
+        long remaining = changed;
+        while (remaining != 0) {
+            int channel = Long.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+
+            pinMask |= this.pinBits[channel];
+            if ((target & (1L << channel)) != 0) {
+                onMask |= this.pinBits[channel];
+            }
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Applying relay bank states [name: " + this.name + ", states: 0x"
+                    + Long.toHexString(target) + ", changed: 0x" + Long.toHexString(changed) + "]");
+        }
+
+        this.backend.setStates(pinMask, onMask);
+
+        this.states = target;
+        this.appliedWrites.increment();
+
+        return true;
+    }
+
+    /**
+     * 
+     * @param channel
+     * @param on
+     * @return Whether anything was written to the backend
+     */
+    public synchronized boolean setChannel(int channel, boolean on) {
+        if (channel < 0 || channel >= this.pinNums.length) {
+            throw new IndexOutOfBoundsException("Invalid relay bank channel: " + channel);
+        }
+
+        long bit = 1L << channel;
+        return this.apply(on ? this.states | bit : this.states & ~bit);
+    }
+
+    /**
+     * Set several channels at once, leaving the rest as they are.
+     * 
+     * @param channels A bitmask of the channels to set
+     * @param channelStates A bitmask with bit <code>n</code> set if channel
+     *            <code>n</code> (within <code>channels</code>) should be on
+     * @return Whether anything was written to the backend
+     */
+    public synchronized boolean setChannels(long channels, long channelStates) {
+        return this.apply((this.states & ~channels) | (channelStates & channels));
+    }
+
+    /**
+     * 
+     * @return Whether anything was written to the backend
+     */
+    public boolean turnAllOn() {
+        return this.apply(this.channelMask);
+    }
+
+    /**
+     * 
+     * @return Whether anything was written to the backend
+     */
+    public boolean turnAllOff() {
+        return this.apply(0);
+    }
+
+    /**
+     * 
+     */
+    public synchronized void shutdown() {
+        logger.debug("Shutting down relay bank [name: {}]", this.name);
+
+        this.backend.shutdown();
+        this.states = 0;
+    }
+
+    /**
+     * Turn every channel off and unprovision the bank's pins, leaving the
+     * backend's other pins as they are.
+     */
+    public synchronized void release() {
+        logger.debug("Releasing relay bank [name: {}]", this.name);
+
+        for (int pinNum : this.pinNums) {
+            this.backend.unprovisionOutput(pinNum);
+        }
+        this.states = 0;
+    }
+
+    /**
+     * 
+     * @return The last channel states written
+     */
+    public synchronized long getStates() {
+        return this.states;
+    }
+
+    /**
+     * 
+     * @param channel
+     * @return
+     */
+    public synchronized boolean isOn(int channel) {
+        return (this.states & (1L << channel)) != 0;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public final String getName() {
+        return this.name;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public final int getChannelCount() {
+        return this.pinNums.length;
+    }
+
+    /**
+     * 
+     * @param channel
+     * @return
+     */
+    public final int getPinNum(int channel) {
+        return this.pinNums[channel];
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public final GpioBackend getBackend() {
+        return this.backend;
+    }
+
+    /**
+     * 
+     * @return The number of batches actually written to the backend
+     */
+    public long getAppliedWriteCount() {
+        return this.appliedWrites.sum();
+    }
+
+    /**
+     * 
+     * @return The number of batches skipped since nothing changed
+     */
+    public long getSuppressedWriteCount() {
+        return this.suppressedWrites.sum();
+    }
+}
@@ -0,0 +1,458 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.io;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.pifan.util.Fences;
+
+/**
+ * An in-memory GPIO backend used for running (and benchmarking) the
+ * application off of a Raspberry PI.
+ * <p>
+ * Every call to {@link #setState(int, boolean)} is recorded as a transition
+ * along with a {@link System#nanoTime()} timestamp in a fixed size ring.
+ * Writers claim a sequence number with a single atomic increment and then its
+ * slot with a CAS that never moves the slot back to an older sequence, so no
+ * locks are taken on the write path. The only wait is a writer that has lapped
+ * the whole ring onto a slot another writer is still filling in. Once the ring
+ * wraps the oldest transitions are overwritten.
+ * <p>
+ * Pin states are tracked in a single 64 bit mask so only pin numbers 0-63 are
+ * supported. Hardware PWM is only simulated for the pins given to
+ * {@link #setHardwarePwmPins(long)}; the duty cycle is recorded but not as
+ * transitions.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class SimulatedGpioBackend implements GpioBackend {
+    /**
+     * 
+     */
+    public static final String NAME = "simulated";
+
+    /**
+     * 
+     */
+    public static final int MAX_PINS = 64;
+
+    /**
+     * Default to keeping the last 1M transitions.
+     */
+    private static final int defaultCapacity = 1 << 20;
+
+    /**
+     * Callback used to walk the recorded transitions.
+     */
+    public interface TransitionVisitor {
+        /**
+         * 
+         * @param seq The transition sequence number
+         * @param nanoTime The time the transition was recorded
+         * @param pinNum
+         * @param on
+         */
+        void visit(long seq, long nanoTime, int pinNum, boolean on);
+    }
+
+    /**
+     * 
+     */
+    private final int capacity;
+    private final int mask;
+
+    /**
+     * The transition ring.
+     */
+    private final long[] timestamps;
+    private final int[] pinNums;
+    private final boolean[] states;
+
+    /**
+     * The sequence published in each slot; a reader only trusts a slot when
+     * the published sequence matches the one it's expecting. -1 for an empty
+     * slot and -(seq + 2) while the writer of seq is filling it in.
+     */
+    private final AtomicLongArray published;
+
+    /**
+     * The next sequence to be claimed by a writer.
+     */
+    private final AtomicLong nextSeq = new AtomicLong();
+
+    /**
+     * 
+     */
+    private final AtomicLong provisionedMask = new AtomicLong();
+    private final AtomicLong stateMask = new AtomicLong();
+
+    /**
+     * 
+     */
+    private volatile long hardwarePwmMask = 0;
+    private final AtomicLong pwmProvisionedMask = new AtomicLong();
+    private final AtomicIntegerArray pwmDutyCycles = new AtomicIntegerArray(MAX_PINS);
+
+    /**
+     * 
+     */
+    public SimulatedGpioBackend() {
+        this(defaultCapacity);
+    }
+
+    /**
+     * 
+     * @param capacity The number of transitions to keep (rounded up to a power of two)
+     */
+    public SimulatedGpioBackend(int capacity) {
+        super();
+
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be > 0: " + capacity);
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size = size << 1;
+        }
+
+        this.capacity = size;
+        this.mask = size - 1;
+
+        this.timestamps = new long[size];
+        this.pinNums = new int[size];
+        this.states = new boolean[size];
+        this.published = new AtomicLongArray(size);
+
+        for (int i = 0; i < size; i++) {
+            this.published.set(i, -1);
+        }
+    }
+
+    /**
+     * @see org.pifan.io.GpioBackend#getName()
+     */
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * @see org.pifan.io.GpioBackend#provisionOutput(int, java.lang.String)
+     */
+    @Override
+    public void provisionOutput(int pinNum, String desc) {
+        long bit = bit(pinNum);
+
+        long current;
+        do {
+            current = this.provisionedMask.get();
+        } while (!this.provisionedMask.compareAndSet(current, current | bit));
+
+        this.updateState(bit, false);
+    }
+
+    /**
+     * @see org.pifan.io.GpioBackend#unprovisionOutput(int)
+     */
+    @Override
+    public void unprovisionOutput(int pinNum) {
+        long bit = bit(pinNum);
+
+        if ((this.stateMask.get() & bit) != 0) {
+            this.updateState(bit, false);
+            this.record(pinNum, false, System.nanoTime());
+        }
+
+        long current;
+        do {
+            current = this.provisionedMask.get();
+        } while (!this.provisionedMask.compareAndSet(current, current & ~bit));
+
+        do {
+            current = this.pwmProvisionedMask.get();
+        } while (!this.pwmProvisionedMask.compareAndSet(current, current & ~bit));
+
+        this.pwmDutyCycles.set(pinNum, 0);
+    }
+
+    /**
+     * @see org.pifan.io.GpioBackend#setState(int, boolean)
+     */
+    @Override
+    public void setState(int pinNum, boolean on) {
+        long bit = bit(pinNum);
+
+        if ((this.provisionedMask.get() & bit) == 0) {
+            throw new IllegalStateException("GPIO pin not provisioned [pinNum: " + pinNum + "]");
+        }
+
+        this.updateState(bit, on);
+        this.record(pinNum, on, System.nanoTime());
+    }
+
+    /**
+     * @see org.pifan.io.GpioBackend#isBatchAtomic()
+     */
+    @Override
+    public boolean isBatchAtomic() {
+        return true;
+    }
+
+    /**
+     * The whole batch is applied with a single compare-and-set of the state
+     * mask. The individual transitions are then recorded with the same
+     * timestamp.
+     * 
+     * @see org.pifan.io.GpioBackend#setStates(long, long)
+     */
+    @Override
+    public void setStates(long pinMask, long onMask) {
+        if ((this.provisionedMask.get() & pinMask) != pinMask) {
+            throw new IllegalStateException("GPIO pins not provisioned [pinMask: 0x"
+                    + Long.toHexString(pinMask & ~this.provisionedMask.get()) + "]");
+        }
+
+        long current;
+        long updated;
+        do {
+            current = this.stateMask.get();
+            updated = (current & ~pinMask) | (onMask & pinMask);
+        } while (current != updated && !this.stateMask.compareAndSet(current, updated));
+
+        final long nanoTime = System.nanoTime();
+
+        long remaining = pinMask;
+        while (remaining != 0) {
+            int pinNum = Long.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+
+            this.record(pinNum, (onMask & (1L << pinNum)) != 0, nanoTime);
+        }
+    }
+
+    /**
+     * 
+     * @param pinMask The pins (by bit position) that support hardware PWM
+     */
+    public void setHardwarePwmPins(long pinMask) {
+        this.hardwarePwmMask = pinMask;
+    }
+
+    /**
+     * @see org.pifan.io.GpioBackend#supportsHardwarePwm(int)
+     */
+    @Override
+    public boolean supportsHardwarePwm(int pinNum) {
+        return (this.hardwarePwmMask & bit(pinNum)) != 0;
+    }
+
+    /**
+     * @see org.pifan.io.GpioBackend#provisionPwmOutput(int, java.lang.String)
+     */
+    @Override
+    public void provisionPwmOutput(int pinNum, String desc) {
+        if (!this.supportsHardwarePwm(pinNum)) {
+            throw new IllegalArgumentException("Pin doesn't support hardware PWM: " + pinNum);
+        }
+
+        long bit = bit(pinNum);
+
+        long current;
+        do {
+            current = this.pwmProvisionedMask.get();
+        } while (!this.pwmProvisionedMask.compareAndSet(current, current | bit));
+
+        this.pwmDutyCycles.set(pinNum, 0);
+    }
+
+    /**
+     * @see org.pifan.io.GpioBackend#setPwmDutyCycle(int, int)
+     */
+    @Override
+    public void setPwmDutyCycle(int pinNum, int dutyPercent) {
+        if ((this.pwmProvisionedMask.get() & bit(pinNum)) == 0) {
+            throw new IllegalStateException("GPIO PWM pin not provisioned [pinNum: " + pinNum + "]");
+        }
+
+        this.pwmDutyCycles.set(pinNum, dutyPercent);
+    }
+
+    /**
+     * 
+     * @param pinNum
+     * @return The last hardware PWM duty cycle written to the pin
+     */
+    public int getPwmDutyCycle(int pinNum) {
+        return this.pwmDutyCycles.get(pinNum);
+    }
+
+    /**
+     * @see org.pifan.io.GpioBackend#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        // return every pin to the off state
+        this.stateMask.set(0);
+
+        for (int i = 0; i < MAX_PINS; i++) {
+            this.pwmDutyCycles.set(i, 0);
+        }
+    }
+
+    /**
+     * 
+     * @param pinNum
+     * @return Whether the given pin is currently on
+     */
+    public boolean isOn(int pinNum) {
+        return (this.stateMask.get() & bit(pinNum)) != 0;
+    }
+
+    /**
+     * 
+     * @return The total number of transitions recorded (including any that
+     *         have since been overwritten)
+     */
+    public long getTransitionCount() {
+        return this.nextSeq.get();
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Walk the transitions starting with the given sequence number. Transitions
+     * that have already been overwritten are skipped as is any slot still being
+     * written.
+     * 
+     * @param fromSeq
+     * @param visitor
+     * @return The sequence number to resume from on the next call
+     */
+    public long visitTransitions(long fromSeq, TransitionVisitor visitor) {
+        long end = this.nextSeq.get();
+        long start = Math.max(fromSeq, end - this.capacity);
+
+        for (long seq = start; seq < end; seq++) {
+            int index = (int) (seq & this.mask);
+
+            if (this.published.get(index) != seq) {
+                // either not published yet or already overwritten
+                continue;
+            }
+
+            long nanoTime = this.timestamps[index];
+            int pinNum = this.pinNums[index];
+            boolean on = this.states[index];
+
+            // make sure a writer didn't lap us while reading the slot (the fence keeps the
+            // slot reads above from being satisfied after the re-check)
+            Fences.loadFence();
+            if (this.published.get(index) == seq) {
+                visitor.visit(seq, nanoTime, pinNum, on);
+            }
+        }
+
+        return end;
+    }
+
+    /**
+     * Reset the recorded transitions.
+     * <p>
+     * Not safe to call while other threads are writing.
+     */
+    public void clearTransitions() {
+        for (int i = 0; i < this.capacity; i++) {
+            this.published.set(i, -1);
+        }
+        this.nextSeq.set(0);
+    }
+
+    /**
+     * 
+     * @param bit
+     * @param on
+     */
+    private void updateState(long bit, boolean on) {
+        long current;
+        long updated;
+        do {
+            current = this.stateMask.get();
+            updated = on ? current | bit : current & ~bit;
+        } while (current != updated && !this.stateMask.compareAndSet(current, updated));
+    }
+
+    /**
+     * 
+     * @param pinNum
+     * @param on
+     * @param nanoTime
+     */
+    private void record(int pinNum, boolean on, long nanoTime) {
+        final long seq = this.nextSeq.getAndIncrement();
+        final int index = (int) (seq & this.mask);
+
+        // claim the slot (which also invalidates it for readers)
+        while (true) {
+            final long current = this.published.get(index);
+
+            if (current < -1) {
+                if (-current - 2 > seq) {
+                    // a writer a lap ahead already has the slot, ours would just be overwritten
+                    return;
+                }
+                // a writer a lap behind is still filling it in
+                Thread.yield();
+            } else if (current > seq) {
+                return;
+            } else if (this.published.compareAndSet(index, current, -seq - 2)) {
+                break;
+            }
+        }
+
+        this.timestamps[index] = nanoTime;
+        this.pinNums[index] = pinNum;
+        this.states[index] = on;
+
+        this.published.lazySet(index, seq);
+    }
+
+    /**
+     * 
+     * @param pinNum
+     * @return
+     */
+    private static long bit(int pinNum) {
+        if (pinNum < 0 || pinNum >= MAX_PINS) {
+            throw new IllegalArgumentException("Simulated pin number must be between 0 and " + (MAX_PINS - 1)
+                    + ": " + pinNum);
+        }
+
+        return 1L << pinNum;
+    }
+}
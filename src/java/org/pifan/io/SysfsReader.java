@@ -0,0 +1,299 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads small sysfs style files (e.g. thermal zones, 1-wire sensors) over and
+ * over without allocating.
+ * <p>
+ * The file channel is opened once and kept open; each {@link #read()} does a
+ * positional read from offset 0 into the same direct buffer, and values are
+ * parsed straight out of the buffer rather than through Strings. If a read
+ * fails the channel is closed and re-opened on the next read (sysfs files can
+ * disappear, e.g. when a 1-wire sensor drops off the bus).
+ * <p>
+ * Not thread safe; each polling thread should have its own reader.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class SysfsReader implements Closeable {
+    /**
+     * Returned by the parse methods when there's no value to parse.
+     */
+    public static final long NO_VALUE = Long.MIN_VALUE;
+
+    /**
+     * Large enough for a w1_slave file (two ~40 byte lines).
+     */
+    private static final int defaultCapacity = 128;
+
+    /**
+     * 
+     */
+    private final Path path;
+    private final ByteBuffer buffer;
+    private FileChannel channel;
+
+    /**
+     * The number of bytes read by the last {@link #read()}.
+     */
+    private int length = 0;
+
+    /**
+     * 
+     */
+    private long reads = 0;
+    private long opens = 0;
+
+    /**
+     * 
+     * @param path
+     */
+    public SysfsReader(String path) {
+        this(Paths.get(path), defaultCapacity);
+    }
+
+    /**
+     * 
+     * @param path
+     * @param capacity The largest file size that will be read (anything after
+     *            is ignored)
+     */
+    public SysfsReader(Path path, int capacity) {
+        super();
+
+        this.path = path;
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Re-read the file from the start.
+     * 
+     * @return The number of bytes read
+     * @throws IOException
+     */
+    public int read() throws IOException {
+        if (this.channel == null) {
+            this.channel = FileChannel.open(this.path, StandardOpenOption.READ);
+            this.opens++;
+        }
+
+        this.buffer.clear();
+
+        try {
+            long position = 0;
+            int read;
+            while (this.buffer.hasRemaining() && (read = this.channel.read(this.buffer, position)) > 0) {
+                position += read;
+            }
+        } catch (IOException e) {
+            this.close();
+            this.length = 0;
+            throw e;
+        }
+
+        this.length = this.buffer.position();
+        this.reads++;
+
+        return this.length;
+    }
+
+    /**
+     * Re-read the file and parse the first integer in it (e.g. a thermal zone's
+     * millidegree value).
+     * 
+     * @return The value or {@link #NO_VALUE}
+     * @throws IOException
+     */
+    public long readLong() throws IOException {
+        this.read();
+        return this.parseLong(0);
+    }
+
+    /**
+     * 
+     * @return The number of bytes read by the last {@link #read()}
+     */
+    public int length() {
+        return this.length;
+    }
+
+    /**
+     * 
+     * @param index
+     * @return The byte at the given index of the last read
+     */
+    public byte byteAt(int index) {
+        if (index < 0 || index >= this.length) {
+            throw new IndexOutOfBoundsException("Index " + index + " outside of read length " + this.length);
+        }
+        return this.buffer.get(index);
+    }
+
+    /**
+     * 
+     * @param b
+     * @param from
+     * @return The index of the byte in the last read or -1
+     */
+    public int indexOf(byte b, int from) {
+        for (int i = Math.max(0, from); i < this.length; i++) {
+            if (this.buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 
+     * @param marker
+     * @param from
+     * @return The index of the first byte of the marker in the last read or -1
+     */
+    public int indexOf(byte[] marker, int from) {
+        final int last = this.length - marker.length;
+
+        outer: for (int i = Math.max(0, from); i <= last; i++) {
+            for (int j = 0; j < marker.length; j++) {
+                if (this.buffer.get(i + j) != marker[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 
+     * @param end The (exclusive) end index
+     * @param suffix
+     * @return Whether the bytes just before <code>end</code> match the suffix
+     */
+    public boolean endsWith(int end, byte[] suffix) {
+        if (end > this.length || end < suffix.length) {
+            return false;
+        }
+
+        for (int i = 0; i < suffix.length; i++) {
+            if (this.buffer.get(end - suffix.length + i) != suffix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse a (possibly negative) decimal integer, skipping any leading
+     * whitespace, from the last read.
+     * 
+     * @param from
+     * @return The value or {@link #NO_VALUE} if there are no digits
+     */
+    public long parseLong(int from) {
+        int i = Math.max(0, from);
+
+        while (i < this.length && isWhitespace(this.buffer.get(i))) {
+            i++;
+        }
+
+        boolean negative = false;
+        if (i < this.length && this.buffer.get(i) == '-') {
+            negative = true;
+            i++;
+        }
+
+        long value = 0;
+        int digits = 0;
+        while (i < this.length) {
+            byte b = this.buffer.get(i);
+            if (b < '0' || b > '9') {
+                break;
+            }
+
+            value = value * 10 + (b - '0');
+            digits++;
+            i++;
+        }
+
+        if (digits == 0) {
+            return NO_VALUE;
+        }
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() {
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                // nothing we can do
+            }
+            this.channel = null;
+        }
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public Path getPath() {
+        return this.path;
+    }
+
+    /**
+     * 
+     * @return The number of successful reads
+     */
+    public long getReadCount() {
+        return this.reads;
+    }
+
+    /**
+     * 
+     * @return The number of times the file has been (re-)opened
+     */
+    public long getOpenCount() {
+        return this.opens;
+    }
+
+    /**
+     * 
+     * @param b
+     * @return
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
@@ -0,0 +1,328 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.io;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Protects a single relay pin from being switched too often.
+ * <p>
+ * The governor enforces a minimum on-time, a minimum off-time and a maximum
+ * number of transitions in any rolling hour. A transition that would break
+ * one of these rules isn't dropped; it's deferred until the earliest time it
+ * becomes legal. Only the most recently requested state is kept, so if the
+ * pin is asked to go back to its current state before a deferred transition
+ * fires the deferred transition is simply cancelled.
+ * <p>
+ * The limits are measured with {@link System#nanoTime()} rather than the wall
+ * clock; a PI has no RTC so the wall clock steps when NTP syncs after boot and
+ * a step backwards would otherwise hold the relay for hours.
+ * <p>
+ * All methods are called by {@link GpioControl} while holding its lock.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class TransitionGovernor {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(TransitionGovernor.class);
+
+    /**
+     * Used to apply the deferred transitions.
+     */
+    interface Applier {
+        /**
+         * Apply the deferred transition with the given generation, if it's still
+         * the pending one.
+         * 
+         * @param generation
+         */
+        void applyDeferred(long generation);
+    }
+
+    /**
+     * Shared by all governors; deferred transitions are rare and cheap.
+     */
+    private static final ScheduledExecutorService deferralExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "transition-governor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 
+     */
+    private static final long HOUR_IN_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    /**
+     * 
+     */
+    private final long minOnTimeInMs;
+    private final long minOffTimeInMs;
+    private final int maxTransitionsPerHour;
+
+    /**
+     * 
+     */
+    private final long minOnTimeNanos;
+    private final long minOffTimeNanos;
+
+    /**
+     * The {@link System#nanoTime()} of the last transition, a ring holding the
+     * times of the last <code>maxTransitionsPerHour</code> transitions and the
+     * number of transitions recorded so far.
+     */
+    private long lastTransitionNanos;
+    private final long[] transitionNanos;
+    private int transitionIndex = 0;
+    private long transitionCount = 0;
+
+    /**
+     * Whether the hourly budget set the delay last worked out by
+     * {@link #getRequiredDelay(boolean, long)}.
+     */
+    private boolean budgetLimited = false;
+
+    /**
+     * The pending (deferred) transition, if any.
+     */
+    private volatile boolean pending = false;
+    private boolean pendingOn;
+    private long pendingGeneration = 0;
+    private ScheduledFuture<?> pendingFuture;
+
+    /**
+     * 
+     */
+    private final LongAdder deferredTransitions = new LongAdder();
+    private final LongAdder cancelledTransitions = new LongAdder();
+    private final LongAdder budgetDeferrals = new LongAdder();
+
+    /**
+     * 
+     * @param minOnTimeInMs The minimum time the pin must stay on (0 for no minimum)
+     * @param minOffTimeInMs The minimum time the pin must stay off (0 for no minimum)
+     * @param maxTransitionsPerHour The maximum transitions in any rolling hour (0
+     *            for no limit)
+     */
+    public TransitionGovernor(long minOnTimeInMs, long minOffTimeInMs, int maxTransitionsPerHour) {
+        super();
+
+        if (minOnTimeInMs < 0 || minOffTimeInMs < 0 || maxTransitionsPerHour < 0) {
+            throw new IllegalArgumentException("Transition governor limits must be >= 0");
+        }
+
+        this.minOnTimeInMs = minOnTimeInMs;
+        this.minOffTimeInMs = minOffTimeInMs;
+        this.maxTransitionsPerHour = maxTransitionsPerHour;
+        this.minOnTimeNanos = TimeUnit.MILLISECONDS.toNanos(minOnTimeInMs);
+        this.minOffTimeNanos = TimeUnit.MILLISECONDS.toNanos(minOffTimeInMs);
+        this.transitionNanos = new long[maxTransitionsPerHour];
+    }
+
+    /**
+     * 
+     * @return Whether a deferred transition is waiting to be applied
+     */
+    final boolean hasPending() {
+        return this.pending;
+    }
+
+    /**
+     * Work out how long a transition to the given state has to wait.
+     * 
+     * @param on The requested state
+     * @param nowNanos The current {@link System#nanoTime()}
+     * @return The delay in ms, rounded up (0 if the transition can be applied
+     *         now)
+     */
+    final long getRequiredDelay(boolean on, long nowNanos) {
+        long delay = 0;
+        this.budgetLimited = false;
+
+        if (this.transitionCount == 0) {
+            return 0;
+        }
+
+        // turning on means the pin has been off since the last transition
+        long minDwell = on ? this.minOffTimeNanos : this.minOnTimeNanos;
+        if (minDwell > 0) {
+            delay = Math.max(delay, this.lastTransitionNanos + minDwell - nowNanos);
+        }
+
+        if (this.maxTransitionsPerHour > 0 && this.transitionCount >= this.maxTransitionsPerHour) {
+            // the oldest of the last N transitions has to fall out of the window
+            long oldest = this.transitionNanos[this.transitionIndex];
+            long budgetDelay = oldest + HOUR_IN_NANOS - nowNanos;
+            if (budgetDelay > delay) {
+                delay = budgetDelay;
+                this.budgetLimited = true;
+            }
+        }
+
+        // round up so the deferred transition never fires early
+        return delay <= 0 ? 0 : (delay + 999999) / 1000000;
+    }
+
+    /**
+     * 
+     * @param nowNanos The {@link System#nanoTime()} of the transition
+     */
+    final void recordTransition(long nowNanos) {
+        this.lastTransitionNanos = nowNanos;
+        this.transitionCount++;
+
+        if (this.maxTransitionsPerHour > 0) {
+            this.transitionNanos[this.transitionIndex] = nowNanos;
+            this.transitionIndex = (this.transitionIndex + 1) % this.maxTransitionsPerHour;
+        }
+
+        this.clearPending();
+    }
+
+    /**
+     * Defer a transition, replacing any transition already deferred. Deferring
+     * the state that's already pending again (e.g. a repeated command or the
+     * deferred transition being re-checked) isn't counted as a new deferral.
+     * 
+     * @param on
+     * @param delayInMs
+     * @param applier
+     */
+    final void defer(boolean on, long delayInMs, Applier applier) {
+        if (this.pendingFuture != null) {
+            this.pendingFuture.cancel(false);
+        }
+
+        logger.debug("Deferring GPIO transition [on: {}, delay: {}ms]", on, delayInMs);
+
+        if (!this.pending || this.pendingOn != on) {
+            this.deferredTransitions.increment();
+            if (this.budgetLimited) {
+                this.budgetDeferrals.increment();
+            }
+        }
+
+        final long generation = ++this.pendingGeneration;
+
+        this.pending = true;
+        this.pendingOn = on;
+        this.pendingFuture = deferralExecutor.schedule(() -> {
+            applier.applyDeferred(generation);
+        }, delayInMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 
+     * @param generation
+     * @return Whether the given deferred transition is still pending (it may
+     *         have been replaced or cancelled since it was scheduled)
+     */
+    final boolean isPending(long generation) {
+        return this.pending && this.pendingGeneration == generation;
+    }
+
+    /**
+     * 
+     * @return The state of the pending transition
+     */
+    final boolean getPendingState() {
+        return this.pendingOn;
+    }
+
+    /**
+     * Cancel the deferred transition (the pin was asked to stay where it is).
+     */
+    final void cancelPending() {
+        if (this.pending) {
+            logger.debug("Cancelling deferred GPIO transition [on: {}]", this.pendingOn);
+
+            this.clearPending();
+            this.cancelledTransitions.increment();
+        }
+    }
+
+    /**
+     * 
+     */
+    private void clearPending() {
+        if (this.pendingFuture != null) {
+            this.pendingFuture.cancel(false);
+            this.pendingFuture = null;
+        }
+        this.pending = false;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getMinOnTimeInMs() {
+        return this.minOnTimeInMs;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getMinOffTimeInMs() {
+        return this.minOffTimeInMs;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public int getMaxTransitionsPerHour() {
+        return this.maxTransitionsPerHour;
+    }
+
+    /**
+     * 
+     * @return The number of transitions that had to be deferred
+     */
+    public long getDeferredTransitionCount() {
+        return this.deferredTransitions.sum();
+    }
+
+    /**
+     * 
+     * @return The number of deferrals caused by the hourly transition budget
+     */
+    public long getBudgetDeferralCount() {
+        return this.budgetDeferrals.sum();
+    }
+
+    /**
+     * 
+     * @return The number of deferred transitions cancelled before being applied
+     */
+    public long getCancelledTransitionCount() {
+        return this.cancelledTransitions.sum();
+    }
+}
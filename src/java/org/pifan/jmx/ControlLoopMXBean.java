@@ -0,0 +1,62 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.jmx;
+
+/**
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public interface ControlLoopMXBean {
+    /**
+     * 
+     * @return
+     */
+    String getName();
+
+    /**
+     * 
+     * @return The last temperature read (NaN if none)
+     */
+    float getLastCelsius();
+
+    /**
+     * 
+     * @return The last duty cycle applied (-1 if none)
+     */
+    int getLastDutyCycle();
+
+    /**
+     * 
+     * @return Whether the fixed schedules are in control
+     */
+    boolean isFallbackActive();
+
+    /**
+     * 
+     * @return
+     */
+    long getCycleCount();
+
+    /**
+     * 
+     * @return
+     */
+    long getFailedReadCount();
+}
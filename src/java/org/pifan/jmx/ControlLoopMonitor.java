@@ -0,0 +1,92 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.jmx;
+
+import org.pifan.control.ControlLoop;
+
+/**
+ * Exposes a {@link ControlLoop} over JMX.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class ControlLoopMonitor implements ControlLoopMXBean {
+    /**
+     * 
+     */
+    private final ControlLoop loop;
+
+    /**
+     * 
+     * @param loop
+     */
+    public ControlLoopMonitor(ControlLoop loop) {
+        super();
+
+        this.loop = loop;
+    }
+
+    /**
+     * @see org.pifan.jmx.ControlLoopMXBean#getName()
+     */
+    @Override
+    public String getName() {
+        return this.loop.getName();
+    }
+
+    /**
+     * @see org.pifan.jmx.ControlLoopMXBean#getLastCelsius()
+     */
+    @Override
+    public float getLastCelsius() {
+        return this.loop.getLastCelsius();
+    }
+
+    /**
+     * @see org.pifan.jmx.ControlLoopMXBean#getLastDutyCycle()
+     */
+    @Override
+    public int getLastDutyCycle() {
+        return this.loop.getLastDutyCycle();
+    }
+
+    /**
+     * @see org.pifan.jmx.ControlLoopMXBean#isFallbackActive()
+     */
+    @Override
+    public boolean isFallbackActive() {
+        return this.loop.isFallbackActive();
+    }
+
+    /**
+     * @see org.pifan.jmx.ControlLoopMXBean#getCycleCount()
+     */
+    @Override
+    public long getCycleCount() {
+        return this.loop.getCycleCount();
+    }
+
+    /**
+     * @see org.pifan.jmx.ControlLoopMXBean#getFailedReadCount()
+     */
+    @Override
+    public long getFailedReadCount() {
+        return this.loop.getFailedReadCount();
+    }
+}
@@ -0,0 +1,87 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.jmx;
+
+/**
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public interface GpioMXBean {
+    /**
+     * 
+     * @return
+     */
+    int getPinNum();
+
+    /**
+     * 
+     * @return
+     */
+    String getDesc();
+
+    /**
+     * 
+     * @return
+     */
+    String getBackend();
+
+    /**
+     * 
+     * @return Whether the pin was last set on
+     */
+    boolean isOn();
+
+    /**
+     * 
+     * @return Whether the pin state is currently known
+     */
+    boolean isStateKnown();
+
+    /**
+     * 
+     * @return The number of transitions actually written to the pin
+     */
+    long getTransitionCount();
+
+    /**
+     * 
+     * @return The number of writes skipped since the pin was already in the
+     *         requested state
+     */
+    long getSuppressedWriteCount();
+
+    /**
+     * 
+     * @return The number of transitions deferred by the transition governor
+     */
+    long getDeferredTransitionCount();
+
+    /**
+     * 
+     * @return The number of deferred transitions that were cancelled
+     */
+    long getCancelledTransitionCount();
+
+    /**
+     * 
+     * @return How long the pin writes took (in microseconds)
+     */
+    LatencySummary getWriteLatency();
+}
@@ -0,0 +1,130 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.jmx;
+
+import org.pifan.io.GpioControl;
+import org.pifan.io.TransitionGovernor;
+
+/**
+ * Exposes a {@link GpioControl} over JMX.
+ * <p>
+ * Only volatile fields and lock-free counters are read, never the control's
+ * lock, so reading never holds up a pin write.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class GpioMonitor implements GpioMXBean {
+    /**
+     * 
+     */
+    private final GpioControl gpio;
+
+    /**
+     * 
+     * @param gpio
+     */
+    public GpioMonitor(GpioControl gpio) {
+        super();
+
+        this.gpio = gpio;
+    }
+
+    /**
+     * @see org.pifan.jmx.GpioMXBean#getPinNum()
+     */
+    @Override
+    public int getPinNum() {
+        return this.gpio.getPinNum();
+    }
+
+    /**
+     * @see org.pifan.jmx.GpioMXBean#getDesc()
+     */
+    @Override
+    public String getDesc() {
+        return this.gpio.getDesc();
+    }
+
+    /**
+     * @see org.pifan.jmx.GpioMXBean#getBackend()
+     */
+    @Override
+    public String getBackend() {
+        return this.gpio.getBackend().getName();
+    }
+
+    /**
+     * @see org.pifan.jmx.GpioMXBean#isOn()
+     */
+    @Override
+    public boolean isOn() {
+        return this.gpio.isOn();
+    }
+
+    /**
+     * @see org.pifan.jmx.GpioMXBean#isStateKnown()
+     */
+    @Override
+    public boolean isStateKnown() {
+        return this.gpio.isStateKnown();
+    }
+
+    /**
+     * @see org.pifan.jmx.GpioMXBean#getTransitionCount()
+     */
+    @Override
+    public long getTransitionCount() {
+        return this.gpio.getAppliedWriteCount();
+    }
+
+    /**
+     * @see org.pifan.jmx.GpioMXBean#getSuppressedWriteCount()
+     */
+    @Override
+    public long getSuppressedWriteCount() {
+        return this.gpio.getSuppressedWriteCount();
+    }
+
+    /**
+     * @see org.pifan.jmx.GpioMXBean#getDeferredTransitionCount()
+     */
+    @Override
+    public long getDeferredTransitionCount() {
+        TransitionGovernor governor = this.gpio.getTransitionGovernor();
+        return governor == null ? 0 : governor.getDeferredTransitionCount();
+    }
+
+    /**
+     * @see org.pifan.jmx.GpioMXBean#getCancelledTransitionCount()
+     */
+    @Override
+    public long getCancelledTransitionCount() {
+        TransitionGovernor governor = this.gpio.getTransitionGovernor();
+        return governor == null ? 0 : governor.getCancelledTransitionCount();
+    }
+
+    /**
+     * @see org.pifan.jmx.GpioMXBean#getWriteLatency()
+     */
+    @Override
+    public LatencySummary getWriteLatency() {
+        return new LatencySummary(this.gpio.getWriteLatencies());
+    }
+}
@@ -0,0 +1,123 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.jmx;
+
+import org.pifan.util.LatencyHistogram;
+
+/**
+ * A point in time summary of a {@link LatencyHistogram} (exposed over JMX as
+ * composite data).
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class LatencySummary {
+    /**
+     * 
+     */
+    private final String unit;
+    private final long count;
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    /**
+     * 
+     * @param histogram
+     */
+    public LatencySummary(LatencyHistogram histogram) {
+        super();
+
+        this.unit = histogram.getUnit();
+        this.count = histogram.getCount();
+        this.mean = histogram.getMean();
+        this.p50 = histogram.getValueAtPercentile(50);
+        this.p90 = histogram.getValueAtPercentile(90);
+        this.p99 = histogram.getValueAtPercentile(99);
+        this.p999 = histogram.getValueAtPercentile(99.9);
+        this.max = histogram.getMax();
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public String getUnit() {
+        return this.unit;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public double getMean() {
+        return this.mean;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getP50() {
+        return this.p50;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getP90() {
+        return this.p90;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getP99() {
+        return this.p99;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getP999() {
+        return this.p999;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getMax() {
+        return this.max;
+    }
+}
@@ -0,0 +1,188 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.jmx;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.pifan.control.ControlLoop;
+import org.pifan.io.GpioControl;
+import org.pifan.schedule.WorkerScheduler;
+import org.pifan.util.PropertiesUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers the application's MBeans with the platform MBean server (under
+ * the <code>org.pifan</code> domain) so they show up alongside the JVM's own
+ * over the JMX port opened by runPifan.bash.
+ * <p>
+ * Registration is on unless <code>jmx.enabled</code> is false. A failure to
+ * register is logged but never stops the application.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class PifanMBeans {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(PifanMBeans.class);
+
+    /**
+     * 
+     */
+    public static final String DOMAIN = "org.pifan";
+    public static final String PREFIX = "jmx.";
+
+    /**
+     * 
+     */
+    private final boolean enabled;
+    private final MBeanServer server;
+
+    /**
+     * 
+     */
+    private final List<ObjectName> registered = new CopyOnWriteArrayList<>();
+
+    /**
+     * 
+     * @param props
+     */
+    public PifanMBeans(Properties props) {
+        super();
+
+        this.enabled = PropertiesUtils.getBooleanValue(props, PREFIX + "enabled", true);
+        this.server = this.enabled ? ManagementFactory.getPlatformMBeanServer() : null;
+
+        logger.info("JMX MBeans initialized");
+        logger.info("  enabled: {}", this.enabled);
+    }
+
+    /**
+     * 
+     * @param name
+     * @param scheduler
+     * @return The name the MBean was registered under (null if it wasn't)
+     */
+    public ObjectName registerScheduler(String name, WorkerScheduler scheduler) {
+        return this.register("type=Scheduler,name=" + ObjectName.quote(name), new SchedulerMonitor(scheduler));
+    }
+
+    /**
+     * 
+     * @param gpio
+     * @return The name the MBean was registered under (null if it wasn't)
+     */
+    public ObjectName registerGpio(GpioControl gpio) {
+        return this.register("type=Gpio,name=" + ObjectName.quote(gpio.getDesc()) + ",pin=" + gpio.getPinNum(),
+                new GpioMonitor(gpio));
+    }
+
+    /**
+     * 
+     * @param loop
+     * @return The name the MBean was registered under (null if it wasn't)
+     */
+    public ObjectName registerControlLoop(ControlLoop loop) {
+        return this.register("type=ControlLoop,name=" + ObjectName.quote(loop.getName()),
+                new ControlLoopMonitor(loop));
+    }
+
+    /**
+     * 
+     * @param objectName A name returned by one of the register methods (null
+     *            is ignored)
+     */
+    public void unregister(ObjectName objectName) {
+        if (objectName == null || !this.registered.remove(objectName)) {
+            return;
+        }
+
+        try {
+            if (this.server.isRegistered(objectName)) {
+                this.server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            logger.error("Error unregistering MBean [name: " + objectName + "]: " + e, e);
+        }
+    }
+
+    /**
+     * Unregister everything registered through this object.
+     */
+    public void unregisterAll() {
+        for (ObjectName objectName : this.registered) {
+            try {
+                if (this.server.isRegistered(objectName)) {
+                    this.server.unregisterMBean(objectName);
+                }
+            } catch (JMException e) {
+                logger.error("Error unregistering MBean [name: " + objectName + "]: " + e, e);
+            }
+        }
+
+        this.registered.clear();
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * 
+     * @param keys
+     * @param mbean
+     * @return
+     */
+    private ObjectName register(String keys, Object mbean) {
+        if (!this.enabled) {
+            return null;
+        }
+
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":" + keys);
+
+            // replace anything left over under the same name
+            if (this.server.isRegistered(objectName)) {
+                this.server.unregisterMBean(objectName);
+            }
+
+            this.server.registerMBean(mbean, objectName);
+            this.registered.add(objectName);
+
+            logger.debug("Registered MBean [name: {}]", objectName);
+            return objectName;
+        } catch (JMException e) {
+            logger.error("Error registering MBean [keys: " + keys + "]: " + e, e);
+            return null;
+        }
+    }
+}
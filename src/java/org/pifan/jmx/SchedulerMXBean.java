@@ -0,0 +1,92 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.jmx;
+
+import java.util.Date;
+
+/**
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public interface SchedulerMXBean {
+    /**
+     * 
+     * @return The scheduler implementation
+     */
+    String getEngine();
+
+    /**
+     * 
+     * @return
+     */
+    int getWorkerCount();
+
+    /**
+     * 
+     * @return
+     */
+    String[] getWorkerNames();
+
+    /**
+     * 
+     * @return
+     */
+    WorkerInfo[] getWorkers();
+
+    /**
+     * 
+     * @param workerName
+     * @return Null if there's no such worker
+     */
+    WorkerInfo getWorker(String workerName);
+
+    /**
+     * 
+     * @param workerName
+     * @return Null if there's no such worker or it won't fire again
+     */
+    Date getNextFireTime(String workerName);
+
+    /**
+     * 
+     * @param workerName
+     * @return Whether there's such a worker
+     */
+    boolean pauseWorker(String workerName);
+
+    /**
+     * 
+     * @param workerName
+     * @return Whether there's such a worker
+     */
+    boolean resumeWorker(String workerName);
+
+    /**
+     * 
+     * @return The number of workers paused
+     */
+    int pauseAll();
+
+    /**
+     * 
+     * @return The number of workers resumed
+     */
+    int resumeAll();
+}
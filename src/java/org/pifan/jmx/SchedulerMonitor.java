@@ -0,0 +1,162 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.jmx;
+
+import java.util.Collection;
+import java.util.Date;
+
+import org.pifan.schedule.WorkerDescriptor;
+import org.pifan.schedule.WorkerScheduler;
+
+/**
+ * Exposes a {@link WorkerScheduler}'s workers over JMX.
+ * <p>
+ * Everything is read from the workers' descriptors and metrics, which are
+ * lock-free, so reading never holds up a firing worker.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class SchedulerMonitor implements SchedulerMXBean {
+    /**
+     * 
+     */
+    private final WorkerScheduler scheduler;
+
+    /**
+     * 
+     * @param scheduler
+     */
+    public SchedulerMonitor(WorkerScheduler scheduler) {
+        super();
+
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @see org.pifan.jmx.SchedulerMXBean#getEngine()
+     */
+    @Override
+    public String getEngine() {
+        return this.scheduler.getClass().getSimpleName();
+    }
+
+    /**
+     * @see org.pifan.jmx.SchedulerMXBean#getWorkerCount()
+     */
+    @Override
+    public int getWorkerCount() {
+        return this.scheduler.getWorkers().size();
+    }
+
+    /**
+     * @see org.pifan.jmx.SchedulerMXBean#getWorkerNames()
+     */
+    @Override
+    public String[] getWorkerNames() {
+        final Collection<WorkerDescriptor> workers = this.scheduler.getWorkers();
+
+        String[] names = new String[workers.size()];
+        int i = 0;
+        for (WorkerDescriptor descriptor : workers) {
+            names[i++] = descriptor.getName();
+        }
+        return names;
+    }
+
+    /**
+     * @see org.pifan.jmx.SchedulerMXBean#getWorkers()
+     */
+    @Override
+    public WorkerInfo[] getWorkers() {
+        final Collection<WorkerDescriptor> workers = this.scheduler.getWorkers();
+
+        WorkerInfo[] infos = new WorkerInfo[workers.size()];
+        int i = 0;
+        for (WorkerDescriptor descriptor : workers) {
+            infos[i++] = new WorkerInfo(descriptor);
+        }
+        return infos;
+    }
+
+    /**
+     * @see org.pifan.jmx.SchedulerMXBean#getWorker(java.lang.String)
+     */
+    @Override
+    public WorkerInfo getWorker(String workerName) {
+        WorkerDescriptor descriptor = this.scheduler.getWorker(workerName);
+        return descriptor == null ? null : new WorkerInfo(descriptor);
+    }
+
+    /**
+     * @see org.pifan.jmx.SchedulerMXBean#getNextFireTime(java.lang.String)
+     */
+    @Override
+    public Date getNextFireTime(String workerName) {
+        WorkerDescriptor descriptor = this.scheduler.getWorker(workerName);
+        if (descriptor == null || descriptor.getNextFireTime() == WorkerDescriptor.NONE) {
+            return null;
+        }
+        return new Date(descriptor.getNextFireTime());
+    }
+
+    /**
+     * @see org.pifan.jmx.SchedulerMXBean#pauseWorker(java.lang.String)
+     */
+    @Override
+    public boolean pauseWorker(String workerName) {
+        return this.scheduler.pauseWorker(workerName);
+    }
+
+    /**
+     * @see org.pifan.jmx.SchedulerMXBean#resumeWorker(java.lang.String)
+     */
+    @Override
+    public boolean resumeWorker(String workerName) {
+        return this.scheduler.resumeWorker(workerName);
+    }
+
+    /**
+     * @see org.pifan.jmx.SchedulerMXBean#pauseAll()
+     */
+    @Override
+    public int pauseAll() {
+        int count = 0;
+        for (WorkerDescriptor descriptor : this.scheduler.getWorkers()) {
+            if (this.scheduler.pauseWorker(descriptor.getName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @see org.pifan.jmx.SchedulerMXBean#resumeAll()
+     */
+    @Override
+    public int resumeAll() {
+        int count = 0;
+        for (WorkerDescriptor descriptor : this.scheduler.getWorkers()) {
+            if (this.scheduler.resumeWorker(descriptor.getName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,157 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.jmx;
+
+import java.util.Date;
+
+import org.pifan.schedule.WorkerDescriptor;
+import org.pifan.schedule.WorkerMetrics;
+
+/**
+ * A point in time view of a registered worker (exposed over JMX as composite
+ * data).
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class WorkerInfo {
+    /**
+     * 
+     */
+    private final String name;
+    private final boolean paused;
+    private final Date nextFireTime;
+    private final Date lastRunTime;
+    private final long runCount;
+    private final long failureCount;
+    private final long misfireCount;
+    private final long skipCount;
+    private final LatencySummary durations;
+    private final LatencySummary lags;
+
+    /**
+     * 
+     * @param descriptor
+     */
+    public WorkerInfo(WorkerDescriptor descriptor) {
+        super();
+
+        final WorkerMetrics metrics = descriptor.getMetrics();
+
+        this.name = descriptor.getName();
+        this.paused = descriptor.isPaused();
+        this.nextFireTime = toDate(descriptor.getNextFireTime());
+        this.lastRunTime = toDate(metrics.getLastRunTime());
+        this.runCount = metrics.getRunCount();
+        this.failureCount = metrics.getFailureCount();
+        this.misfireCount = metrics.getMisfireCount();
+        this.skipCount = metrics.getSkipCount();
+        this.durations = new LatencySummary(metrics.getDurations());
+        this.lags = new LatencySummary(metrics.getLags());
+    }
+
+    /**
+     * 
+     * @param time
+     * @return
+     */
+    private static Date toDate(long time) {
+        return time > 0 ? new Date(time) : null;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public boolean isPaused() {
+        return this.paused;
+    }
+
+    /**
+     * 
+     * @return The next fire time (null if it won't fire again)
+     */
+    public Date getNextFireTime() {
+        return this.nextFireTime;
+    }
+
+    /**
+     * 
+     * @return The time the last run finished (null if it hasn't run)
+     */
+    public Date getLastRunTime() {
+        return this.lastRunTime;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getRunCount() {
+        return this.runCount;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getFailureCount() {
+        return this.failureCount;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getMisfireCount() {
+        return this.misfireCount;
+    }
+
+    /**
+     * 
+     * @return The number of misfires skipped by the worker's misfire policy
+     */
+    public long getSkipCount() {
+        return this.skipCount;
+    }
+
+    /**
+     * 
+     * @return The run durations in microseconds
+     */
+    public LatencySummary getDurations() {
+        return this.durations;
+    }
+
+    /**
+     * 
+     * @return The fire time lag in milliseconds
+     */
+    public LatencySummary getLags() {
+        return this.lags;
+    }
+}
@@ -0,0 +1,693 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.journal;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A durable, append-only binary journal of state transitions and samples.
+ * <p>
+ * Records are a fixed {@value #RECORD_SIZE} bytes and are written straight
+ * into a memory-mapped segment file, so an append is a 32 byte copy with no
+ * system call and no allocation. A background thread group-commits the
+ * segment ({@link MappedByteBuffer#force()}) at most once per sync interval
+ * and only if something was appended, which keeps the number of writes to the
+ * SD card down. When a segment fills up it's forced, closed and a new one is
+ * started; the oldest segments are deleted once there are more than the
+ * maximum.
+ * <p>
+ * Record layout (big endian):
+ * 
+ * <pre>
+ *  0  short  magic
+ *  2  byte   type
+ *  3  byte   state
+ *  4  int    source (e.g. the pin number)
+ *  8  long   sequence number
+ * 16  long   timestamp (ms)
+ * 24  float  value
+ * 28  int    CRC32 of bytes 0-27
+ * </pre>
+ * 
+ * On startup the newest segment is scanned and the journal resumes after the
+ * last intact record; a record torn by a crash (bad magic, CRC or sequence
+ * number) and everything after it, up to the end of the segment, is zeroed.
+ * Since a record's sequence number comes from its position a stale record
+ * left past a gap would otherwise become valid again once the gap was filled.
+ * <p>
+ * Full segments are unmapped as soon as they're rolled (rather than whenever
+ * the GC gets around to it) unless a sync is still forcing them, in which case
+ * the sync unmaps them once it's done.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class Journal {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(Journal.class);
+
+    /**
+     * 
+     */
+    public static final int RECORD_SIZE = 32;
+
+    /**
+     * Record types.
+     */
+    public static final byte TYPE_TRANSITION = 1;
+    public static final byte TYPE_SAMPLE = 2;
+
+    /**
+     * 
+     */
+    private static final short MAGIC = 0x5046;
+    private static final int crcOffset = 28;
+
+    /**
+     * 
+     */
+    private static final String segmentSuffix = ".journal";
+
+    /**
+     * Callback used to replay the journal.
+     */
+    public interface RecordVisitor {
+        /**
+         * 
+         * @param seq
+         * @param type
+         * @param source
+         * @param timestamp
+         * @param value
+         * @param state
+         */
+        void visit(long seq, byte type, int source, long timestamp, float value, byte state);
+    }
+
+    /**
+     * 
+     */
+    private final File dir;
+    private final String name;
+    private final int segmentSize;
+    private final long syncIntervalInMs;
+    private final int maxSegments;
+
+    /**
+     * The first sequence number of every segment on disk, oldest first
+     * (guarded by this).
+     */
+    private final Deque<Long> segments = new ArrayDeque<>();
+
+    /**
+     * The active segment (guarded by this).
+     */
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long segmentFirstSeq;
+    private int position;
+    private long nextSeq;
+    private boolean dirty = false;
+    private boolean closed = false;
+
+    /**
+     * Segments that have been rolled (or closed) but not yet unmapped and the
+     * number of syncs currently forcing a segment outside of the lock (guarded
+     * by this).
+     */
+    private final List<MappedByteBuffer> retired = new ArrayList<>();
+    private int syncsInFlight = 0;
+
+    /**
+     * The reusable record buffer (guarded by this).
+     */
+    private final byte[] record = new byte[RECORD_SIZE];
+    private final ByteBuffer recordBuffer = ByteBuffer.wrap(this.record);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * 
+     */
+    private final Thread syncThread;
+    private volatile boolean running = true;
+
+    /**
+     * 
+     */
+    private final LongAdder appends = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * 
+     * @param dir The directory holding the segment files
+     * @param name The segment file name prefix
+     * @param segmentSize The size of each segment in bytes (rounded down to a
+     *            whole number of records)
+     * @param syncIntervalInMs How often appended records are forced to disk
+     * @param maxSegments The number of segments to keep (0 to keep them all)
+     * @throws IOException
+     */
+    public Journal(File dir, String name, int segmentSize, long syncIntervalInMs, int maxSegments)
+            throws IOException {
+        super();
+
+        if (segmentSize < RECORD_SIZE) {
+            throw new IllegalArgumentException("Journal segment size must be >= " + RECORD_SIZE + ": "
+                    + segmentSize);
+        }
+        if (syncIntervalInMs <= 0) {
+            throw new IllegalArgumentException("Journal sync interval must be > 0: " + syncIntervalInMs);
+        }
+
+        this.dir = dir;
+        this.name = name;
+        this.segmentSize = segmentSize - segmentSize % RECORD_SIZE;
+        this.syncIntervalInMs = syncIntervalInMs;
+        this.maxSegments = Math.max(0, maxSegments);
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create journal directory: " + dir);
+        }
+
+        this.recover();
+
+        this.syncThread = new Thread(this::syncLoop, "journal-sync-" + name);
+        this.syncThread.setDaemon(true);
+        this.syncThread.start();
+
+        logger.info("Journal [name: {}] opened", this.name);
+        logger.info("  dir:           {}", this.dir);
+        logger.info("  segment size:  {}", this.segmentSize);
+        logger.info("  sync interval: {} ms", this.syncIntervalInMs);
+        logger.info("  max segments:  {}", this.maxSegments);
+        logger.info("  next seq:      {}", this.nextSeq);
+    }
+
+    /**
+     * Find the existing segments and resume after the last intact record.
+     * 
+     * @throws IOException
+     */
+    private void recover() throws IOException {
+        this.segments.addAll(this.listSegments());
+
+        if (this.segments.isEmpty()) {
+            this.segments.addLast(0L);
+            this.openSegment(0);
+            return;
+        }
+
+        final long firstSeq = this.segments.peekLast();
+        this.openSegment(firstSeq);
+
+        int pos = 0;
+        while (pos < this.mapped.capacity() && isValid(this.crc, this.mapped, pos, firstSeq + pos / RECORD_SIZE)) {
+            pos += RECORD_SIZE;
+        }
+
+        // wipe everything past the tail (not just up to the first empty slot) so a stale record
+        // after a gap can't be brought back to life once the gap is filled
+        int discarded = this.wipe(pos);
+
+        if (discarded > 0) {
+            logger.warn("Discarded {} torn journal records [name: {}, segment: {}]", discarded, this.name, firstSeq);
+            this.mapped.force();
+        }
+
+        this.position = pos;
+        this.nextSeq = firstSeq + pos / RECORD_SIZE;
+    }
+
+    /**
+     * Append a record. Safe to call from any thread.
+     * 
+     * @param type
+     * @param source
+     * @param timestamp
+     * @param value
+     * @param state
+     * @return The record's sequence number or -1 if it couldn't be written
+     */
+    public synchronized long append(byte type, int source, long timestamp, float value, byte state) {
+        if (this.closed) {
+            return -1;
+        }
+
+        try {
+            if (this.position + RECORD_SIZE > this.mapped.capacity()) {
+                this.roll();
+            }
+        } catch (IOException e) {
+            this.failures.increment();
+            logger.error("Error rolling journal segment [name: " + this.name + "]: " + e, e);
+            return -1;
+        }
+
+        if (this.mapped.getShort(this.position) != 0) {
+            // everything past the tail is zeroed by recovery so this should never happen
+            int discarded = this.wipe(this.position);
+            logger.warn("Discarded {} journal records past the tail [name: {}, segment: {}]", discarded, this.name,
+                    this.segmentFirstSeq);
+        }
+
+        final long seq = this.nextSeq;
+
+        final ByteBuffer buf = this.recordBuffer;
+        buf.clear();
+        buf.putShort(MAGIC).put(type).put(state).putInt(source).putLong(seq).putLong(timestamp).putFloat(value);
+
+        this.crc.reset();
+        this.crc.update(this.record, 0, crcOffset);
+        buf.putInt((int) this.crc.getValue());
+
+        this.mapped.position(this.position);
+        this.mapped.put(this.record);
+
+        this.position += RECORD_SIZE;
+        this.nextSeq = seq + 1;
+        this.dirty = true;
+        this.appends.increment();
+
+        return seq;
+    }
+
+    /**
+     * Force anything appended since the last sync to disk.
+     */
+    public void sync() {
+        final MappedByteBuffer buf;
+        synchronized (this) {
+            if (!this.dirty || this.closed) {
+                return;
+            }
+            this.dirty = false;
+            buf = this.mapped;
+            this.syncsInFlight++;
+        }
+
+        try {
+            // force outside of the lock so appends aren't held up by the disk
+            buf.force();
+            this.syncs.increment();
+        } finally {
+            synchronized (this) {
+                this.syncsInFlight--;
+                this.unmapRetired();
+            }
+        }
+    }
+
+    /**
+     * Replay the intact records starting with the given sequence number.
+     * Records appended while replaying may or may not be visited.
+     * 
+     * @param fromSeq
+     * @param visitor
+     * @return The sequence number to resume from on the next call
+     * @throws IOException
+     */
+    public long replay(long fromSeq, RecordVisitor visitor) throws IOException {
+        final List<Long> firstSeqs;
+        synchronized (this) {
+            firstSeqs = new ArrayList<>(this.segments);
+        }
+
+        final ByteBuffer buf = ByteBuffer.allocate(RECORD_SIZE * 2048);
+        final CRC32 replayCrc = new CRC32();
+        long next = fromSeq;
+
+        for (int s = 0; s < firstSeqs.size(); s++) {
+            final long firstSeq = firstSeqs.get(s);
+
+            // skip segments that end before the requested start
+            if (s + 1 < firstSeqs.size() && firstSeqs.get(s + 1) <= fromSeq) {
+                continue;
+            }
+
+            long seq = firstSeq;
+            try (RandomAccessFile file = new RandomAccessFile(this.segmentFile(firstSeq), "r")) {
+                final FileChannel ch = file.getChannel();
+                long filePos = Math.max(0, fromSeq - firstSeq) * RECORD_SIZE;
+                seq = firstSeq + filePos / RECORD_SIZE;
+
+                boolean intact = true;
+                while (intact) {
+                    buf.clear();
+                    int read = ch.read(buf, filePos);
+                    if (read < RECORD_SIZE) {
+                        break;
+                    }
+
+                    int records = read / RECORD_SIZE;
+                    for (int i = 0; i < records; i++, seq++) {
+                        int pos = i * RECORD_SIZE;
+                        if (!isValid(replayCrc, buf, pos, seq)) {
+                            intact = false;
+                            break;
+                        }
+
+                        visitor.visit(seq, buf.get(pos + 2), buf.getInt(pos + 4), buf.getLong(pos + 16),
+                                buf.getFloat(pos + 24), buf.get(pos + 3));
+                    }
+
+                    filePos += (long) records * RECORD_SIZE;
+                }
+            } catch (FileNotFoundException e) {
+                // deleted by retention while we were replaying
+                continue;
+            }
+
+            next = Math.max(next, seq);
+        }
+
+        return next;
+    }
+
+    /**
+     * Force any outstanding records to disk, stop the sync thread and close the
+     * active segment.
+     */
+    public void close() {
+        logger.debug("Closing journal [name: {}]", this.name);
+
+        this.running = false;
+        LockSupport.unpark(this.syncThread);
+
+        try {
+            this.syncThread.join(this.syncIntervalInMs + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+
+            try {
+                this.mapped.force();
+                this.channel.close();
+            } catch (IOException e) {
+                logger.error("Error closing journal [name: " + this.name + "]: " + e, e);
+            }
+
+            this.retired.add(this.mapped);
+            this.unmapRetired();
+        }
+    }
+
+    /**
+     * Force the full segment and start a new one (guarded by this).
+     * 
+     * @throws IOException
+     */
+    private void roll() throws IOException {
+        final MappedByteBuffer oldMapped = this.mapped;
+        final FileChannel oldChannel = this.channel;
+
+        oldMapped.force();
+
+        // the old segment stays active if the new one can't be opened so the next append can retry
+        this.openSegment(this.nextSeq);
+        this.segments.addLast(this.nextSeq);
+
+        try {
+            oldChannel.close();
+        } catch (IOException e) {
+            logger.warn("Error closing journal segment [name: " + this.name + "]: " + e, e);
+        }
+
+        this.retired.add(oldMapped);
+        this.unmapRetired();
+
+        while (this.maxSegments > 0 && this.segments.size() > this.maxSegments) {
+            File oldest = this.segmentFile(this.segments.removeFirst());
+            if (!oldest.delete()) {
+                logger.warn("Unable to delete old journal segment: {}", oldest);
+            }
+        }
+
+        logger.debug("Rolled journal [name: {}, segment: {}]", this.name, this.nextSeq);
+    }
+
+    /**
+     * 
+     * @param firstSeq
+     * @throws IOException
+     */
+    private void openSegment(long firstSeq) throws IOException {
+        final File file = this.segmentFile(firstSeq);
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+        final FileChannel ch = raf.getChannel();
+        final MappedByteBuffer buf;
+        try {
+            // an existing segment keeps its size (it may have been written with a different setting)
+            long existing = raf.length() - raf.length() % RECORD_SIZE;
+            int size = existing >= RECORD_SIZE ? (int) Math.min(existing, Integer.MAX_VALUE) : this.segmentSize;
+
+            buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+
+        this.channel = ch;
+        this.mapped = buf;
+        this.segmentFirstSeq = firstSeq;
+        this.position = 0;
+    }
+
+    /**
+     * Zero every record slot from the given position to the end of the active
+     * segment (guarded by this).
+     * 
+     * @param from
+     * @return The number of non-empty slots that were zeroed
+     */
+    private int wipe(int from) {
+        int discarded = 0;
+        for (int p = from; p + RECORD_SIZE <= this.mapped.capacity(); p += RECORD_SIZE) {
+            boolean empty = true;
+            for (int i = 0; i < RECORD_SIZE; i += 8) {
+                // only touch slots that need it so clean pages aren't dirtied
+                if (this.mapped.getLong(p + i) != 0) {
+                    this.mapped.putLong(p + i, 0);
+                    empty = false;
+                }
+            }
+            if (!empty) {
+                discarded++;
+            }
+        }
+        return discarded;
+    }
+
+    /**
+     * Unmap the retired segments unless a sync may still be forcing one of
+     * them (guarded by this).
+     */
+    private void unmapRetired() {
+        if (this.syncsInFlight > 0) {
+            return;
+        }
+
+        for (MappedByteBuffer buf : this.retired) {
+            unmap(buf);
+        }
+        this.retired.clear();
+    }
+
+    /**
+     * Release the mapping now instead of waiting for the buffer to be garbage
+     * collected. The buffer must not be touched afterwards.
+     * 
+     * @param buf
+     */
+    private static void unmap(MappedByteBuffer buf) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            try {
+                // Java 9+
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buf);
+            } catch (NoSuchMethodException e) {
+                // Java 8
+                Method cleanerMethod = buf.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buf);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (Exception e) {
+            logger.debug("Unable to unmap journal segment, leaving it to the GC: " + e);
+        }
+    }
+
+    /**
+     * 
+     * @param crc
+     * @param buf
+     * @param pos
+     * @param expectedSeq
+     * @return Whether the record at the given position is intact
+     */
+    private static boolean isValid(CRC32 crc, ByteBuffer buf, int pos, long expectedSeq) {
+        if (buf.getShort(pos) != MAGIC || buf.getLong(pos + 8) != expectedSeq) {
+            return false;
+        }
+
+        crc.reset();
+        for (int i = 0; i < crcOffset; i++) {
+            crc.update(buf.get(pos + i));
+        }
+
+        return (int) crc.getValue() == buf.getInt(pos + crcOffset);
+    }
+
+    /**
+     * 
+     * @return The first sequence number of each segment on disk, oldest first
+     */
+    private List<Long> listSegments() {
+        final List<Long> ret = new ArrayList<>();
+        final String prefix = this.name + "-";
+
+        File[] files = this.dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String fileName = file.getName();
+                if (fileName.startsWith(prefix) && fileName.endsWith(segmentSuffix)) {
+                    try {
+                        ret.add(Long.parseLong(fileName.substring(prefix.length(),
+                                fileName.length() - segmentSuffix.length())));
+                    } catch (NumberFormatException e) {
+                        logger.warn("Ignoring unexpected journal file: {}", file);
+                    }
+                }
+            }
+        }
+
+        Collections.sort(ret);
+        return ret;
+    }
+
+    /**
+     * 
+     * @param firstSeq
+     * @return
+     */
+    private File segmentFile(long firstSeq) {
+        return new File(this.dir, String.format("%s-%020d%s", this.name, firstSeq, segmentSuffix));
+    }
+
+    /**
+     * 
+     */
+    private void syncLoop() {
+        final long intervalNanos = TimeUnit.MILLISECONDS.toNanos(this.syncIntervalInMs);
+
+        while (this.running) {
+            LockSupport.parkNanos(this, intervalNanos);
+
+            try {
+                this.sync();
+            } catch (Exception e) {
+                this.failures.increment();
+                logger.error("Error syncing journal [name: " + this.name + "]: " + e, e);
+            }
+        }
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public final String getName() {
+        return this.name;
+    }
+
+    /**
+     * 
+     * @return The sequence number the next record will get
+     */
+    public synchronized long getNextSeq() {
+        return this.nextSeq;
+    }
+
+    /**
+     * 
+     * @return The first sequence number of the active segment
+     */
+    public synchronized long getSegmentFirstSeq() {
+        return this.segmentFirstSeq;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getAppendCount() {
+        return this.appends.sum();
+    }
+
+    /**
+     * 
+     * @return The number of times appended records were forced to disk
+     */
+    public long getSyncCount() {
+        return this.syncs.sum();
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getFailureCount() {
+        return this.failures.sum();
+    }
+}
@@ -0,0 +1,71 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.pifan.util.PropertiesUtils;
+
+/**
+ * Opens the {@link Journal} from properties:
+ * 
+ * <pre>
+ * journal.dir            = /var/lib/pifan/journal
+ * journal.name           = pifan
+ * journal.segmentSizeKb  = 4096
+ * journal.syncIntervalMs = 1000
+ * journal.maxSegments    = 16
+ * </pre>
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class Journals {
+    /**
+     * 
+     */
+    public static final String PREFIX = "journal.";
+
+    /**
+     * Private non-instantiable constructor.
+     */
+    private Journals() {
+    }
+
+    /**
+     * 
+     * @param properties
+     * @return The opened journal or null if no journal directory is configured
+     * @throws IOException
+     */
+    public static Journal open(Properties properties) throws IOException {
+        String dir = PropertiesUtils.getStringValue(properties, PREFIX + "dir");
+        if (dir == null) {
+            return null;
+        }
+
+        return new Journal(new File(dir),
+                PropertiesUtils.getStringValue(properties, PREFIX + "name", "pifan"),
+                PropertiesUtils.getIntegerValue(properties, PREFIX + "segmentSizeKb", 4096) * 1024,
+                PropertiesUtils.getLongValue(properties, PREFIX + "syncIntervalMs", 1000),
+                PropertiesUtils.getIntegerValue(properties, PREFIX + "maxSegments", 16));
+    }
+}
@@ -0,0 +1,164 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves a {@link PrometheusRegistry} in the Prometheus text format from the
+ * JDK's built in HTTP server.
+ * <p>
+ * Requests are handled one at a time on the server's single dispatcher thread
+ * and rendered into one reusable {@link PrometheusWriter}, so a scrape
+ * allocates next to nothing beyond what the HTTP server itself needs.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class MetricsServer {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(MetricsServer.class);
+
+    /**
+     * 
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * 
+     */
+    private static final int initialBufferSize = 16 * 1024;
+
+    /**
+     * 
+     */
+    private final PrometheusRegistry registry;
+    private final HttpServer server;
+    private final String path;
+
+    /**
+     * The scrape buffer (only touched by the dispatcher thread).
+     */
+    private final PrometheusWriter writer = new PrometheusWriter(initialBufferSize);
+
+    /**
+     * 
+     * @param registry
+     * @param address The address to listen on (port 0 picks a free port)
+     * @param path The path to serve the metrics on (e.g. /metrics)
+     * @throws IOException
+     */
+    public MetricsServer(PrometheusRegistry registry, InetSocketAddress address, String path) throws IOException {
+        super();
+
+        this.registry = registry;
+        this.path = path;
+
+        this.server = HttpServer.create(address, 0);
+        this.server.createContext(path, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                MetricsServer.this.handle(exchange);
+            }
+        });
+
+        // handle everything on the dispatcher thread
+        this.server.setExecutor(null);
+        this.server.start();
+
+        logger.info("Metrics server started");
+        logger.info("  address: {}", this.server.getAddress());
+        logger.info("  path:    {}", this.path);
+    }
+
+    /**
+     * 
+     * @param exchange
+     * @throws IOException
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            final String method = exchange.getRequestMethod();
+
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            try {
+                this.registry.render(this.writer);
+            } catch (Exception e) {
+                logger.error("Error rendering metrics: " + e, e);
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+
+            if ("HEAD".equals(method)) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(200, this.writer.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                this.writer.writeTo(out);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * 
+     * @return The address actually listened on
+     */
+    public InetSocketAddress getAddress() {
+        return this.server.getAddress();
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public String getPath() {
+        return this.path;
+    }
+
+    /**
+     * 
+     */
+    public void stop() {
+        logger.debug("Stopping metrics server [address: {}]", this.server.getAddress());
+
+        this.server.stop(0);
+    }
+}
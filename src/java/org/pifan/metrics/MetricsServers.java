@@ -0,0 +1,78 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.metrics;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Properties;
+
+import org.pifan.util.PropertiesUtils;
+
+/**
+ * Starts the optional metrics endpoint from properties.
+ * <p>
+ * Nothing is started unless <code>metrics.port</code> is set (0 picks a free
+ * port). <code>metrics.host</code> defaults to every interface and
+ * <code>metrics.path</code> to /metrics.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class MetricsServers {
+    /**
+     * 
+     */
+    public static final String PREFIX = "metrics.";
+
+    /**
+     * 
+     */
+    private static final String defaultHost = "0.0.0.0";
+    private static final String defaultPath = "/metrics";
+
+    /**
+     * 
+     */
+    private MetricsServers() {
+        super();
+    }
+
+    /**
+     * 
+     * @param properties
+     * @param registry
+     * @return The running server or null if it isn't configured
+     * @throws IOException If the server couldn't be started
+     */
+    public static MetricsServer start(Properties properties, PrometheusRegistry registry) throws IOException {
+        if (!PropertiesUtils.containsKey(properties, PREFIX + "port")) {
+            return null;
+        }
+
+        final int port = PropertiesUtils.getIntegerValue(properties, PREFIX + "port");
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Invalid metrics port: " + port);
+        }
+
+        final String host = PropertiesUtils.getStringValue(properties, PREFIX + "host", defaultHost);
+        final String path = PropertiesUtils.getStringValue(properties, PREFIX + "path", defaultPath);
+
+        return new MetricsServer(registry, new InetSocketAddress(host, port), path);
+    }
+}
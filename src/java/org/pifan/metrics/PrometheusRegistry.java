@@ -0,0 +1,336 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.pifan.control.ControlLoop;
+import org.pifan.io.GpioControl;
+import org.pifan.schedule.WorkerDescriptor;
+import org.pifan.schedule.WorkerMetrics;
+import org.pifan.schedule.WorkerScheduler;
+import org.pifan.util.LatencyHistogram;
+
+/**
+ * The things rendered on a metrics scrape: relays, scheduled workers, control
+ * loops (sensor readings) and JVM memory.
+ * <p>
+ * Everything is read from volatile fields, lock-free counters and histograms
+ * so a scrape never holds up a pin write or a firing worker (renders are only
+ * serialized against each other). Latency histograms are rendered as
+ * summaries (in seconds) with the 0.5, 0.9, 0.99 and 0.999 quantiles.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class PrometheusRegistry {
+    /**
+     * 
+     */
+    private static final double[] quantiles = { 0.5, 0.9, 0.99, 0.999 };
+    private static final String[] quantileLabels = { "0.5", "0.9", "0.99", "0.999" };
+
+    /**
+     * 
+     */
+    private static final class NamedScheduler {
+        private final String name;
+        private final WorkerScheduler scheduler;
+
+        private NamedScheduler(String name, WorkerScheduler scheduler) {
+            this.name = name;
+            this.scheduler = scheduler;
+        }
+    }
+
+    /**
+     * 
+     */
+    private final List<GpioControl> relays = new CopyOnWriteArrayList<>();
+    private final List<NamedScheduler> schedulers = new CopyOnWriteArrayList<>();
+    private final List<ControlLoop> loops = new CopyOnWriteArrayList<>();
+
+    /**
+     * The workers (and their schedulers) being rendered, reused between
+     * renders (guarded by this).
+     */
+    private final List<NamedScheduler> workerOwners = new ArrayList<>();
+    private final List<WorkerDescriptor> workers = new ArrayList<>();
+
+    /**
+     * 
+     */
+    public PrometheusRegistry() {
+        super();
+    }
+
+    /**
+     * 
+     * @param relay
+     */
+    public void register(GpioControl relay) {
+        this.relays.add(relay);
+    }
+
+    /**
+     * 
+     * @param relay
+     */
+    public void unregister(GpioControl relay) {
+        this.relays.remove(relay);
+    }
+
+    /**
+     * 
+     * @param name
+     * @param scheduler
+     */
+    public void register(String name, WorkerScheduler scheduler) {
+        this.schedulers.add(new NamedScheduler(name, scheduler));
+    }
+
+    /**
+     * 
+     * @param loop
+     */
+    public void register(ControlLoop loop) {
+        this.loops.add(loop);
+    }
+
+    /**
+     * Render every metric into the given writer (which is reset first).
+     * 
+     * @param w
+     */
+    public synchronized void render(PrometheusWriter w) {
+        w.reset();
+
+        this.renderRelays(w);
+        this.renderWorkers(w);
+        this.renderLoops(w);
+        this.renderMemory(w);
+    }
+
+    /**
+     * 
+     * @param w
+     */
+    private void renderRelays(PrometheusWriter w) {
+        if (this.relays.isEmpty()) {
+            return;
+        }
+
+        w.family("pifan_relay_state", "gauge", "Whether the relay was last set on (1) or off (0).");
+        for (GpioControl relay : this.relays) {
+            relayLabels(w.name("pifan_relay_state"), relay).value(relay.isOn());
+        }
+
+        w.family("pifan_relay_transitions_total", "counter", "Transitions written to the relay pin.");
+        for (GpioControl relay : this.relays) {
+            relayLabels(w.name("pifan_relay_transitions_total"), relay).value(relay.getAppliedWriteCount());
+        }
+
+        w.family("pifan_relay_suppressed_writes_total", "counter",
+                "Writes skipped since the relay was already in the requested state.");
+        for (GpioControl relay : this.relays) {
+            relayLabels(w.name("pifan_relay_suppressed_writes_total"), relay).value(relay.getSuppressedWriteCount());
+        }
+
+        w.family("pifan_relay_write_seconds", "summary", "How long the relay pin writes took.");
+        for (GpioControl relay : this.relays) {
+            final LatencyHistogram latencies = relay.getWriteLatencies();
+
+            for (int q = 0; q < quantiles.length; q++) {
+                relayLabels(w.name("pifan_relay_write_seconds"), relay).label("quantile", quantileLabels[q])
+                        .value(latencies.getValueAtPercentile(quantiles[q] * 100), 6);
+            }
+            relayLabels(w.name("pifan_relay_write_seconds", "_sum"), relay).value(latencies.getSum(), 6);
+            relayLabels(w.name("pifan_relay_write_seconds", "_count"), relay).value(latencies.getCount());
+        }
+    }
+
+    /**
+     * 
+     * @param w
+     */
+    private void renderWorkers(PrometheusWriter w) {
+        if (this.schedulers.isEmpty()) {
+            return;
+        }
+
+        // take one snapshot of the workers so every family sees the same ones
+        for (NamedScheduler named : this.schedulers) {
+            for (WorkerDescriptor worker : named.scheduler.getWorkers()) {
+                this.workerOwners.add(named);
+                this.workers.add(worker);
+            }
+        }
+
+        try {
+            final int count = this.workers.size();
+
+            w.family("pifan_worker_runs_total", "counter", "Scheduled worker runs.");
+            for (int i = 0; i < count; i++) {
+                this.workerLabels(w.name("pifan_worker_runs_total"), i).value(
+                        this.workers.get(i).getMetrics().getRunCount());
+            }
+
+            w.family("pifan_worker_failures_total", "counter", "Scheduled worker runs that threw.");
+            for (int i = 0; i < count; i++) {
+                this.workerLabels(w.name("pifan_worker_failures_total"), i).value(
+                        this.workers.get(i).getMetrics().getFailureCount());
+            }
+
+            w.family("pifan_worker_misfires_total", "counter", "Scheduled worker fire times missed.");
+            for (int i = 0; i < count; i++) {
+                this.workerLabels(w.name("pifan_worker_misfires_total"), i).value(
+                        this.workers.get(i).getMetrics().getMisfireCount());
+            }
+
+            w.family("pifan_worker_misfire_skips_total", "counter", "Misfires skipped by the worker's misfire policy.");
+            for (int i = 0; i < count; i++) {
+                this.workerLabels(w.name("pifan_worker_misfire_skips_total"), i).value(
+                        this.workers.get(i).getMetrics().getSkipCount());
+            }
+
+            w.family("pifan_worker_next_fire_timestamp_seconds", "gauge", "When the worker fires next.");
+            for (int i = 0; i < count; i++) {
+                final long nextFireTime = this.workers.get(i).getNextFireTime();
+                if (nextFireTime != WorkerDescriptor.NONE) {
+                    this.workerLabels(w.name("pifan_worker_next_fire_timestamp_seconds"), i).value(nextFireTime, 3);
+                }
+            }
+
+            w.family("pifan_worker_duration_seconds", "summary", "Scheduled worker run durations.");
+            for (int i = 0; i < count; i++) {
+                this.summary(w, "pifan_worker_duration_seconds", i, this.workers.get(i).getMetrics().getDurations(),
+                        6);
+            }
+
+            w.family("pifan_worker_lag_seconds", "summary", "How late scheduled workers started.");
+            for (int i = 0; i < count; i++) {
+                this.summary(w, "pifan_worker_lag_seconds", i, this.workers.get(i).getMetrics().getLags(), 3);
+            }
+        } finally {
+            this.workerOwners.clear();
+            this.workers.clear();
+        }
+    }
+
+    /**
+     * 
+     * @param w
+     * @param name
+     * @param worker The index of the worker in the snapshot
+     * @param histogram
+     * @param decimals The decimal places that convert the histogram's unit to
+     *            seconds
+     */
+    private void summary(PrometheusWriter w, String name, int worker, LatencyHistogram histogram, int decimals) {
+        for (int q = 0; q < quantiles.length; q++) {
+            this.workerLabels(w.name(name), worker).label("quantile", quantileLabels[q])
+                    .value(histogram.getValueAtPercentile(quantiles[q] * 100), decimals);
+        }
+        this.workerLabels(w.name(name, "_sum"), worker).value(histogram.getSum(), decimals);
+        this.workerLabels(w.name(name, "_count"), worker).value(histogram.getCount());
+    }
+
+    /**
+     * 
+     * @param w
+     */
+    private void renderLoops(PrometheusWriter w) {
+        if (this.loops.isEmpty()) {
+            return;
+        }
+
+        w.family("pifan_temperature_celsius", "gauge", "The last temperature read by the control loop.");
+        for (ControlLoop loop : this.loops) {
+            w.name("pifan_temperature_celsius").label("loop", loop.getName()).value(loop.getLastCelsius());
+        }
+
+        w.family("pifan_fan_duty_percent", "gauge", "The last fan duty cycle applied by the control loop.");
+        for (ControlLoop loop : this.loops) {
+            w.name("pifan_fan_duty_percent").label("loop", loop.getName()).value(loop.getLastDutyCycle());
+        }
+
+        w.family("pifan_control_fallback_active", "gauge", "Whether the fixed schedules are in control.");
+        for (ControlLoop loop : this.loops) {
+            w.name("pifan_control_fallback_active").label("loop", loop.getName()).value(loop.isFallbackActive());
+        }
+
+        w.family("pifan_control_cycles_total", "counter", "Control loop cycles run.");
+        for (ControlLoop loop : this.loops) {
+            w.name("pifan_control_cycles_total").label("loop", loop.getName()).value(loop.getCycleCount());
+        }
+
+        w.family("pifan_control_failed_reads_total", "counter", "Failed temperature reads.");
+        for (ControlLoop loop : this.loops) {
+            w.name("pifan_control_failed_reads_total").label("loop", loop.getName()).value(loop.getFailedReadCount());
+        }
+    }
+
+    /**
+     * 
+     * @param w
+     */
+    private void renderMemory(PrometheusWriter w) {
+        final Runtime runtime = Runtime.getRuntime();
+        final long total = runtime.totalMemory();
+
+        // the only JVM figures that need an allocation
+        final MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+
+        w.family("pifan_jvm_memory_used_bytes", "gauge", "JVM memory in use.");
+        w.name("pifan_jvm_memory_used_bytes").label("area", "heap").value(total - runtime.freeMemory());
+        w.name("pifan_jvm_memory_used_bytes").label("area", "nonheap").value(nonHeap.getUsed());
+
+        w.family("pifan_jvm_memory_committed_bytes", "gauge", "JVM memory committed.");
+        w.name("pifan_jvm_memory_committed_bytes").label("area", "heap").value(total);
+        w.name("pifan_jvm_memory_committed_bytes").label("area", "nonheap").value(nonHeap.getCommitted());
+
+        w.family("pifan_jvm_memory_max_bytes", "gauge", "The most heap the JVM will use.");
+        w.name("pifan_jvm_memory_max_bytes").label("area", "heap").value(runtime.maxMemory());
+    }
+
+    /**
+     * 
+     * @param w
+     * @param relay
+     * @return
+     */
+    private static PrometheusWriter relayLabels(PrometheusWriter w, GpioControl relay) {
+        return w.label("pin", relay.getPinNum()).label("desc", relay.getDesc());
+    }
+
+    /**
+     * 
+     * @param w
+     * @param worker The index of the worker in the snapshot
+     * @return
+     */
+    private PrometheusWriter workerLabels(PrometheusWriter w, int worker) {
+        return w.label("scheduler", this.workerOwners.get(worker).name).label("worker",
+                this.workers.get(worker).getName());
+    }
+}
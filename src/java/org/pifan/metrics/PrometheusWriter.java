@@ -0,0 +1,344 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes the Prometheus text exposition format into a reusable byte buffer.
+ * <p>
+ * Names, label values and numbers are encoded straight into the buffer (no
+ * intermediate strings) and the buffer is kept between renders, so once it
+ * has grown to the size of a typical scrape rendering doesn't allocate.
+ * <p>
+ * Samples are written fluently, e.g.
+ * <code>writer.name("pifan_relay_state").label("pin", "8").value(1)</code>.
+ * Not thread safe.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class PrometheusWriter {
+    /**
+     * 
+     */
+    private static final long[] powersOfTen = { 1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+            100000000L, 1000000000L };
+
+    /**
+     * 
+     */
+    private byte[] buffer;
+    private int size = 0;
+
+    /**
+     * Whether the current sample has any labels yet.
+     */
+    private boolean inLabels = false;
+
+    /**
+     * Scratch space for formatting numbers.
+     */
+    private final byte[] digits = new byte[20];
+
+    /**
+     * 
+     * @param initialCapacity
+     */
+    public PrometheusWriter(int initialCapacity) {
+        super();
+
+        this.buffer = new byte[Math.max(64, initialCapacity)];
+    }
+
+    /**
+     * Discard everything written (the buffer is kept).
+     */
+    public void reset() {
+        this.size = 0;
+        this.inLabels = false;
+    }
+
+    /**
+     * 
+     * @param name
+     * @param type The metric type (e.g. counter, gauge, summary)
+     * @param help
+     * @return
+     */
+    public PrometheusWriter family(String name, String type, String help) {
+        this.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        this.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * Start a sample.
+     * 
+     * @param name
+     * @return
+     */
+    public PrometheusWriter name(String name) {
+        this.inLabels = false;
+        return this.append(name);
+    }
+
+    /**
+     * Start a sample whose name is the given name plus a suffix (e.g.
+     * "_count").
+     * 
+     * @param name
+     * @param suffix
+     * @return
+     */
+    public PrometheusWriter name(String name, String suffix) {
+        this.inLabels = false;
+        return this.append(name).append(suffix);
+    }
+
+    /**
+     * 
+     * @param key
+     * @param value
+     * @return
+     */
+    public PrometheusWriter label(String key, String value) {
+        this.append(this.inLabels ? ',' : '{').append(key).append("=\"");
+        this.inLabels = true;
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                this.append('\\').append(c);
+            } else if (c == '\n') {
+                this.append("\\n");
+            } else {
+                this.append(c);
+            }
+        }
+
+        return this.append('"');
+    }
+
+    /**
+     * 
+     * @param key
+     * @param value
+     * @return
+     */
+    public PrometheusWriter label(String key, long value) {
+        this.append(this.inLabels ? ',' : '{').append(key).append("=\"");
+        this.inLabels = true;
+
+        return this.appendLong(value).append('"');
+    }
+
+    /**
+     * End the sample with the given value.
+     * 
+     * @param value
+     */
+    public void value(long value) {
+        this.endLabels();
+        this.appendLong(value).append('\n');
+    }
+
+    /**
+     * End the sample with the given value.
+     * 
+     * @param value
+     */
+    public void value(boolean value) {
+        this.value(value ? 1 : 0);
+    }
+
+    /**
+     * End the sample with the given fixed point value, e.g. 1500 with 3
+     * decimals is written as 1.500.
+     * 
+     * @param unscaled
+     * @param decimals 0 to 9
+     */
+    public void value(long unscaled, int decimals) {
+        this.endLabels();
+        this.appendFixed(unscaled, decimals).append('\n');
+    }
+
+    /**
+     * End the sample with the given value rounded to 3 decimal places.
+     * 
+     * @param value
+     */
+    public void value(double value) {
+        this.endLabels();
+
+        if (Double.isNaN(value)) {
+            this.append("NaN");
+        } else if (value == Double.POSITIVE_INFINITY || value >= Long.MAX_VALUE / 1000) {
+            this.append("+Inf");
+        } else if (value == Double.NEGATIVE_INFINITY || value <= Long.MIN_VALUE / 1000) {
+            this.append("-Inf");
+        } else {
+            this.appendFixed(Math.round(value * 1000), 3);
+        }
+
+        this.append('\n');
+    }
+
+    /**
+     * 
+     * @return The number of bytes written
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * 
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(this.buffer, 0, this.size);
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return new String(this.buffer, 0, this.size, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 
+     */
+    private void endLabels() {
+        if (this.inLabels) {
+            this.append('}');
+            this.inLabels = false;
+        }
+        this.append(' ');
+    }
+
+    /**
+     * 
+     * @param s
+     * @return
+     */
+    private PrometheusWriter append(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            this.append(s.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Append the character as UTF-8 (surrogate pairs aren't expected in
+     * metric names or labels and are written as '?').
+     * 
+     * @param c
+     * @return
+     */
+    private PrometheusWriter append(char c) {
+        if (c < 0x80) {
+            this.put((byte) c);
+        } else if (c < 0x800) {
+            this.put((byte) (0xc0 | (c >> 6)));
+            this.put((byte) (0x80 | (c & 0x3f)));
+        } else if (Character.isSurrogate(c)) {
+            this.put((byte) '?');
+        } else {
+            this.put((byte) (0xe0 | (c >> 12)));
+            this.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+            this.put((byte) (0x80 | (c & 0x3f)));
+        }
+        return this;
+    }
+
+    /**
+     * 
+     * @param value
+     * @return
+     */
+    private PrometheusWriter appendLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            return this.append("-9223372036854775808");
+        }
+
+        if (value < 0) {
+            this.put((byte) '-');
+            value = -value;
+        }
+
+        int count = 0;
+        do {
+            this.digits[count++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+
+        while (count > 0) {
+            this.put(this.digits[--count]);
+        }
+        return this;
+    }
+
+    /**
+     * 
+     * @param unscaled
+     * @param decimals
+     * @return
+     */
+    private PrometheusWriter appendFixed(long unscaled, int decimals) {
+        if (decimals <= 0) {
+            return this.appendLong(unscaled);
+        }
+
+        final long scale = powersOfTen[decimals];
+
+        if (unscaled < 0) {
+            this.put((byte) '-');
+            unscaled = -unscaled;
+        }
+
+        this.appendLong(unscaled / scale);
+        this.put((byte) '.');
+
+        long fraction = unscaled % scale;
+        for (long p = scale / 10; p > 0; p /= 10) {
+            this.put((byte) ('0' + (fraction / p)));
+            fraction %= p;
+        }
+        return this;
+    }
+
+    /**
+     * 
+     * @param b
+     */
+    private void put(byte b) {
+        if (this.size == this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+        }
+        this.buffer[this.size++] = b;
+    }
+}
@@ -0,0 +1,670 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.schedule;
+
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pifan.util.Fences;
+
+/**
+ * A CRON expression compiled down to bitset field tables.
+ * <p>
+ * The syntax is Quartz's: seconds, minutes, hours, day of month, month, day of
+ * week and an optional year, with <code>*</code>, <code>?</code>, lists,
+ * (wrapping) ranges, steps, month and day names, <code>L</code> and
+ * <code>L-n</code> in the day of month and <code>nL</code> and
+ * <code>n#k</code> (on their own) in the day of week. The nearest weekday
+ * (<code>W</code>) isn't supported; {@link #of(String)} throws for it so the
+ * caller can fall back to Quartz.
+ * <p>
+ * {@link #nextFireAfter(long)} walks the field tables directly on the local
+ * date/time fields without a {@link java.util.Calendar}, so it doesn't
+ * allocate. Local times skipped or repeated by daylight saving changes are
+ * handled the way Quartz handles them. The last result is memoized as a range,
+ * so any number of workers sharing the expression and asking for the next fire
+ * time after the same fire only compute it once.
+ * <p>
+ * Instances are immutable (apart from the memo) and interned by expression
+ * with {@link #of(String)}.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class CompiledCron {
+    /**
+     * 
+     */
+    public static final long NONE = -1;
+
+    /**
+     * 
+     */
+    private static final int minYear = 1970;
+    private static final int maxYear = 2299;
+
+    /**
+     * 
+     */
+    private static final String[] monthNames = { "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT",
+            "NOV", "DEC" };
+    private static final String[] dayNames = { "SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT" };
+
+    /**
+     * Compiled expressions, by normalized expression.
+     */
+    private static final ConcurrentMap<String, CompiledCron> cache = new ConcurrentHashMap<>();
+
+    /**
+     * 
+     */
+    private final String expression;
+    private final TimeZone timeZone;
+
+    /**
+     * The field tables (bit n set if value n matches).
+     */
+    private final long seconds;
+    private final long minutes;
+    private final long hours;
+    private final long daysOfMonth;
+    private final long months;
+    private final long daysOfWeek;
+    private final long[] years;
+
+    /**
+     * Day of month / day of week specials.
+     */
+    private final boolean anyDayOfMonth;
+    private final boolean anyDayOfWeek;
+    private final int lastDayOffset;
+    private final long lastDaysOfWeek;
+    private final long nthDaysOfWeek;
+
+    /**
+     * The last computed next fire time: any time in
+     * <code>[memoAfter, memoNext)</code> has <code>memoNext</code> as its next
+     * fire time. Guarded by a sequence lock (odd while being updated) so
+     * neither reads nor updates allocate.
+     */
+    private final AtomicLong memoVersion = new AtomicLong();
+    private volatile long memoAfter = Long.MAX_VALUE;
+    private volatile long memoNext = Long.MAX_VALUE;
+
+    /**
+     * 
+     * @param expression
+     * @return The compiled (and interned) expression
+     * @throws IllegalArgumentException If the expression is invalid or uses
+     *             syntax that isn't supported
+     */
+    public static CompiledCron of(String expression) {
+        final String key = normalize(expression);
+
+        CompiledCron cron = cache.get(key);
+        if (cron == null) {
+            cron = new CompiledCron(key, TimeZone.getDefault());
+
+            CompiledCron existing = cache.putIfAbsent(key, cron);
+            if (existing != null) {
+                cron = existing;
+            }
+        }
+
+        return cron;
+    }
+
+    /**
+     * 
+     * @param expression
+     * @param timeZone
+     */
+    private CompiledCron(String expression, TimeZone timeZone) {
+        super();
+
+        this.expression = expression;
+        this.timeZone = timeZone;
+
+        String[] fields = expression.split(" ");
+        if (fields.length < 6 || fields.length > 7) {
+            throw new IllegalArgumentException("CRON expression must have 6 or 7 fields: " + expression);
+        }
+
+        this.seconds = parseField(fields[0], 0, 59, null);
+        this.minutes = parseField(fields[1], 0, 59, null);
+        this.hours = parseField(fields[2], 0, 23, null);
+        this.months = parseField(fields[4], 1, 12, monthNames);
+
+        // day of month
+        String dom = fields[3];
+        this.anyDayOfMonth = "?".equals(dom);
+        if (dom.startsWith("L")) {
+            this.lastDayOffset = dom.length() == 1 ? 0 : parseOffset(dom);
+            this.daysOfMonth = 0;
+        } else {
+            this.lastDayOffset = -1;
+            this.daysOfMonth = this.anyDayOfMonth ? 0 : parseField(dom, 1, 31, null);
+        }
+
+        // day of week
+        String dow = fields[5];
+        this.anyDayOfWeek = "?".equals(dow);
+
+        long dowBits = 0;
+        long lastBits = 0;
+        long nthBits = 0;
+        if (!this.anyDayOfWeek) {
+            String[] items = dow.split(",");
+            if (items.length > 1 && (dow.indexOf('#') >= 0 || dow.matches(".*[0-9A-Z]L.*"))) {
+                // Quartz applies the qualifier to the whole list, don't try and mimic that
+                throw new IllegalArgumentException("Unsupported CRON day of week: " + dow);
+            }
+
+            for (String item : items) {
+                int hash = item.indexOf('#');
+                if (hash > 0) {
+                    int day = parseValue(item.substring(0, hash), 1, 7, dayNames);
+                    int nth = parseNumber(item.substring(hash + 1), 1, 5);
+                    nthBits |= 1L << (day * 8 + nth);
+                } else if (item.length() > 1 && item.endsWith("L")) {
+                    lastBits |= 1L << parseValue(item.substring(0, item.length() - 1), 1, 7, dayNames);
+                } else {
+                    dowBits |= parseField(item, 1, 7, dayNames);
+                }
+            }
+        }
+        this.daysOfWeek = dowBits;
+        this.lastDaysOfWeek = lastBits;
+        this.nthDaysOfWeek = nthBits;
+
+        if (this.anyDayOfMonth == this.anyDayOfWeek) {
+            throw new IllegalArgumentException("Exactly one of the day of month and day of week must be '?': "
+                    + expression);
+        }
+
+        // year
+        if (fields.length == 7 && !"*".equals(fields[6])) {
+            this.years = new long[(maxYear - minYear) / 64 + 1];
+            for (String item : fields[6].split(",")) {
+                for (int year = minYear; year <= maxYear; year++) {
+                    if (matchesItem(item, year, minYear, maxYear, null)) {
+                        this.years[(year - minYear) >>> 6] |= 1L << (year - minYear);
+                    }
+                }
+            }
+        } else {
+            this.years = null;
+        }
+    }
+
+    /**
+     * 
+     * @param afterMillis
+     * @return The first fire time strictly after the given time or
+     *         {@link #NONE} if the expression never fires again
+     */
+    public long nextFireAfter(long afterMillis) {
+        final long version = this.memoVersion.get();
+        if ((version & 1) == 0) {
+            final long after = this.memoAfter;
+            final long next = this.memoNext;
+
+            // keep the memo reads ahead of the re-check whatever the fields are declared as
+            Fences.loadFence();
+            if (afterMillis >= after && afterMillis < next && this.memoVersion.get() == version) {
+                return next;
+            }
+        }
+
+        final long next = this.computeNextFireAfter(afterMillis);
+
+        // only one thread updates the memo, anyone else just skips it
+        if (next != NONE && (version & 1) == 0 && this.memoVersion.compareAndSet(version, version + 1)) {
+            this.memoAfter = afterMillis;
+            this.memoNext = next;
+            this.memoVersion.set(version + 2);
+        }
+
+        return next;
+    }
+
+    /**
+     * 
+     * @param afterMillis
+     * @return
+     */
+    private long computeNextFireAfter(long afterMillis) {
+        // start at the next whole second
+        final long start = Math.floorDiv(afterMillis, 1000) * 1000 + 1000;
+        long localSec = Math.floorDiv(start + this.timeZone.getOffset(start), 1000);
+
+        while (true) {
+            final long candidate = this.nextLocal(localSec);
+            if (candidate == NONE) {
+                return NONE;
+            }
+
+            final long utc = this.toUtc(candidate * 1000);
+
+            // skip local times that don't exist (the clocks went forward) and
+            // repeats of ones we've passed (the clocks went back)
+            if (utc > afterMillis && utc + this.timeZone.getOffset(utc) == candidate * 1000) {
+                return utc;
+            }
+
+            localSec = candidate + 1;
+        }
+    }
+
+    /**
+     * 
+     * @param fromLocalSec
+     * @return The first matching local time (in seconds) at or after the given
+     *         one
+     */
+    private long nextLocal(long fromLocalSec) {
+        final long fromDay = Math.floorDiv(fromLocalSec, 86400);
+        final int secOfDay = Math.toIntExact(Math.floorMod(fromLocalSec, 86400L));
+
+        // civil date from the epoch day (H. Hinnant's algorithm)
+        long z = fromDay + 719468;
+        long era = Math.floorDiv(z, 146097);
+        int doe = (int) (z - era * 146097);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+
+        int d = doy - (153 * mp + 2) / 5 + 1;
+        int m = mp < 10 ? mp + 3 : mp - 9;
+        int y = (int) (yoe + era * 400) + (m <= 2 ? 1 : 0);
+
+        int h = secOfDay / 3600;
+        int mi = (secOfDay / 60) % 60;
+        int s = secOfDay % 60;
+
+        while (true) {
+            if (y > maxYear) {
+                return NONE;
+            }
+
+            if (!this.matchesYear(y)) {
+                y++;
+                m = 1;
+                d = 1;
+                h = mi = s = 0;
+                continue;
+            }
+
+            int nm = nextBit(this.months, m, 12);
+            if (nm < 0) {
+                y++;
+                m = 1;
+                d = 1;
+                h = mi = s = 0;
+                continue;
+            }
+            if (nm != m) {
+                m = nm;
+                d = 1;
+                h = mi = s = 0;
+            }
+
+            final int dim = daysInMonth(y, m);
+            if (d > dim) {
+                m++;
+                d = 1;
+                h = mi = s = 0;
+                continue;
+            }
+
+            if (!this.matchesDay(y, m, d, dim)) {
+                d++;
+                h = mi = s = 0;
+                continue;
+            }
+
+            int nh = nextBit(this.hours, h, 23);
+            if (nh < 0) {
+                d++;
+                h = mi = s = 0;
+                continue;
+            }
+            if (nh != h) {
+                h = nh;
+                mi = s = 0;
+            }
+
+            int nmi = nextBit(this.minutes, mi, 59);
+            if (nmi < 0) {
+                h++;
+                mi = s = 0;
+                continue;
+            }
+            if (nmi != mi) {
+                mi = nmi;
+                s = 0;
+            }
+
+            int ns = nextBit(this.seconds, s, 59);
+            if (ns < 0) {
+                mi++;
+                s = 0;
+                continue;
+            }
+
+            return daysFromCivil(y, m, d) * 86400 + h * 3600 + mi * 60 + ns;
+        }
+    }
+
+    /**
+     * 
+     * @param y
+     * @param m
+     * @param d
+     * @param dim The number of days in the month
+     * @return
+     */
+    private boolean matchesDay(int y, int m, int d, int dim) {
+        if (!this.anyDayOfMonth) {
+            if (this.lastDayOffset >= 0) {
+                return d == Math.max(1, dim - this.lastDayOffset);
+            }
+            return (this.daysOfMonth & (1L << d)) != 0;
+        }
+
+        // 1 = Sunday, 1970-01-01 was a Thursday
+        final int dow = Math.toIntExact(Math.floorMod(daysFromCivil(y, m, d) + 4, 7L)) + 1;
+
+        return (this.daysOfWeek & (1L << dow)) != 0
+                || ((this.lastDaysOfWeek & (1L << dow)) != 0 && d > dim - 7)
+                || (this.nthDaysOfWeek & (1L << (dow * 8 + (d - 1) / 7 + 1))) != 0;
+    }
+
+    /**
+     * 
+     * @param y
+     * @return
+     */
+    private boolean matchesYear(int y) {
+        if (this.years == null) {
+            return true;
+        }
+        if (y < minYear) {
+            return false;
+        }
+
+        int bit = y - minYear;
+        return (this.years[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    /**
+     * 
+     * @param localMillis
+     * @return
+     */
+    private long toUtc(long localMillis) {
+        final int offset = this.timeZone.getOffset(localMillis - this.timeZone.getRawOffset());
+        final long utc = localMillis - offset;
+
+        final int actual = this.timeZone.getOffset(utc);
+        return actual == offset ? utc : localMillis - actual;
+    }
+
+    /**
+     * 
+     * @return The normalized expression
+     */
+    public String getExpression() {
+        return this.expression;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return this.expression;
+    }
+
+    /**
+     * 
+     * @param expression
+     * @return The expression with the whitespace collapsed and upper cased
+     */
+    static String normalize(String expression) {
+        if (expression == null) {
+            throw new IllegalArgumentException("Null CRON expression");
+        }
+
+        return expression.trim().replaceAll("\\s+", " ").toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * 
+     * @param field
+     * @param min
+     * @param max
+     * @param names
+     * @return The field's bitset
+     */
+    private static long parseField(String field, int min, int max, String[] names) {
+        if (field.indexOf('W') >= 0 || field.indexOf('L') >= 0 || field.indexOf('#') >= 0) {
+            if (names == null || !containsName(field, names)) {
+                throw new IllegalArgumentException("Unsupported CRON field: " + field);
+            }
+        }
+
+        long bits = 0;
+        for (String item : field.split(",")) {
+            for (int value = min; value <= max; value++) {
+                if (matchesItem(item, value, min, max, names)) {
+                    bits |= 1L << value;
+                }
+            }
+        }
+
+        if (bits == 0) {
+            throw new IllegalArgumentException("CRON field matches nothing: " + field);
+        }
+
+        return bits;
+    }
+
+    /**
+     * 
+     * @param item A single list item (e.g. <code>5</code>, <code>1-5</code>,
+     *            <code>*&#47;15</code>, <code>FRI-MON</code>)
+     * @param value
+     * @param min
+     * @param max
+     * @param names
+     * @return Whether the item matches the given value
+     */
+    private static boolean matchesItem(String item, int value, int min, int max, String[] names) {
+        int step = 1;
+
+        int slash = item.indexOf('/');
+        if (slash >= 0) {
+            step = parseNumber(item.substring(slash + 1), 1, max - min + 1);
+            item = item.substring(0, slash);
+        }
+
+        int start;
+        int end;
+        if (item.isEmpty() || "*".equals(item) || "?".equals(item)) {
+            start = min;
+            end = max;
+        } else {
+            int dash = item.indexOf('-');
+            if (dash > 0) {
+                start = parseValue(item.substring(0, dash), min, max, names);
+                end = parseValue(item.substring(dash + 1), min, max, names);
+            } else {
+                start = parseValue(item, min, max, names);
+                end = slash >= 0 ? max : start;
+            }
+        }
+
+        // ranges can wrap (e.g. 22-2 hours or FRI-MON)
+        int offset;
+        if (start <= end) {
+            if (value < start || value > end) {
+                return false;
+            }
+            offset = value - start;
+        } else {
+            if (value >= start) {
+                offset = value - start;
+            } else if (value <= end) {
+                offset = max - start + 1 + value - min;
+            } else {
+                return false;
+            }
+        }
+
+        return offset % step == 0;
+    }
+
+    /**
+     * 
+     * @param str
+     * @param min
+     * @param max
+     * @param names
+     * @return
+     */
+    private static int parseValue(String str, int min, int max, String[] names) {
+        if (names != null) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(str)) {
+                    return min + i;
+                }
+            }
+        }
+
+        return parseNumber(str, min, max);
+    }
+
+    /**
+     * 
+     * @param str
+     * @param min
+     * @param max
+     * @return
+     */
+    private static int parseNumber(String str, int min, int max) {
+        final int value;
+        try {
+            value = Integer.parseInt(str);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid CRON value: " + str);
+        }
+
+        if (value < min || value > max) {
+            throw new IllegalArgumentException("CRON value must be between " + min + " and " + max + ": " + str);
+        }
+
+        return value;
+    }
+
+    /**
+     * 
+     * @param lastDay e.g. <code>L-3</code>
+     * @return
+     */
+    private static int parseOffset(String lastDay) {
+        if (!lastDay.startsWith("L-")) {
+            throw new IllegalArgumentException("Unsupported CRON day of month: " + lastDay);
+        }
+
+        return parseNumber(lastDay.substring(2), 0, 30);
+    }
+
+    /**
+     * 
+     * @param field
+     * @param names
+     * @return Whether the field's letters are only from names
+     */
+    private static boolean containsName(String field, String[] names) {
+        String stripped = field;
+        for (String name : names) {
+            stripped = stripped.replace(name, "");
+        }
+
+        return stripped.indexOf('W') < 0 && stripped.indexOf('L') < 0 && stripped.indexOf('#') < 0;
+    }
+
+    /**
+     * 
+     * @param bits
+     * @param from
+     * @param max
+     * @return The first set bit at or after from (and at most max), -1 if none
+     */
+    private static int nextBit(long bits, int from, int max) {
+        if (from > max) {
+            return -1;
+        }
+
+        final long remaining = bits & (-1L << from);
+        return remaining == 0 ? -1 : Long.numberOfTrailingZeros(remaining);
+    }
+
+    /**
+     * 
+     * @param y
+     * @param m
+     * @return
+     */
+    private static int daysInMonth(int y, int m) {
+        switch (m) {
+        case 2:
+            return (y % 4 == 0 && (y % 100 != 0 || y % 400 == 0)) ? 29 : 28;
+        case 4:
+        case 6:
+        case 9:
+        case 11:
+            return 30;
+        default:
+            return 31;
+        }
+    }
+
+    /**
+     * 
+     * @param y
+     * @param m
+     * @param d
+     * @return The number of days since 1970-01-01
+     */
+    private static long daysFromCivil(int y, int m, int d) {
+        y -= m <= 2 ? 1 : 0;
+
+        final long era = Math.floorDiv(y, 400);
+        final int yoe = (int) (y - era * 400);
+        final int doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+        final int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+
+        return era * 146097 + doe - 719468;
+    }
+}
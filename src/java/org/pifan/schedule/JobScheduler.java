@@ -25,29 +25,59 @@ import static org.quartz.JobKey.jobKey;
 import static org.quartz.SimpleScheduleBuilder.simpleSchedule;
 import static org.quartz.TriggerBuilder.newTrigger;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
-
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.function.LongUnaryOperator;
+
+import org.pifan.util.Clock;
 import org.pifan.util.PropertiesUtils;
 import org.pifan.util.TimeUtil;
 import org.quartz.CronTrigger;
-import org.quartz.JobDataMap;
 import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
 import org.quartz.JobKey;
 import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
 import org.quartz.SchedulerFactory;
 import org.quartz.SimpleTrigger;
+import org.quartz.Trigger;
+import org.quartz.Trigger.CompletedExecutionInstruction;
+import org.quartz.UnableToInterruptJobException;
 import org.quartz.impl.StdSchedulerFactory;
+import org.quartz.impl.matchers.GroupMatcher;
+import org.quartz.listeners.TriggerListenerSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * A job scheduler.
+ * <p>
+ * Workers registered with the same CRON expression share a single trigger and
+ * run as one batch, in registration order, on one thread (unless
+ * <code>poller.FanSchedule.batchCoFiring</code> is false).
+ * <p>
+ * Every worker's runs, fire time lag and misfires are recorded in its
+ * {@link WorkerMetrics}.
+ * <p>
+ * Quartz uses the same misfire threshold as the workers
+ * (<code>poller.FanSchedule.misfireThresholdMs</code>) and fires a misfired
+ * trigger once straight away, however many fire times were missed; the
+ * worker's {@link MisfirePolicy} then decides whether that fire runs it.
+ * Note that Quartz restarts a misfired fixed rate trigger's interval from the
+ * catch-up fire.
  *
  * @author Dave Irwin (dhirwinjr@gmail.com)
  */
-public class JobScheduler {
+public class JobScheduler implements WorkerScheduler {
     /**
      * 
      */
@@ -62,9 +92,7 @@ public class JobScheduler {
     /**
      * 
      */
-    public static final String POLLER_NAME = "pollerName";
-    public static final String WORKER_NAME = "workerName";
-    public static final String WORKER = "worker";
+    public static final String DESCRIPTOR = "descriptor";
 
     /**
      * Whether running jobs should be interrupted when the job is unregistered.
@@ -82,13 +110,66 @@ public class JobScheduler {
      */
     private String pollerName = "FanSchedule";
 
+    /**
+     * Quartz fires triggers on the wall clock; this is only what start times
+     * and lag are measured against.
+     */
+    private final Clock clock;
+
+    /**
+     * In the virtual execution mode the Quartz threads only hand each fired
+     * worker off to this executor (null to run workers on the Quartz threads).
+     */
+    private ExecutorService workerExecutor;
+
+    /**
+     * The jobs currently handed off, by worker name, so they can still be
+     * interrupted.
+     */
+    private final ConcurrentMap<String, Set<PifanJob>> handedOff = new ConcurrentHashMap<>();
+
+    /**
+     * Whether workers sharing a CRON expression are run as a single batch off
+     * a single trigger rather than a trigger (and thread handoff) each.
+     */
+    private boolean batchCoFiring = true;
+
+    /**
+     * The CRON worker batches by normalized expression and by worker name
+     * (guarded by batchLock).
+     */
+    private final Object batchLock = new Object();
+    private final Map<String, WorkerBatch> batches = new HashMap<>();
+    private final Map<String, WorkerBatch> batchByWorker = new HashMap<>();
+
+    /**
+     * The registered workers by name (including batched workers).
+     */
+    private final ConcurrentMap<String, WorkerDescriptor> workers = new ConcurrentHashMap<>();
+
+    /**
+     * 
+     */
+    private final MisfirePolicies misfirePolicies;
+
     /**
      * 
      * @param properties
      */
     public JobScheduler(Properties properties) {
+        this(properties, Clock.SYSTEM);
+    }
+
+    /**
+     * 
+     * @param properties
+     * @param clock
+     */
+    public JobScheduler(Properties properties, Clock clock) {
         super();
 
+        this.clock = clock;
+
         try {
             /*
              * Initialize the properties.
@@ -109,13 +190,30 @@ public class JobScheduler {
             schedulerProps.setProperty("org.quartz.threadPool.class", "org.quartz.simpl.SimpleThreadPool");
             schedulerProps.setProperty("org.quartz.threadPool.threadPriority", String.valueOf("5"));
 
+            this.misfirePolicies = new MisfirePolicies(properties, this.pollerName);
+            schedulerProps.setProperty("org.quartz.jobStore.misfireThreshold",
+                    String.valueOf(this.misfirePolicies.getMisfireThresholdInMs()));
+
+            this.batchCoFiring = PropertiesUtils.getBooleanValue(properties, "poller." + this.pollerName
+                    + ".batchCoFiring", true);
+
+            if (WorkerExecutors.isVirtualMode(properties, this.pollerName)) {
+                this.workerExecutor = WorkerExecutors.newVirtualExecutor(properties, this.pollerName);
+            }
+
             this.sf = new StdSchedulerFactory(schedulerProps);
             this.sched = this.sf.getScheduler();
+            this.sched.getListenerManager().addTriggerListener(new WorkerTriggerListener(),
+                    GroupMatcher.triggerGroupEquals(this.pollerName));
             this.sched.start();
 
             logger.info("Quartz poller [pollerName: " + this.pollerName + "] initialized");
             logger.info("  number of threads:         {}", this.numThreads);
             logger.info("  interruptOnUnregistration: {}", this.interruptOnUnregistration);
+            logger.info("  virtual execution:         {}", this.workerExecutor != null);
+            logger.info("  batch co-firing workers:   {}", this.batchCoFiring);
+            logger.info("  misfire threshold:         {} ms", this.misfirePolicies.getMisfireThresholdInMs());
+            logger.info("  default misfire policy:    {}", this.misfirePolicies.getDefaultPolicy());
         } catch (SchedulerException e) {
             logger.error(
                     "Scheduler exception while initializing Quartz poller [pollerName: " + this.pollerName + "]: " + e,
@@ -133,6 +231,7 @@ public class JobScheduler {
      * @param cronExp The CRON expression
      * @param workerName
      */
+    @Override
     public final void registerWorker(Runnable worker, String cronExp, String workerName) {
         logger.debug("Registering worker with CRON expression:");
         logger.debug("  Worker name:     {}", workerName);
@@ -140,27 +239,112 @@ public class JobScheduler {
 
         this.unregisterWorker(workerName, "registering worker using CRON expression");
 
+        if (this.batchCoFiring) {
+            this.registerBatchedWorker(worker, cronExp, workerName);
+            return;
+        }
+
         try {
             // create the job detail
             JobDetail jobDetail = newJob(PifanJob.class).withIdentity(workerName, this.pollerName).build();
 
             CronTrigger trigger = newTrigger().withDescription(this.pollerName + "--" + workerName)
-                    .withIdentity(workerName, this.pollerName).withSchedule(cronSchedule(cronExp)).build();
+                    .withIdentity(workerName, this.pollerName)
+                    .withSchedule(cronSchedule(cronExp).withMisfireHandlingInstructionFireAndProceed()).build();
 
-            // put a reference to the actual executable worker code
-            JobDataMap dataMap = jobDetail.getJobDataMap();
-            dataMap.put(POLLER_NAME, this.pollerName);
-            dataMap.put(WORKER, worker);
-            dataMap.put(WORKER_NAME, workerName);
+            // bind the job to the worker's descriptor
+            WorkerDescriptor descriptor = this.newDescriptor(workerName, worker, MisfirePolicies.cron(cronExp));
+            jobDetail.getJobDataMap().put(DESCRIPTOR, descriptor);
 
             // schedule the job
-            this.sched.scheduleJob(jobDetail, trigger);
+            descriptor.initNextFireTime(this.sched.scheduleJob(jobDetail, trigger).getTime());
         } catch (SchedulerException e) {
+            this.workers.remove(workerName);
+
             logger.error("Error registering worker [pollerName: " + this.pollerName + ", workerName: " + workerName
                     + "]: " + e, e);
         }
     }
 
+    /**
+     * Add the worker to the batch for its CRON expression, scheduling the
+     * batch if it's the first worker with that expression.
+     * 
+     * @param worker
+     * @param cronExp
+     * @param workerName
+     */
+    private void registerBatchedWorker(Runnable worker, String cronExp, String workerName) {
+        final String key = CompiledCron.normalize(cronExp);
+
+        synchronized (this.batchLock) {
+            WorkerBatch batch = this.batches.get(key);
+
+            if (batch == null) {
+                batch = new WorkerBatch("cron[" + key + "]", this.pollerName);
+
+                try {
+                    // create the job detail
+                    JobDetail jobDetail = newJob(PifanJob.class).withIdentity(batch.getName(), this.pollerName)
+                            .build();
+
+                    CronTrigger trigger = newTrigger().withDescription(this.pollerName + "--" + batch.getName())
+                            .withIdentity(batch.getName(), this.pollerName)
+                            .withSchedule(cronSchedule(cronExp).withMisfireHandlingInstructionFireAndProceed())
+                            .build();
+
+                    // the batch is the worker
+                    WorkerDescriptor descriptor = new WorkerDescriptor(batch.getName(), this.pollerName, this, batch);
+                    jobDetail.getJobDataMap().put(DESCRIPTOR, descriptor);
+
+                    // schedule the job
+                    descriptor.initNextFireTime(this.sched.scheduleJob(jobDetail, trigger).getTime());
+                } catch (SchedulerException e) {
+                    logger.error("Error registering worker [pollerName: " + this.pollerName + ", workerName: "
+                            + workerName + "]: " + e, e);
+                    return;
+                }
+
+                this.batches.put(key, batch);
+            }
+
+            batch.add(this.newDescriptor(workerName, worker, MisfirePolicies.cron(cronExp)));
+            this.batchByWorker.put(workerName, batch);
+
+            logger.debug("Worker added to CRON batch [name: {}, batch: {}]", workerName, batch.getName());
+        }
+    }
+
+    /**
+     * 
+     * @param workerName
+     * @return Whether the worker was part of a batch
+     */
+    private boolean unregisterBatchedWorker(String workerName) {
+        synchronized (this.batchLock) {
+            WorkerBatch batch = this.batchByWorker.remove(workerName);
+            if (batch == null) {
+                return false;
+            }
+
+            batch.remove(workerName, this.interruptOnUnregistration);
+
+            // the last worker is gone, stop firing the batch
+            if (batch.isEmpty()) {
+                this.batches.values().remove(batch);
+
+                try {
+                    this.sched.deleteJob(jobKey(batch.getName(), this.pollerName));
+                } catch (SchedulerException e) {
+                    logger.error("Error unregistering worker batch [pollerName: " + this.pollerName + ", name: "
+                            + batch.getName() + "]: " + e, e);
+                }
+            }
+
+            return true;
+        }
+    }
+
     /**
      * 
      * @param worker
@@ -168,6 +352,7 @@ public class JobScheduler {
      * @param delayInMs
      * @param workerName
      */
+    @Override
     public void registerWorker(Runnable worker, long intervalInMs, long delayInMs, String workerName) {
         this.registerWorkerAtFixedRate(worker, intervalInMs, delayInMs, workerName);
     }
@@ -179,6 +364,7 @@ public class JobScheduler {
      * @param delayInMs
      * @param workerName
      */
+    @Override
     public void registerWorkerAtFixedRate(Runnable worker, long intervalInMs, long delayInMs, String workerName) {
         logger.debug("Registering worker at fixed rate:");
         logger.debug("  Worker name:       {}", workerName);
@@ -191,22 +377,24 @@ public class JobScheduler {
             // create the job detail
             JobDetail jobDetail = newJob(PifanJob.class).withIdentity(workerName, this.pollerName).build();
 
-            Date startTime = new Date(System.currentTimeMillis() + delayInMs);
+            Date startTime = new Date(this.clock.currentTimeMillis() + delayInMs);
 
             // create the trigger
             SimpleTrigger trigger = newTrigger().withDescription(this.pollerName + "--" + workerName)
                     .withIdentity(workerName, this.pollerName).startAt(startTime)
-                    .withSchedule(simpleSchedule().withIntervalInMilliseconds(intervalInMs).repeatForever()).build();
+                    .withSchedule(simpleSchedule().withIntervalInMilliseconds(intervalInMs).repeatForever()
+                            .withMisfireHandlingInstructionNowWithExistingCount()).build();
 
-            // put a reference to the actual executable worker code
-            JobDataMap dataMap = jobDetail.getJobDataMap();
-            dataMap.put(POLLER_NAME, this.pollerName);
-            dataMap.put(WORKER, worker);
-            dataMap.put(WORKER_NAME, workerName);
+            // bind the job to the worker's descriptor
+            WorkerDescriptor descriptor = this.newDescriptor(workerName, worker,
+                    MisfirePolicies.fixedRate(startTime.getTime(), intervalInMs));
+            jobDetail.getJobDataMap().put(DESCRIPTOR, descriptor);
 
             // schedule the job
-            this.sched.scheduleJob(jobDetail, trigger);
+            descriptor.initNextFireTime(this.sched.scheduleJob(jobDetail, trigger).getTime());
         } catch (SchedulerException e) {
+            this.workers.remove(workerName);
+
             logger.error("Error registering worker [pollerName: " + this.pollerName + ", workerName: " + workerName
                     + "]: " + e, e);
         }
@@ -218,6 +406,7 @@ public class JobScheduler {
      * @param delay
      * @param workerName
      */
+    @Override
     public void registerWorkerOnce(Runnable worker, long delay, String workerName) {
         logger.debug("Registering worker once:");
         logger.debug("  Worker name:  {}", workerName);
@@ -229,20 +418,22 @@ public class JobScheduler {
             // create the job detail
             JobDetail jobDetail = newJob(PifanJob.class).withIdentity(workerName, this.pollerName).build();
 
-            Date startTime = new Date(System.currentTimeMillis() + delay);
+            Date startTime = new Date(this.clock.currentTimeMillis() + delay);
 
-            SimpleTrigger trigger = (SimpleTrigger) newTrigger().withDescription(this.pollerName + "--" + workerName)
-                    .withIdentity(workerName, this.pollerName).startAt(startTime).build();
+            SimpleTrigger trigger = newTrigger().withDescription(this.pollerName + "--" + workerName)
+                    .withIdentity(workerName, this.pollerName).startAt(startTime)
+                    .withSchedule(simpleSchedule().withMisfireHandlingInstructionFireNow()).build();
 
-            // put a reference to the actual executable worker code
-            JobDataMap dataMap = jobDetail.getJobDataMap();
-            dataMap.put(POLLER_NAME, this.pollerName);
-            dataMap.put(WORKER, worker);
-            dataMap.put(WORKER_NAME, workerName);
+            // bind the job to the worker's descriptor
+            WorkerDescriptor descriptor = this.newDescriptor(workerName, worker,
+                    MisfirePolicies.once(startTime.getTime()));
+            jobDetail.getJobDataMap().put(DESCRIPTOR, descriptor);
 
             // schedule the job
-            this.sched.scheduleJob(jobDetail, trigger);
+            descriptor.initNextFireTime(this.sched.scheduleJob(jobDetail, trigger).getTime());
         } catch (SchedulerException e) {
+            this.workers.remove(workerName);
+
             logger.error(
                     "Error registering worker [pollerName: " + this.pollerName + ", name: " + workerName + "]: " + e,
                     e);
@@ -253,10 +444,252 @@ public class JobScheduler {
      * 
      * @param workerName
      */
+    @Override
     public final void unregisterWorker(String workerName) {
         this.unregisterWorker(workerName, "Manually unregistered");
     }
 
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#getWorkerMetrics(java.lang.String)
+     */
+    @Override
+    public WorkerMetrics getWorkerMetrics(String workerName) {
+        WorkerDescriptor descriptor = this.workers.get(workerName);
+        return descriptor == null ? null : descriptor.getMetrics();
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#getWorker(java.lang.String)
+     */
+    @Override
+    public WorkerDescriptor getWorker(String workerName) {
+        return this.workers.get(workerName);
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#getWorkers()
+     */
+    @Override
+    public Collection<WorkerDescriptor> getWorkers() {
+        return new ArrayList<>(this.workers.values());
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#pauseWorker(java.lang.String)
+     */
+    @Override
+    public boolean pauseWorker(String workerName) {
+        return this.setPaused(workerName, true);
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#resumeWorker(java.lang.String)
+     */
+    @Override
+    public boolean resumeWorker(String workerName) {
+        return this.setPaused(workerName, false);
+    }
+
+    /**
+     * 
+     * @param workerName
+     * @param paused
+     * @return Whether there's such a worker registered
+     */
+    private boolean setPaused(String workerName, boolean paused) {
+        WorkerDescriptor descriptor = this.workers.get(workerName);
+        if (descriptor == null) {
+            return false;
+        }
+
+        logger.debug("Worker " + (paused ? "paused" : "resumed") + " [pollerName: {}, name: {}]", this.pollerName,
+                workerName);
+
+        descriptor.setPaused(paused);
+        return true;
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#setMisfirePolicy(java.lang.String,
+     *      org.pifan.schedule.MisfirePolicy, java.lang.String)
+     */
+    @Override
+    public boolean setMisfirePolicy(String workerName, MisfirePolicy policy, String group) {
+        this.misfirePolicies.set(workerName, policy, group);
+
+        WorkerDescriptor descriptor = this.workers.get(workerName);
+        if (descriptor == null) {
+            return false;
+        }
+
+        this.misfirePolicies.applyPolicy(descriptor);
+        return true;
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#getClock()
+     */
+    @Override
+    public Clock getClock() {
+        return this.clock;
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        logger.debug("Shutting down Quartz poller [pollerName: {}]", this.pollerName);
+
+        try {
+            this.sched.shutdown(false);
+        } catch (SchedulerException e) {
+            logger.error("Error shutting down Quartz poller [pollerName: " + this.pollerName + "]: " + e, e);
+        }
+
+        if (this.workerExecutor != null) {
+            this.workerExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Create the worker's descriptor and track it by name.
+     * 
+     * @param workerName
+     * @param worker
+     * @param schedule
+     * @return
+     */
+    private WorkerDescriptor newDescriptor(String workerName, Runnable worker, LongUnaryOperator schedule) {
+        WorkerDescriptor descriptor = new WorkerDescriptor(workerName, this.pollerName, this, worker);
+        this.misfirePolicies.apply(descriptor, schedule);
+        this.workers.put(workerName, descriptor);
+        return descriptor;
+    }
+
+    /**
+     * Hand the fire time Quartz missed to the descriptor the trigger fires,
+     * ahead of the catch-up fire; the misfire itself is recorded (and the
+     * worker's policy applied) when that runs.
+     * 
+     * @param trigger The trigger as it was before Quartz applied its misfire
+     *            instruction
+     */
+    private void misfired(Trigger trigger) {
+        final String triggerName = trigger.getKey().getName();
+        final Date missed = trigger.getNextFireTime();
+
+        logger.debug("Worker misfired [pollerName: {}, name: {}, fireTime: {}]", this.pollerName, triggerName,
+                missed);
+
+        if (missed == null) {
+            return;
+        }
+
+        try {
+            JobDetail jobDetail = this.sched.getJobDetail(trigger.getJobKey());
+            if (jobDetail != null) {
+                ((WorkerDescriptor) jobDetail.getJobDataMap().get(DESCRIPTOR)).setMissedFireTime(missed.getTime());
+            }
+        } catch (SchedulerException e) {
+            logger.error("Error recording misfire [pollerName: " + this.pollerName + ", name: " + triggerName
+                    + "]: " + e, e);
+        }
+    }
+
+    /**
+     * Tracks misfires and drops workers whose trigger has fired for the last
+     * time.
+     */
+    private final class WorkerTriggerListener extends TriggerListenerSupport {
+        /**
+         * @see org.quartz.TriggerListener#getName()
+         */
+        @Override
+        public String getName() {
+            return JobScheduler.this.pollerName + "-workers";
+        }
+
+        /**
+         * @see org.quartz.listeners.TriggerListenerSupport#triggerMisfired(org.quartz.Trigger)
+         */
+        @Override
+        public void triggerMisfired(Trigger trigger) {
+            JobScheduler.this.misfired(trigger);
+        }
+
+        /**
+         * @see org.quartz.listeners.TriggerListenerSupport#triggerComplete(org.quartz.Trigger,
+         *      org.quartz.JobExecutionContext,
+         *      org.quartz.Trigger.CompletedExecutionInstruction)
+         */
+        @Override
+        public void triggerComplete(Trigger trigger, JobExecutionContext context,
+                CompletedExecutionInstruction triggerInstructionCode) {
+            if (trigger.getNextFireTime() == null) {
+                JobScheduler.this.workers.remove(trigger.getKey().getName(),
+                        context.getJobDetail().getJobDataMap().get(DESCRIPTOR));
+            }
+        }
+    }
+
+    /**
+     * 
+     * @return The executor fired workers are handed off to (null if they run
+     *         on the Quartz threads)
+     */
+    final Executor getWorkerExecutor() {
+        return this.workerExecutor;
+    }
+
+    /**
+     * 
+     * @param workerName
+     * @param job
+     */
+    final void handOff(String workerName, PifanJob job) {
+        this.handedOff.compute(workerName, (k, jobs) -> {
+            Set<PifanJob> ret = jobs != null ? jobs : ConcurrentHashMap.newKeySet();
+            ret.add(job);
+            return ret;
+        });
+    }
+
+    /**
+     * 
+     * @param workerName
+     * @param job
+     */
+    final void handOffComplete(String workerName, PifanJob job) {
+        // drop the worker's set with its last job so renamed or removed workers don't leave one behind
+        this.handedOff.computeIfPresent(workerName, (k, jobs) -> {
+            jobs.remove(job);
+            return jobs.isEmpty() ? null : jobs;
+        });
+    }
+
+    /**
+     * 
+     * @param workerName
+     * @return Whether any handed off jobs were interrupted
+     */
+    private boolean interruptHandedOff(String workerName) {
+        Set<PifanJob> jobs = this.handedOff.remove(workerName);
+        if (jobs == null || jobs.isEmpty()) {
+            return false;
+        }
+
+        for (PifanJob job : jobs) {
+            try {
+                job.interrupt();
+            } catch (UnableToInterruptJobException e) {
+                logger.warn("Unable to interrupt worker [name: " + workerName + "]: " + e);
+            }
+        }
+
+        return true;
+    }
+
     /**
      * 
      * @param workerName
@@ -267,16 +700,25 @@ public class JobScheduler {
         logger.debug("  Worker name:           {}", workerName);
         logger.debug("  Unregistration reason: {}", reason);
 
+        this.workers.remove(workerName);
+
+        if (this.unregisterBatchedWorker(workerName)) {
+            logger.debug("Successfully unregistered worker [name: {}]", workerName);
+            return;
+        }
+
         try {
             JobKey jobKey = jobKey(workerName, this.pollerName);
 
             // try and interrupt an already running worker
             if (this.interruptOnUnregistration) {
-                if (this.sched.interrupt(jobKey)) {
+                if (this.sched.interrupt(jobKey) | this.interruptHandedOff(workerName)) {
                     logger.debug("Successfully interrupted worker");
                 } else {
                     logger.warn("Unable to successfully interrupt worker");
                 }
+            } else {
+                this.handedOff.remove(workerName);
             }
 
             // now actually delete the worker
@@ -0,0 +1,215 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.schedule;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongUnaryOperator;
+
+import org.pifan.util.PropertiesUtils;
+import org.quartz.CronExpression;
+
+/**
+ * The misfire threshold and the per-worker {@link MisfirePolicy} settings for
+ * a scheduler.
+ * <p>
+ * A worker's policy and misfire group come from (in order) the last
+ * {@link WorkerScheduler#setMisfirePolicy(String, MisfirePolicy, String)}
+ * call for it, the <code>poller.&lt;pollerName&gt;.misfirePolicy.&lt;workerName&gt;</code>
+ * and <code>poller.&lt;pollerName&gt;.misfireGroup.&lt;workerName&gt;</code>
+ * properties or the <code>poller.&lt;pollerName&gt;.misfirePolicy</code>
+ * property (with no group).
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+final class MisfirePolicies {
+    /**
+     * 
+     */
+    private static final long defaultMisfireThresholdInMs = 60000;
+
+    /**
+     * A worker's explicitly set policy and group.
+     */
+    private static final class Setting {
+        private final MisfirePolicy policy;
+        private final String group;
+
+        private Setting(MisfirePolicy policy, String group) {
+            this.policy = policy;
+            this.group = group;
+        }
+    }
+
+    /**
+     * 
+     */
+    private final Properties properties;
+    private final String prefix;
+    private final long misfireThresholdInMs;
+    private final MisfirePolicy defaultPolicy;
+    private final ConcurrentMap<String, Setting> settings = new ConcurrentHashMap<>();
+
+    /**
+     * 
+     * @param properties
+     * @param pollerName
+     */
+    MisfirePolicies(Properties properties, String pollerName) {
+        super();
+
+        this.properties = properties;
+        this.prefix = "poller." + pollerName + ".";
+        this.misfireThresholdInMs = PropertiesUtils.getLongValue(properties, this.prefix + "misfireThresholdMs",
+                defaultMisfireThresholdInMs);
+        this.defaultPolicy = MisfirePolicy.parse(PropertiesUtils.getStringValue(properties, this.prefix
+                + "misfirePolicy", MisfirePolicy.FIRE_ONCE_NOW.name()));
+
+        if (this.misfireThresholdInMs < 0) {
+            throw new IllegalArgumentException("Misfire threshold must be >= 0: " + this.misfireThresholdInMs);
+        }
+    }
+
+    /**
+     * Remember the worker's policy for whenever it's (re-)registered.
+     * 
+     * @param workerName
+     * @param policy The policy (null to go back to the configured one)
+     * @param group The misfire group (null for none)
+     */
+    void set(String workerName, MisfirePolicy policy, String group) {
+        if (policy == null) {
+            this.settings.remove(workerName);
+            return;
+        }
+
+        this.settings.put(workerName, new Setting(policy, group));
+    }
+
+    /**
+     * Apply the threshold and the worker's policy to a new descriptor.
+     * 
+     * @param descriptor
+     * @param schedule The worker's schedule (see {@link #cron(CompiledCron, CronExpression)})
+     */
+    void apply(WorkerDescriptor descriptor, LongUnaryOperator schedule) {
+        descriptor.setMisfireThreshold(this.misfireThresholdInMs);
+        descriptor.setSchedule(schedule);
+
+        this.applyPolicy(descriptor);
+    }
+
+    /**
+     * Apply the worker's current policy to its descriptor.
+     * 
+     * @param descriptor
+     */
+    void applyPolicy(WorkerDescriptor descriptor) {
+        final String workerName = descriptor.getName();
+
+        Setting setting = this.settings.get(workerName);
+        if (setting != null) {
+            descriptor.setMisfirePolicy(setting.policy, setting.group);
+            return;
+        }
+
+        String policy = PropertiesUtils.getStringValue(this.properties, this.prefix + "misfirePolicy." + workerName,
+                null);
+        String group = PropertiesUtils.getStringValue(this.properties, this.prefix + "misfireGroup." + workerName,
+                null);
+
+        descriptor.setMisfirePolicy(policy == null ? this.defaultPolicy : MisfirePolicy.parse(policy), group);
+    }
+
+    /**
+     * 
+     * @return
+     */
+    long getMisfireThresholdInMs() {
+        return this.misfireThresholdInMs;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    MisfirePolicy getDefaultPolicy() {
+        return this.defaultPolicy;
+    }
+
+    /**
+     * 
+     * @param cronExp
+     * @return The schedule for the CRON expression (null if it can't be
+     *         parsed)
+     */
+    static LongUnaryOperator cron(String cronExp) {
+        try {
+            return cron(CompiledCron.of(cronExp), null);
+        } catch (IllegalArgumentException e) {
+            try {
+                return cron(null, new CronExpression(cronExp));
+            } catch (ParseException pe) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 
+     * @param cron
+     * @param quartzCron Only used if there's no compiled form
+     * @return A schedule giving the first fire time strictly after a time (or
+     *         {@link WorkerDescriptor#NONE})
+     */
+    static LongUnaryOperator cron(CompiledCron cron, CronExpression quartzCron) {
+        if (cron != null) {
+            return cron::nextFireAfter;
+        }
+
+        return time -> {
+            Date next = quartzCron.getNextValidTimeAfter(new Date(time));
+            return next == null ? WorkerDescriptor.NONE : next.getTime();
+        };
+    }
+
+    /**
+     * 
+     * @param startTime
+     * @param intervalInMs
+     * @return
+     */
+    static LongUnaryOperator fixedRate(long startTime, long intervalInMs) {
+        return time -> time < startTime ? startTime : startTime + ((time - startTime) / intervalInMs + 1)
+                * intervalInMs;
+    }
+
+    /**
+     * 
+     * @param fireTime
+     * @return
+     */
+    static LongUnaryOperator once(long fireTime) {
+        return time -> time < fireTime ? fireTime : WorkerDescriptor.NONE;
+    }
+}
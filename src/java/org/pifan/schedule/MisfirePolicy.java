@@ -0,0 +1,66 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.schedule;
+
+/**
+ * What a worker does when it fires more than the scheduler's misfire
+ * threshold after its scheduled fire time (e.g. the PI stalled on an SD card
+ * write or was thermally throttled).
+ * <p>
+ * However many fire times were missed, every engine fires a stalled worker at
+ * most once when it resumes and then carries on with its normal schedule; the
+ * policy decides whether that catch-up fire actually runs the worker.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public enum MisfirePolicy {
+    /**
+     * Run the worker once, as soon as possible (the default).
+     */
+    FIRE_ONCE_NOW,
+
+    /**
+     * Don't run the worker until its next scheduled fire time.
+     */
+    SKIP_TO_NEXT,
+
+    /**
+     * Treat the workers in the same misfire group as setting the same state
+     * (e.g. "fanOn" and "fanOff") and only run the catch-up fire if no other
+     * worker in the group was due after it, so whichever worker should have
+     * fired last decides the state now. Without a group this is the same as
+     * {@link #FIRE_ONCE_NOW}.
+     */
+    COALESCE;
+
+    /**
+     * 
+     * @param value The policy name, case insensitive and with either dashes or
+     *            underscores (e.g. "skip-to-next")
+     * @return
+     */
+    public static MisfirePolicy parse(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown misfire policy: " + value);
+        }
+    }
+}
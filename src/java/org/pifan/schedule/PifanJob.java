@@ -19,13 +19,19 @@
 
 package org.pifan.schedule;
 
+import java.util.Date;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.pifan.util.ElapsedTimeFormat;
 import org.pifan.util.TimeUtil;
 import org.quartz.InterruptableJob;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
+import org.quartz.SimpleTrigger;
+import org.quartz.Trigger;
 import org.quartz.UnableToInterruptJobException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +47,11 @@ public class PifanJob implements InterruptableJob {
      */
     private static final Logger logger = LoggerFactory.getLogger(PifanJob.class);
 
+    /**
+     * 
+     */
+    private static final ElapsedTimeFormat executionTimeFormat = TimeUtil.getElapsedTimeFormat("msS", true, true);
+
     /**
      * 
      */
@@ -65,40 +76,94 @@ public class PifanJob implements InterruptableJob {
      * @see org.quartz.Job#execute(org.quartz.JobExecutionContext)
      */
     public final void execute(JobExecutionContext context) throws JobExecutionException {
-        final long startTime = System.currentTimeMillis();
+        // everything about the worker was bound up front, this is the only lookup
+        final WorkerDescriptor descriptor = (WorkerDescriptor) context.getJobDetail().getJobDataMap()
+                .get(JobScheduler.DESCRIPTOR);
+
+        this.workerName = descriptor.getName();
+        this.pollerName = descriptor.getPollerName();
+
+        final Date nextFireTime = context.getNextFireTime();
+        descriptor.setNextFireTime(nextFireTime != null ? nextFireTime.getTime() : WorkerDescriptor.NONE);
+
+        // catching up after a misfire moves a fixed-rate trigger's phase
+        final Trigger trigger = context.getTrigger();
+        if (nextFireTime != null && trigger instanceof SimpleTrigger
+                && ((SimpleTrigger) trigger).getRepeatInterval() > 0) {
+            descriptor.rephase(nextFireTime.getTime(), ((SimpleTrigger) trigger).getRepeatInterval());
+        }
+
+        final Date scheduledFireTime = context.getScheduledFireTime();
+        final long fireTime = scheduledFireTime != null ? scheduledFireTime.getTime()
+                : descriptor.getClock().currentTimeMillis();
+
+        final JobScheduler scheduler = (JobScheduler) descriptor.getPoller();
+        final Executor executor = scheduler.getWorkerExecutor();
+
+        if (executor == null) {
+            this.runWorker(descriptor, fireTime);
+            return;
+        }
 
-        this.workerName = (String) context.getJobDetail().getJobDataMap().get(JobScheduler.WORKER_NAME);
-        this.pollerName = (String) context.getJobDetail().getJobDataMap().get(JobScheduler.POLLER_NAME);
+        /*
+         * Hand the worker off so the Quartz thread is free straight away. The
+         * scheduler keeps track of the job while it's handed off so it can
+         * still be interrupted.
+         */
+        scheduler.handOff(this.workerName, this);
+        try {
+            executor.execute(() -> {
+                try {
+                    this.runWorker(descriptor, fireTime);
+                } finally {
+                    scheduler.handOffComplete(this.workerName, this);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            scheduler.handOffComplete(this.workerName, this);
+            throw new JobExecutionException("Unable to hand off worker: " + this.workerName, e);
+        }
+    }
+
+    /**
+     * Run the worker on the current thread (unless the job has already been
+     * interrupted).
+     * 
+     * @param descriptor
+     * @param scheduledFireTime
+     */
+    private void runWorker(WorkerDescriptor descriptor, long scheduledFireTime) {
+        final boolean trace = logger.isTraceEnabled();
+        final long startTime = trace ? descriptor.getClock().currentTimeMillis() : 0;
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("Starting task execution [name: ").append(this.workerName);
-        sb.append(", pollerName: ").append(this.pollerName);
-        sb.append("]");
-        logger.trace(sb.toString());
+        if (trace) {
+            logger.trace("Starting task execution [name: {}, pollerName: {}]", this.workerName, this.pollerName);
+        }
 
         try {
             // keep a reference to this running thread
             this.runningThread.set(Thread.currentThread());
 
-            // extract & execute the worker
-            Runnable worker = (Runnable) context.getJobDetail().getJobDataMap().get(JobScheduler.WORKER);
-
+            // execute the worker
             while (!this.stopFlag.get()) {
                 // run the actual worker
-                worker.run();
+                descriptor.run(scheduledFireTime);
 
                 // we only run the worker once
                 this.stopFlag.set(true);
             }
         } finally {
-            long completedTime = System.currentTimeMillis();
-
-            sb = new StringBuilder();
-            sb.append("Quartz poller job complete [name: ").append(this.workerName);
-            sb.append(", pollerName: ").append(this.pollerName);
-            sb.append(", executionTime: ").append(TimeUtil.elapsedTime(startTime, completedTime, "msS"));
-            sb.append("]");
-            logger.trace(sb.toString());
+            if (trace) {
+                long completedTime = descriptor.getClock().currentTimeMillis();
+
+                StringBuilder sb = new StringBuilder();
+                sb.append("Quartz poller job complete [name: ").append(this.workerName);
+                sb.append(", pollerName: ").append(this.pollerName);
+                sb.append(", executionTime: ");
+                executionTimeFormat.formatTo(completedTime - startTime, sb);
+                sb.append("]");
+                logger.trace(sb.toString());
+            }
 
             // null out the running thread
             this.runningThread.set(null);
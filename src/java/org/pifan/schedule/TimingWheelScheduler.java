@@ -0,0 +1,818 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.schedule;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongUnaryOperator;
+
+import org.pifan.util.Clock;
+import org.pifan.util.ElapsedTimeFormat;
+import org.pifan.util.PropertiesUtils;
+import org.pifan.util.TimeUtil;
+import org.quartz.CronExpression;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A lightweight {@link WorkerScheduler} built on a hashed timing wheel.
+ * <p>
+ * A single ticker thread advances the wheel once per tick and only looks at
+ * the bucket for that tick, so the cost of a tick doesn't depend on how many
+ * workers are registered. Workers due further out than one revolution of the
+ * wheel simply wait out the extra rounds in their bucket. Due workers are
+ * handed to a small pool of worker threads (created on demand), or to
+ * virtual threads (see {@link WorkerExecutors}), so a slow worker never holds
+ * up the ticker.
+ * <p>
+ * Registrations and cancellations are queued for the ticker thread, which is
+ * the only thread that ever touches the wheel. If the wall clock jumps by
+ * more than a revolution (e.g. NTP setting the clock after boot) every worker
+ * is re-bucketed against the new time.
+ * <p>
+ * Workers that come due in the same tick are handed to the pool as a single
+ * batch, run in registration order on one thread with each worker's failures
+ * isolated from the rest.
+ * <p>
+ * CRON schedules use {@link CompiledCron} and only fall back to Quartz's
+ * {@link CronExpression} for syntax it doesn't support.
+ * <p>
+ * Like Quartz, a worker that fires more than
+ * <code>poller.FanSchedule.misfireThresholdMs</code> after its scheduled fire
+ * time is counted as a misfire in its {@link WorkerMetrics}. After a stall
+ * every overdue worker fires once and then skips ahead to its next fire time
+ * in the future, and its {@link MisfirePolicy} decides whether that late fire
+ * runs it.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class TimingWheelScheduler implements WorkerScheduler {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    /**
+     * 
+     */
+    private static final ElapsedTimeFormat executionTimeFormat = TimeUtil.getElapsedTimeFormat("msS", true, true);
+
+    /**
+     * 
+     */
+    private static final int defaultNumThreads = 5;
+    private static final long defaultTickInMs = 20;
+    private static final int defaultWheelSize = 512;
+
+    /**
+     * 
+     */
+    private static final AtomicLong registrations = new AtomicLong();
+    private static final Comparator<Entry> registrationOrder = (e1, e2) -> Long.compare(e1.seq, e2.seq);
+
+    /**
+     * A registered worker; the wheel links (and the deadline) are only touched
+     * by the ticker thread.
+     */
+    private static final class Entry {
+        private final WorkerDescriptor descriptor;
+        private final CompiledCron cron;
+        private final CronExpression quartzCron;
+        private final long intervalInMs;
+        private final long seq = registrations.getAndIncrement();
+
+        private long deadline;
+        private long fireTime;
+        private long remainingRounds;
+        private Entry prev;
+        private Entry next;
+        private int bucket = -1;
+
+        private volatile boolean cancelled = false;
+        private volatile boolean finished = false;
+        private volatile Thread runningThread;
+
+        private Entry(WorkerDescriptor descriptor, CompiledCron cron, CronExpression quartzCron, long intervalInMs,
+                long deadline) {
+            this.descriptor = descriptor;
+            this.cron = cron;
+            this.quartzCron = quartzCron;
+            this.intervalInMs = intervalInMs;
+            this.deadline = deadline;
+
+            descriptor.setNextFireTime(deadline);
+        }
+
+        /**
+         * 
+         * @param now
+         * @return The next deadline after the one that just fired or -1 if
+         *         there isn't one
+         */
+        private long nextDeadline(long now) {
+            if (this.cron != null) {
+                return this.cron.nextFireAfter(Math.max(now, this.deadline));
+            } else if (this.quartzCron != null) {
+                Date next = this.quartzCron.getNextValidTimeAfter(new Date(Math.max(now, this.deadline)));
+                return next == null ? -1 : next.getTime();
+            } else if (this.intervalInMs > 0) {
+                long next = this.deadline + this.intervalInMs;
+                if (next <= now) {
+                    // we fell behind, skip ahead to the next slot in the future
+                    next = now + this.intervalInMs - (now - this.deadline) % this.intervalInMs;
+                }
+                return next;
+            }
+
+            return -1;
+        }
+    }
+
+    /**
+     * 
+     */
+    private final String pollerName = "FanSchedule";
+    private final int numThreads;
+    private final long tickInMs;
+    private final int wheelSize;
+    private final int mask;
+    private final MisfirePolicies misfirePolicies;
+
+    /**
+     * Whether running jobs should be interrupted when the job is unregistered.
+     */
+    private boolean interruptOnUnregistration = false;
+
+    /**
+     * The wheel (only touched by the ticker thread).
+     */
+    private final Entry[] heads;
+    private final Entry[] tails;
+    private long startTime;
+    private long tick = 0;
+
+    /**
+     * The entries due in the current tick (only touched by the ticker thread).
+     */
+    private Entry[] due = new Entry[16];
+    private int dueCount = 0;
+
+    /**
+     * 
+     */
+    private final ConcurrentMap<String, Entry> workers = new ConcurrentHashMap<>();
+    private final Queue<Entry> pendingAdds = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 
+     */
+    private final Thread ticker;
+    private final ExecutorService executor;
+    private final boolean virtualExecution;
+
+    /**
+     * Whether workers due in the same tick are run as one batch.
+     */
+    private final boolean batchCoFiring;
+    private volatile boolean running = true;
+
+    /**
+     * 
+     * @param properties
+     */
+    public TimingWheelScheduler(Properties properties) {
+        super();
+
+        final String prefix = "poller." + this.pollerName + ".";
+
+        this.numThreads = PropertiesUtils.getIntegerValue(properties, prefix + "numThreads", defaultNumThreads);
+        this.tickInMs = PropertiesUtils.getLongValue(properties, prefix + "tickMs", defaultTickInMs);
+        this.misfirePolicies = new MisfirePolicies(properties, this.pollerName);
+
+        int size = Integer.highestOneBit(Math.max(1,
+                PropertiesUtils.getIntegerValue(properties, prefix + "wheelSize", defaultWheelSize)));
+
+        if (this.numThreads <= 0) {
+            throw new IllegalArgumentException("Number of threads must be > 0: " + this.numThreads);
+        }
+        if (this.tickInMs <= 0) {
+            throw new IllegalArgumentException("Tick must be > 0: " + this.tickInMs);
+        }
+
+        this.wheelSize = size;
+        this.mask = size - 1;
+        this.heads = new Entry[size];
+        this.tails = new Entry[size];
+        this.startTime = System.currentTimeMillis();
+
+        this.batchCoFiring = PropertiesUtils.getBooleanValue(properties, prefix + "batchCoFiring", true);
+        this.virtualExecution = WorkerExecutors.isVirtualMode(properties, this.pollerName);
+        this.executor = this.virtualExecution ? WorkerExecutors.newVirtualExecutor(properties, this.pollerName)
+                : WorkerExecutors.newPool(this.pollerName, this.numThreads);
+
+        this.ticker = new Thread(this::tickLoop, this.pollerName + "-ticker");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+
+        logger.info("Timing wheel poller [pollerName: " + this.pollerName + "] initialized");
+        logger.info("  number of threads:         {}", this.numThreads);
+        logger.info("  tick:                      {} ms", this.tickInMs);
+        logger.info("  wheel size:                {}", this.wheelSize);
+        logger.info("  misfire threshold:         {} ms", this.misfirePolicies.getMisfireThresholdInMs());
+        logger.info("  default misfire policy:    {}", this.misfirePolicies.getDefaultPolicy());
+        logger.info("  virtual execution:         {}", this.virtualExecution);
+        logger.info("  batch co-firing workers:   {}", this.batchCoFiring);
+        logger.info("  interruptOnUnregistration: {}", this.interruptOnUnregistration);
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#registerWorker(java.lang.Runnable,
+     *      java.lang.String, java.lang.String)
+     */
+    @Override
+    public void registerWorker(Runnable worker, String cronExp, String workerName) {
+        logger.debug("Registering worker with CRON expression:");
+        logger.debug("  Worker name:     {}", workerName);
+        logger.debug("  CRON expression: {}", cronExp);
+
+        // workers sharing an expression share the compiled form (and its next fire time)
+        CompiledCron cron = null;
+        CronExpression quartzCron = null;
+        try {
+            cron = CompiledCron.of(cronExp);
+        } catch (IllegalArgumentException e) {
+            logger.debug("Falling back to Quartz for CRON expression [cronExp: {}]: {}", cronExp, e.getMessage());
+
+            try {
+                quartzCron = new CronExpression(cronExp);
+            } catch (ParseException pe) {
+                logger.error("Error registering worker [pollerName: " + this.pollerName + ", workerName: "
+                        + workerName + "]: " + pe, pe);
+                this.unregisterWorker(workerName, "registering worker using CRON expression");
+                return;
+            }
+        }
+
+        final long now = System.currentTimeMillis();
+        final long first;
+        if (cron != null) {
+            first = cron.nextFireAfter(now);
+        } else {
+            Date next = quartzCron.getNextValidTimeAfter(new Date(now));
+            first = next == null ? -1 : next.getTime();
+        }
+
+        if (first < 0) {
+            logger.warn("CRON expression will never fire [workerName: {}, cronExp: {}]", workerName, cronExp);
+            this.unregisterWorker(workerName, "registering worker using CRON expression");
+            return;
+        }
+
+        this.register(new Entry(this.newDescriptor(workerName, worker, MisfirePolicies.cron(cron, quartzCron)), cron,
+                quartzCron, 0, first));
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#registerWorker(java.lang.Runnable,
+     *      long, long, java.lang.String)
+     */
+    @Override
+    public void registerWorker(Runnable worker, long intervalInMs, long delayInMs, String workerName) {
+        this.registerWorkerAtFixedRate(worker, intervalInMs, delayInMs, workerName);
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#registerWorkerAtFixedRate(java.lang.Runnable,
+     *      long, long, java.lang.String)
+     */
+    @Override
+    public void registerWorkerAtFixedRate(Runnable worker, long intervalInMs, long delayInMs, String workerName) {
+        logger.debug("Registering worker at fixed rate:");
+        logger.debug("  Worker name:       {}", workerName);
+        logger.debug("  Worker init delay: {}", TimeUtil.elapsedTime(delayInMs, "HmsS"));
+        logger.debug("  Worker interval:   {}", TimeUtil.elapsedTime(intervalInMs, "DHmsS"));
+
+        if (intervalInMs <= 0) {
+            logger.error("Error registering worker [pollerName: " + this.pollerName + ", workerName: " + workerName
+                    + "]: worker interval must be > 0: " + intervalInMs);
+            this.unregisterWorker(workerName, "registering worker at fixed rate");
+            return;
+        }
+
+        final long first = System.currentTimeMillis() + delayInMs;
+        this.register(new Entry(this.newDescriptor(workerName, worker, MisfirePolicies.fixedRate(first, intervalInMs)),
+                null, null, intervalInMs, first));
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#registerWorkerOnce(java.lang.Runnable,
+     *      long, java.lang.String)
+     */
+    @Override
+    public void registerWorkerOnce(Runnable worker, long delay, String workerName) {
+        logger.debug("Registering worker once:");
+        logger.debug("  Worker name:  {}", workerName);
+        logger.debug("  Worker delay: {}", TimeUtil.elapsedTime(delay, "DHmsS"));
+
+        final long first = System.currentTimeMillis() + delay;
+        this.register(new Entry(this.newDescriptor(workerName, worker, MisfirePolicies.once(first)), null, null, 0,
+                first));
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#unregisterWorker(java.lang.String)
+     */
+    @Override
+    public void unregisterWorker(String workerName) {
+        this.unregisterWorker(workerName, "Manually unregistered");
+    }
+
+    /**
+     * The ticker runs on the wall clock.
+     * 
+     * @see org.pifan.schedule.WorkerScheduler#getClock()
+     */
+    @Override
+    public Clock getClock() {
+        return Clock.SYSTEM;
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        logger.debug("Shutting down timing wheel poller [pollerName: {}]", this.pollerName);
+
+        this.running = false;
+        LockSupport.unpark(this.ticker);
+
+        try {
+            this.ticker.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.executor.shutdown();
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#getWorkerMetrics(java.lang.String)
+     */
+    @Override
+    public WorkerMetrics getWorkerMetrics(String workerName) {
+        Entry entry = this.workers.get(workerName);
+        return entry == null ? null : entry.descriptor.getMetrics();
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#getWorker(java.lang.String)
+     */
+    @Override
+    public WorkerDescriptor getWorker(String workerName) {
+        Entry entry = this.workers.get(workerName);
+        return entry == null ? null : entry.descriptor;
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#getWorkers()
+     */
+    @Override
+    public Collection<WorkerDescriptor> getWorkers() {
+        List<WorkerDescriptor> descriptors = new ArrayList<>(this.workers.size());
+        for (Entry entry : this.workers.values()) {
+            descriptors.add(entry.descriptor);
+        }
+        return descriptors;
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#pauseWorker(java.lang.String)
+     */
+    @Override
+    public boolean pauseWorker(String workerName) {
+        return this.setPaused(workerName, true);
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#resumeWorker(java.lang.String)
+     */
+    @Override
+    public boolean resumeWorker(String workerName) {
+        return this.setPaused(workerName, false);
+    }
+
+    /**
+     * 
+     * @param workerName
+     * @param paused
+     * @return Whether there's such a worker registered
+     */
+    private boolean setPaused(String workerName, boolean paused) {
+        Entry entry = this.workers.get(workerName);
+        if (entry == null) {
+            return false;
+        }
+
+        logger.debug("Worker " + (paused ? "paused" : "resumed") + " [pollerName: {}, name: {}]", this.pollerName,
+                workerName);
+
+        entry.descriptor.setPaused(paused);
+        return true;
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#setMisfirePolicy(java.lang.String,
+     *      org.pifan.schedule.MisfirePolicy, java.lang.String)
+     */
+    @Override
+    public boolean setMisfirePolicy(String workerName, MisfirePolicy policy, String group) {
+        this.misfirePolicies.set(workerName, policy, group);
+
+        Entry entry = this.workers.get(workerName);
+        if (entry == null) {
+            return false;
+        }
+
+        this.misfirePolicies.applyPolicy(entry.descriptor);
+        return true;
+    }
+
+    /**
+     * 
+     * @return The number of registered workers
+     */
+    public int getWorkerCount() {
+        return this.workers.size();
+    }
+
+    /**
+     * 
+     * @param workerName
+     * @param worker
+     * @param schedule
+     * @return
+     */
+    private WorkerDescriptor newDescriptor(String workerName, Runnable worker, LongUnaryOperator schedule) {
+        WorkerDescriptor descriptor = new WorkerDescriptor(workerName, this.pollerName, this, worker);
+        this.misfirePolicies.apply(descriptor, schedule);
+        return descriptor;
+    }
+
+    /**
+     * 
+     * @param entry
+     */
+    private void register(Entry entry) {
+        if (!this.running) {
+            throw new IllegalStateException("Scheduler is shut down: " + this.pollerName);
+        }
+
+        Entry previous = this.workers.put(entry.descriptor.getName(), entry);
+        if (previous != null) {
+            this.cancel(previous, "registering worker");
+        }
+
+        this.pendingAdds.add(entry);
+    }
+
+    /**
+     * 
+     * @param workerName
+     * @param reason
+     */
+    private void unregisterWorker(String workerName, String reason) {
+        logger.debug("Unregistering worker:");
+        logger.debug("  Worker name:           {}", workerName);
+        logger.debug("  Unregistration reason: {}", reason);
+
+        Entry entry = this.workers.remove(workerName);
+        if (entry != null) {
+            this.cancel(entry, reason);
+            logger.debug("Successfully unregistered worker [name: {}]", workerName);
+        }
+    }
+
+    /**
+     * Cancelled entries are unlinked the next time the ticker visits their
+     * bucket.
+     * 
+     * @param entry
+     * @param reason
+     */
+    private void cancel(Entry entry, String reason) {
+        entry.cancelled = true;
+
+        if (this.interruptOnUnregistration) {
+            Thread thread = entry.runningThread;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * 
+     */
+    private void tickLoop() {
+        while (this.running) {
+            final long now = System.currentTimeMillis();
+            final long target = Math.floorDiv(now - this.startTime, this.tickInMs);
+
+            if (Math.abs(target - this.tick) > this.wheelSize) {
+                this.rebase(now);
+            } else {
+                while (this.tick <= target) {
+                    this.transferPending();
+                    this.expire((int) (this.tick & this.mask), now);
+                    this.tick++;
+                }
+            }
+
+            this.transferPending();
+
+            long sleepInMs = this.startTime + this.tick * this.tickInMs - System.currentTimeMillis();
+            if (sleepInMs > 0) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(sleepInMs));
+            }
+        }
+
+        logger.debug("Timing wheel ticker stopped [pollerName: {}]", this.pollerName);
+    }
+
+    /**
+     * Fire (or count down) every entry in the given bucket. Entries rescheduled
+     * back into the same bucket are linked after the original tail and aren't
+     * visited again until the next revolution.
+     * 
+     * @param bucket
+     * @param now
+     */
+    private void expire(int bucket, long now) {
+        final Entry last = this.tails[bucket];
+        Entry entry = this.heads[bucket];
+
+        while (entry != null) {
+            final Entry next = entry.next;
+            final boolean wasLast = entry == last;
+
+            if (entry.cancelled) {
+                this.unlink(entry);
+            } else if (entry.remainingRounds <= 0) {
+                this.unlink(entry);
+                this.addDue(entry);
+                this.reschedule(entry, now);
+            } else {
+                entry.remainingRounds--;
+            }
+
+            if (wasLast) {
+                break;
+            }
+            entry = next;
+        }
+
+        this.dispatchDue();
+    }
+
+    /**
+     * 
+     * @param entry
+     */
+    private void addDue(Entry entry) {
+        entry.fireTime = entry.deadline;
+
+        if (this.dueCount == this.due.length) {
+            this.due = Arrays.copyOf(this.due, this.dueCount * 2);
+        }
+        this.due[this.dueCount++] = entry;
+    }
+
+    /**
+     * Hand the entries that came due in this tick to the executor; as a single
+     * ordered batch if batching is on.
+     */
+    private void dispatchDue() {
+        final int count = this.dueCount;
+        if (count == 0) {
+            return;
+        }
+
+        try {
+            if (count == 1 || !this.batchCoFiring) {
+                for (int i = 0; i < count; i++) {
+                    final Entry entry = this.due[i];
+                    final long fireTime = entry.fireTime;
+                    this.executor.execute(() -> this.run(entry, fireTime));
+                }
+            } else {
+                final Entry[] batch = Arrays.copyOf(this.due, count);
+                Arrays.sort(batch, registrationOrder);
+
+                // the fire times are captured now, the entries are rescheduled before they run
+                final long[] fireTimes = new long[count];
+                for (int i = 0; i < count; i++) {
+                    fireTimes[i] = batch[i].fireTime;
+                }
+
+                this.executor.execute(() -> {
+                    for (int i = 0; i < batch.length; i++) {
+                        this.run(batch[i], fireTimes[i]);
+
+                        // an interrupt meant for one worker shouldn't reach the next
+                        Thread.interrupted();
+                    }
+                });
+            }
+        } catch (Exception e) {
+            logger.error("Error firing workers [pollerName: " + this.pollerName + ", count: " + count + "]: " + e, e);
+        } finally {
+            Arrays.fill(this.due, 0, count, null);
+            this.dueCount = 0;
+        }
+    }
+
+    /**
+     * 
+     * @param entry The entry that just fired
+     * @param now
+     */
+    private void reschedule(Entry entry, long now) {
+        long next = entry.nextDeadline(now);
+        if (next < 0) {
+            // stays registered (so it can still be unregistered) until its last run
+            entry.finished = true;
+            entry.descriptor.setNextFireTime(WorkerDescriptor.NONE);
+            return;
+        }
+
+        entry.deadline = next;
+        entry.descriptor.setNextFireTime(next);
+
+        // never back into the bucket being expired
+        this.link(entry, this.tick + 1);
+    }
+
+    /**
+     * 
+     * @param entry
+     * @param fireTime The time the entry was scheduled to fire
+     */
+    private void run(Entry entry, long fireTime) {
+        // unregistered (or replaced) after it was handed to the pool
+        if (entry.cancelled) {
+            return;
+        }
+
+        final WorkerDescriptor descriptor = entry.descriptor;
+
+        final boolean trace = logger.isTraceEnabled();
+        final long startTime = trace ? System.currentTimeMillis() : 0;
+        if (trace) {
+            logger.trace("Starting task execution [name: {}, pollerName: {}]", descriptor.getName(),
+                    descriptor.getPollerName());
+        }
+
+        entry.runningThread = Thread.currentThread();
+        try {
+            descriptor.run(fireTime);
+        } catch (Exception e) {
+            logger.error("Error running worker [pollerName: " + descriptor.getPollerName() + ", workerName: "
+                    + descriptor.getName() + "]: " + e, e);
+        } finally {
+            entry.runningThread = null;
+
+            if (entry.finished) {
+                this.workers.remove(descriptor.getName(), entry);
+            }
+
+            if (trace) {
+                logger.trace("Timing wheel job complete [name: " + descriptor.getName() + ", pollerName: "
+                        + descriptor.getPollerName() + ", executionTime: "
+                        + executionTimeFormat.format(System.currentTimeMillis() - startTime) + "]");
+            }
+        }
+    }
+
+    /**
+     * 
+     */
+    private void transferPending() {
+        Entry entry;
+        while ((entry = this.pendingAdds.poll()) != null) {
+            if (!entry.cancelled) {
+                this.link(entry, this.tick);
+            }
+        }
+    }
+
+    /**
+     * The wall clock jumped, re-bucket everything against the new time.
+     * 
+     * @param now
+     */
+    private void rebase(long now) {
+        logger.warn("Clock jump detected, rebasing timing wheel [pollerName: {}]", this.pollerName);
+
+        Entry all = null;
+        for (int b = 0; b < this.wheelSize; b++) {
+            Entry entry = this.heads[b];
+            while (entry != null) {
+                Entry next = entry.next;
+                this.unlink(entry);
+                entry.next = all;
+                all = entry;
+                entry = next;
+            }
+        }
+
+        this.startTime = now - this.tick * this.tickInMs;
+
+        while (all != null) {
+            Entry next = all.next;
+            all.next = null;
+            if (!all.cancelled) {
+                this.link(all, this.tick);
+            }
+            all = next;
+        }
+    }
+
+    /**
+     * 
+     * @param entry
+     * @param minTick The earliest tick the entry can be placed in
+     */
+    private void link(Entry entry, long minTick) {
+        long deadlineTick = Math.max(minTick, Math.floorDiv(entry.deadline - this.startTime, this.tickInMs));
+        int bucket = (int) (deadlineTick & this.mask);
+
+        // the bucket's next visit is the first one at or after the min tick
+        entry.remainingRounds = (deadlineTick - minTick) / this.wheelSize;
+        entry.bucket = bucket;
+        entry.next = null;
+        entry.prev = this.tails[bucket];
+
+        if (this.tails[bucket] == null) {
+            this.heads[bucket] = entry;
+        } else {
+            this.tails[bucket].next = entry;
+        }
+        this.tails[bucket] = entry;
+    }
+
+    /**
+     * 
+     * @param entry
+     */
+    private void unlink(Entry entry) {
+        final int bucket = entry.bucket;
+
+        if (entry.prev == null) {
+            this.heads[bucket] = entry.next;
+        } else {
+            entry.prev.next = entry.next;
+        }
+
+        if (entry.next == null) {
+            this.tails[bucket] = entry.prev;
+        } else {
+            entry.next.prev = entry.prev;
+        }
+
+        entry.prev = null;
+        entry.next = null;
+        entry.bucket = -1;
+    }
+}
@@ -0,0 +1,454 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.schedule;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+
+import org.pifan.util.PropertiesUtils;
+import org.pifan.util.TimeUtil;
+import org.pifan.util.VirtualClock;
+import org.quartz.CronExpression;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link WorkerScheduler} that runs on a {@link VirtualClock}.
+ * <p>
+ * Nothing fires on its own. Calling {@link #advanceTo(long)} (or
+ * {@link #advanceBy(long)}) walks the clock forward one fire time at a time,
+ * running every worker due at that time on the calling thread, in fire time
+ * then registration order, so a replay is completely deterministic and runs
+ * as fast as the workers do (a year of fan schedules takes seconds). Workers
+ * may register and unregister workers (including themselves) while running.
+ * <p>
+ * Fixed rate workers never skip a slot, since virtual time never falls
+ * behind, and nothing ever misfires (so {@link MisfirePolicy}s are kept but
+ * never applied).
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public class VirtualTimeScheduler implements WorkerScheduler {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(VirtualTimeScheduler.class);
+
+    /**
+     * A registered worker.
+     */
+    private static final class Entry implements Comparable<Entry> {
+        private final WorkerDescriptor descriptor;
+        private final CompiledCron cron;
+        private final CronExpression quartzCron;
+        private final long intervalInMs;
+        private final long seq;
+
+        private long deadline;
+
+        private Entry(WorkerDescriptor descriptor, CompiledCron cron, CronExpression quartzCron, long intervalInMs,
+                long seq, long deadline) {
+            this.descriptor = descriptor;
+            this.cron = cron;
+            this.quartzCron = quartzCron;
+            this.intervalInMs = intervalInMs;
+            this.seq = seq;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 
+         * @return The next deadline after the one that just fired or -1 if
+         *         there isn't one
+         */
+        private long nextDeadline() {
+            if (this.cron != null) {
+                return this.cron.nextFireAfter(this.deadline);
+            } else if (this.quartzCron != null) {
+                Date next = this.quartzCron.getNextValidTimeAfter(new Date(this.deadline));
+                return next == null ? -1 : next.getTime();
+            } else if (this.intervalInMs > 0) {
+                return this.deadline + this.intervalInMs;
+            }
+
+            return -1;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int result = Long.compare(this.deadline, other.deadline);
+            return result != 0 ? result : Long.compare(this.seq, other.seq);
+        }
+    }
+
+    /**
+     * 
+     */
+    private final String pollerName = "FanSchedule";
+    private final VirtualClock clock;
+    private final MisfirePolicies misfirePolicies;
+
+    /**
+     * The registered workers and the fire queue (guarded by this).
+     */
+    private final Map<String, Entry> workers = new HashMap<>();
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    private long registrations = 0;
+    private boolean running = true;
+
+    /**
+     * Start the virtual clock at <code>poller.FanSchedule.virtualStartTime</code>
+     * (in milliseconds since the epoch) or the current time if that isn't set.
+     * 
+     * @param properties
+     */
+    public VirtualTimeScheduler(Properties properties) {
+        this(new VirtualClock(PropertiesUtils.getLongValue(properties, "poller.FanSchedule.virtualStartTime",
+                System.currentTimeMillis())), properties);
+    }
+
+    /**
+     * 
+     * @param clock
+     */
+    public VirtualTimeScheduler(VirtualClock clock) {
+        this(clock, new Properties());
+    }
+
+    /**
+     * 
+     * @param clock
+     * @param properties
+     */
+    public VirtualTimeScheduler(VirtualClock clock, Properties properties) {
+        super();
+
+        this.clock = clock;
+        this.misfirePolicies = new MisfirePolicies(properties, this.pollerName);
+
+        logger.info("Virtual time poller [pollerName: " + this.pollerName + "] initialized");
+        logger.info("  start time: {}", new Date(clock.currentTimeMillis()));
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#registerWorker(java.lang.Runnable,
+     *      java.lang.String, java.lang.String)
+     */
+    @Override
+    public synchronized void registerWorker(Runnable worker, String cronExp, String workerName) {
+        logger.debug("Registering worker with CRON expression:");
+        logger.debug("  Worker name:     {}", workerName);
+        logger.debug("  CRON expression: {}", cronExp);
+
+        CompiledCron cron = null;
+        CronExpression quartzCron = null;
+        try {
+            cron = CompiledCron.of(cronExp);
+        } catch (IllegalArgumentException e) {
+            try {
+                quartzCron = new CronExpression(cronExp);
+            } catch (ParseException pe) {
+                logger.error("Error registering worker [pollerName: " + this.pollerName + ", workerName: "
+                        + workerName + "]: " + pe, pe);
+                this.unregisterWorker(workerName);
+                return;
+            }
+        }
+
+        final long now = this.clock.currentTimeMillis();
+        final long first;
+        if (cron != null) {
+            first = cron.nextFireAfter(now);
+        } else {
+            Date next = quartzCron.getNextValidTimeAfter(new Date(now));
+            first = next == null ? -1 : next.getTime();
+        }
+
+        if (first < 0) {
+            logger.warn("CRON expression will never fire [workerName: {}, cronExp: {}]", workerName, cronExp);
+            this.unregisterWorker(workerName);
+            return;
+        }
+
+        this.register(workerName, worker, cron, quartzCron, 0, first);
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#registerWorker(java.lang.Runnable,
+     *      long, long, java.lang.String)
+     */
+    @Override
+    public void registerWorker(Runnable worker, long intervalInMs, long delayInMs, String workerName) {
+        this.registerWorkerAtFixedRate(worker, intervalInMs, delayInMs, workerName);
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#registerWorkerAtFixedRate(java.lang.Runnable,
+     *      long, long, java.lang.String)
+     */
+    @Override
+    public synchronized void registerWorkerAtFixedRate(Runnable worker, long intervalInMs, long delayInMs,
+            String workerName) {
+        logger.debug("Registering worker at fixed rate:");
+        logger.debug("  Worker name:       {}", workerName);
+        logger.debug("  Worker init delay: {}", TimeUtil.elapsedTime(delayInMs, "HmsS"));
+        logger.debug("  Worker interval:   {}", TimeUtil.elapsedTime(intervalInMs, "DHmsS"));
+
+        if (intervalInMs <= 0) {
+            logger.error("Error registering worker [pollerName: " + this.pollerName + ", workerName: " + workerName
+                    + "]: worker interval must be > 0: " + intervalInMs);
+            this.unregisterWorker(workerName);
+            return;
+        }
+
+        this.register(workerName, worker, null, null, intervalInMs, this.clock.currentTimeMillis() + delayInMs);
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#registerWorkerOnce(java.lang.Runnable,
+     *      long, java.lang.String)
+     */
+    @Override
+    public synchronized void registerWorkerOnce(Runnable worker, long delay, String workerName) {
+        logger.debug("Registering worker once:");
+        logger.debug("  Worker name:  {}", workerName);
+        logger.debug("  Worker delay: {}", TimeUtil.elapsedTime(delay, "DHmsS"));
+
+        this.register(workerName, worker, null, null, 0, this.clock.currentTimeMillis() + delay);
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#unregisterWorker(java.lang.String)
+     */
+    @Override
+    public synchronized void unregisterWorker(String workerName) {
+        Entry entry = this.workers.remove(workerName);
+        if (entry != null) {
+            this.queue.remove(entry);
+
+            logger.debug("Successfully unregistered worker [name: {}]", workerName);
+        }
+    }
+
+    /**
+     * Run every worker due up to and including the given time, then leave the
+     * clock at that time.
+     * 
+     * @param time
+     * @return The number of workers run
+     */
+    public synchronized int advanceTo(long time) {
+        if (time < this.clock.currentTimeMillis()) {
+            throw new IllegalArgumentException("Virtual time can't go backwards [now: "
+                    + this.clock.currentTimeMillis() + ", time: " + time + "]");
+        }
+
+        int fired = 0;
+
+        Entry entry;
+        while (this.running && (entry = this.queue.peek()) != null && entry.deadline <= time) {
+            this.queue.poll();
+
+            final long fireTime = entry.deadline;
+            if (fireTime > this.clock.currentTimeMillis()) {
+                this.clock.advanceTo(fireTime);
+            }
+
+            // reschedule first so the worker sees its own next fire time
+            long next = entry.nextDeadline();
+            if (next < 0) {
+                this.workers.remove(entry.descriptor.getName(), entry);
+                entry.descriptor.setNextFireTime(WorkerDescriptor.NONE);
+            } else {
+                entry.deadline = next;
+                entry.descriptor.setNextFireTime(next);
+                this.queue.add(entry);
+            }
+
+            try {
+                entry.descriptor.run(fireTime);
+            } catch (Exception e) {
+                logger.error("Error running worker [pollerName: " + this.pollerName + ", workerName: "
+                        + entry.descriptor.getName() + "]: " + e, e);
+            }
+            fired++;
+        }
+
+        if (this.running) {
+            this.clock.advanceTo(Math.max(time, this.clock.currentTimeMillis()));
+        }
+
+        return fired;
+    }
+
+    /**
+     * 
+     * @param durationInMs
+     * @return The number of workers run
+     */
+    public synchronized int advanceBy(long durationInMs) {
+        return this.advanceTo(this.clock.currentTimeMillis() + durationInMs);
+    }
+
+    /**
+     * 
+     * @return When the next worker fires ({@link WorkerDescriptor#NONE} if
+     *         nothing will)
+     */
+    public synchronized long getNextFireTime() {
+        Entry entry = this.queue.peek();
+        return entry == null ? WorkerDescriptor.NONE : entry.deadline;
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#getWorkerMetrics(java.lang.String)
+     */
+    @Override
+    public synchronized WorkerMetrics getWorkerMetrics(String workerName) {
+        Entry entry = this.workers.get(workerName);
+        return entry == null ? null : entry.descriptor.getMetrics();
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#getWorker(java.lang.String)
+     */
+    @Override
+    public synchronized WorkerDescriptor getWorker(String workerName) {
+        Entry entry = this.workers.get(workerName);
+        return entry == null ? null : entry.descriptor;
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#getWorkers()
+     */
+    @Override
+    public synchronized Collection<WorkerDescriptor> getWorkers() {
+        List<WorkerDescriptor> descriptors = new ArrayList<>(this.workers.size());
+        for (Entry entry : this.workers.values()) {
+            descriptors.add(entry.descriptor);
+        }
+        return descriptors;
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#pauseWorker(java.lang.String)
+     */
+    @Override
+    public synchronized boolean pauseWorker(String workerName) {
+        Entry entry = this.workers.get(workerName);
+        if (entry == null) {
+            return false;
+        }
+
+        entry.descriptor.setPaused(true);
+        return true;
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#resumeWorker(java.lang.String)
+     */
+    @Override
+    public synchronized boolean resumeWorker(String workerName) {
+        Entry entry = this.workers.get(workerName);
+        if (entry == null) {
+            return false;
+        }
+
+        entry.descriptor.setPaused(false);
+        return true;
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#setMisfirePolicy(java.lang.String,
+     *      org.pifan.schedule.MisfirePolicy, java.lang.String)
+     */
+    @Override
+    public synchronized boolean setMisfirePolicy(String workerName, MisfirePolicy policy, String group) {
+        this.misfirePolicies.set(workerName, policy, group);
+
+        Entry entry = this.workers.get(workerName);
+        if (entry == null) {
+            return false;
+        }
+
+        this.misfirePolicies.applyPolicy(entry.descriptor);
+        return true;
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#getClock()
+     */
+    @Override
+    public VirtualClock getClock() {
+        return this.clock;
+    }
+
+    /**
+     * @see org.pifan.schedule.WorkerScheduler#shutdown()
+     */
+    @Override
+    public synchronized void shutdown() {
+        logger.debug("Shutting down virtual time poller [pollerName: {}]", this.pollerName);
+
+        this.running = false;
+        this.queue.clear();
+        this.workers.clear();
+    }
+
+    /**
+     * 
+     * @param workerName
+     * @param worker
+     * @param cron
+     * @param quartzCron
+     * @param intervalInMs
+     * @param first
+     */
+    private void register(String workerName, Runnable worker, CompiledCron cron, CronExpression quartzCron,
+            long intervalInMs, long first) {
+        if (!this.running) {
+            throw new IllegalStateException("Scheduler is shut down: " + this.pollerName);
+        }
+
+        this.unregisterWorker(workerName);
+
+        WorkerDescriptor descriptor = new WorkerDescriptor(workerName, this.pollerName, this, worker);
+        descriptor.setNextFireTime(first);
+
+        if (cron != null || quartzCron != null) {
+            this.misfirePolicies.apply(descriptor, MisfirePolicies.cron(cron, quartzCron));
+        } else if (intervalInMs > 0) {
+            this.misfirePolicies.apply(descriptor, MisfirePolicies.fixedRate(first, intervalInMs));
+        } else {
+            this.misfirePolicies.apply(descriptor, MisfirePolicies.once(first));
+        }
+
+        Entry entry = new Entry(descriptor, cron, quartzCron, intervalInMs, this.registrations++, first);
+        this.workers.put(workerName, entry);
+        this.queue.add(entry);
+    }
+}
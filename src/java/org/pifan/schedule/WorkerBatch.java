@@ -0,0 +1,180 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.schedule;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The workers that share a trigger, run one after the other (in registration
+ * order) on the thread the trigger fired on. A failing worker is logged and
+ * doesn't stop the rest of the batch.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+final class WorkerBatch implements Runnable {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WorkerBatch.class);
+
+    /**
+     * 
+     */
+    private final String name;
+    private final String pollerName;
+    private final CopyOnWriteArrayList<WorkerDescriptor> members = new CopyOnWriteArrayList<>();
+
+    /**
+     * The member currently running and the thread it's running on.
+     */
+    private volatile WorkerDescriptor current;
+    private volatile Thread runningThread;
+
+    /**
+     * A member that was interrupted on its own (rather than the whole batch).
+     */
+    private volatile WorkerDescriptor interrupted;
+
+    /**
+     * The next time the batch fires ({@link WorkerDescriptor#NONE} if not
+     * known).
+     */
+    private volatile long nextFireTime = WorkerDescriptor.NONE;
+
+    /**
+     * 
+     * @param name
+     * @param pollerName
+     */
+    WorkerBatch(String name, String pollerName) {
+        super();
+
+        this.name = name;
+        this.pollerName = pollerName;
+    }
+
+    /**
+     * 
+     * @param member
+     */
+    void add(WorkerDescriptor member) {
+        if (this.nextFireTime != WorkerDescriptor.NONE) {
+            member.setNextFireTime(this.nextFireTime);
+        }
+        this.members.add(member);
+    }
+
+    /**
+     * 
+     * @param fireTime
+     */
+    void setNextFireTime(long fireTime) {
+        this.nextFireTime = fireTime;
+
+        for (WorkerDescriptor member : this.members) {
+            member.setNextFireTime(fireTime);
+        }
+    }
+
+    /**
+     * 
+     * @param workerName
+     * @param interrupt Whether to interrupt the worker if it's running
+     * @return Whether the worker was a member
+     */
+    boolean remove(String workerName, boolean interrupt) {
+        for (WorkerDescriptor member : this.members) {
+            if (member.getName().equals(workerName)) {
+                this.members.remove(member);
+
+                Thread thread = this.runningThread;
+                if (interrupt && this.current == member && thread != null) {
+                    this.interrupted = member;
+                    thread.interrupt();
+                }
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    boolean isEmpty() {
+        return this.members.isEmpty();
+    }
+
+    /**
+     * 
+     * @return
+     */
+    String getName() {
+        return this.name;
+    }
+
+    /**
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+        this.run(System.currentTimeMillis());
+    }
+
+    /**
+     * 
+     * @param scheduledFireTime The time the batch was scheduled to fire
+     */
+    void run(long scheduledFireTime) {
+        this.runningThread = Thread.currentThread();
+
+        try {
+            for (WorkerDescriptor member : this.members) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // the whole batch was interrupted
+                    break;
+                }
+
+                this.current = member;
+                try {
+                    member.run(scheduledFireTime);
+                } catch (Exception e) {
+                    logger.error("Error running worker [pollerName: " + this.pollerName + ", workerName: "
+                            + member.getName() + ", batch: " + this.name + "]: " + e, e);
+                } finally {
+                    this.current = null;
+
+                    // don't let an interrupt meant for this member stop the rest of the batch
+                    if (this.interrupted == member) {
+                        this.interrupted = null;
+                        Thread.interrupted();
+                    }
+                }
+            }
+        } finally {
+            this.runningThread = null;
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.schedule;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongUnaryOperator;
+
+import org.pifan.util.Clock;
+
+/**
+ * Everything needed to run a registered worker, bound once at registration so
+ * firing it is just field reads.
+ * <p>
+ * A paused worker stays registered (and keeps firing) but isn't run.
+ * <p>
+ * A worker that fires more than the misfire threshold late is counted as a
+ * misfire and then run or skipped according to its {@link MisfirePolicy}.
+ * <p>
+ * Lag and the last run time are measured on the scheduler's {@link Clock};
+ * run durations are always real elapsed time.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class WorkerDescriptor {
+    /**
+     * The next fire time when there isn't one.
+     */
+    public static final long NONE = -1;
+
+    /**
+     * The next fire time before the scheduler has reported one.
+     */
+    private static final long UNKNOWN = Long.MIN_VALUE;
+
+    /**
+     * 
+     */
+    private final String name;
+    private final String pollerName;
+    private final WorkerScheduler poller;
+    private final Runnable worker;
+    private final Clock clock;
+    private final WorkerMetrics metrics = new WorkerMetrics();
+
+    /**
+     * 
+     */
+    private final AtomicLong nextFireTime = new AtomicLong(UNKNOWN);
+    private volatile boolean paused = false;
+
+    /**
+     * The fire time a scheduler reported missing ahead of the catch-up fire
+     * ({@link #NONE} if there isn't one).
+     */
+    private final AtomicLong missedFireTime = new AtomicLong(NONE);
+
+    /**
+     * 
+     */
+    private volatile long misfireThresholdInMs = Long.MAX_VALUE;
+    private volatile MisfirePolicy misfirePolicy = MisfirePolicy.FIRE_ONCE_NOW;
+    private volatile String misfireGroup;
+
+    /**
+     * Gives the first fire time strictly after a time (null if not known).
+     */
+    private volatile LongUnaryOperator schedule;
+
+    /**
+     * 
+     * @param name
+     * @param pollerName
+     * @param poller The scheduler the worker is registered with
+     * @param worker
+     */
+    WorkerDescriptor(String name, String pollerName, WorkerScheduler poller, Runnable worker) {
+        super();
+
+        this.name = name;
+        this.pollerName = pollerName;
+        this.poller = poller;
+        this.worker = worker;
+        this.clock = poller.getClock();
+    }
+
+    /**
+     * Run the worker on the current thread and record the run.
+     * 
+     * @param scheduledFireTime The time the worker was scheduled to fire
+     */
+    void run(long scheduledFireTime) {
+        if (this.paused) {
+            return;
+        }
+
+        // the scheduler may have moved the fire time up to when it caught up
+        final long missed = this.missedFireTime.getAndSet(NONE);
+        final long fireTime = missed != NONE && missed < scheduledFireTime ? missed : scheduledFireTime;
+
+        final long now = this.clock.currentTimeMillis();
+
+        // a batch's members apply their own policies
+        if (now - fireTime > this.misfireThresholdInMs && !(this.worker instanceof WorkerBatch)) {
+            this.metrics.recordMisfire();
+
+            if (!this.shouldCatchUp(fireTime, now)) {
+                this.metrics.recordSkip();
+                return;
+            }
+        }
+
+        this.metrics.recordLag(now - fireTime);
+
+        final long startNanos = System.nanoTime();
+
+        boolean success = false;
+        try {
+            if (this.worker instanceof WorkerBatch) {
+                // the members record their own lag against the same fire time
+                ((WorkerBatch) this.worker).run(fireTime);
+            } else {
+                this.worker.run();
+            }
+            success = true;
+        } finally {
+            this.metrics.recordRun(System.nanoTime() - startNanos, success, this.clock.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 
+     * @param fireTime The fire time that was missed
+     * @param now
+     * @return Whether the late fire should run the worker
+     */
+    private boolean shouldCatchUp(long fireTime, long now) {
+        switch (this.misfirePolicy) {
+        case SKIP_TO_NEXT:
+            return false;
+        case COALESCE:
+            return !this.isSuperseded(fireTime, now);
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * 
+     * @param fireTime
+     * @param now
+     * @return Whether another worker in the same misfire group was due after
+     *         the given fire time (and by now)
+     */
+    private boolean isSuperseded(long fireTime, long now) {
+        final String group = this.misfireGroup;
+        if (group == null) {
+            return false;
+        }
+
+        for (WorkerDescriptor other : this.poller.getWorkers()) {
+            final LongUnaryOperator otherSchedule = other.schedule;
+            if (other == this || otherSchedule == null || !group.equals(other.misfireGroup)) {
+                continue;
+            }
+
+            final long next = otherSchedule.applyAsLong(fireTime);
+            if (next != NONE && next > fireTime && next <= now) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Note a fire time the scheduler missed; the next run is measured against
+     * it rather than the (later) time the scheduler caught up at.
+     * 
+     * @param fireTime
+     */
+    void setMissedFireTime(long fireTime) {
+        this.missedFireTime.accumulateAndGet(fireTime, (current, missed) -> current == NONE ? missed : Math.min(
+                current, missed));
+    }
+
+    /**
+     * Set the next fire time once the scheduler has reported it, unless the
+     * worker has already fired and reported a later one.
+     * 
+     * @param fireTime
+     */
+    void initNextFireTime(long fireTime) {
+        if (this.nextFireTime.compareAndSet(UNKNOWN, fireTime) && this.worker instanceof WorkerBatch) {
+            ((WorkerBatch) this.worker).setNextFireTime(fireTime);
+        }
+    }
+
+    /**
+     * 
+     * @param fireTime The next fire time ({@link #NONE} if there isn't one)
+     */
+    void setNextFireTime(long fireTime) {
+        this.nextFireTime.set(fireTime);
+
+        if (this.worker instanceof WorkerBatch) {
+            ((WorkerBatch) this.worker).setNextFireTime(fireTime);
+        }
+    }
+
+    /**
+     * 
+     * @param paused
+     */
+    void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    /**
+     * 
+     * @param misfireThresholdInMs How late a fire can be before it's a misfire
+     */
+    void setMisfireThreshold(long misfireThresholdInMs) {
+        this.misfireThresholdInMs = misfireThresholdInMs;
+    }
+
+    /**
+     * 
+     * @param policy
+     * @param group The misfire group (null for none)
+     */
+    void setMisfirePolicy(MisfirePolicy policy, String group) {
+        this.misfirePolicy = policy;
+        this.misfireGroup = group;
+    }
+
+    /**
+     * 
+     * @param schedule Gives the first fire time strictly after a time
+     */
+    void setSchedule(LongUnaryOperator schedule) {
+        this.schedule = schedule;
+    }
+
+    /**
+     * Move a fixed-rate schedule onto the phase the scheduler is firing at
+     * (handling a misfire can move it).
+     * 
+     * @param nextFireTime
+     * @param intervalInMs
+     */
+    void rephase(long nextFireTime, long intervalInMs) {
+        final LongUnaryOperator current = this.schedule;
+        if (current != null && current.applyAsLong(nextFireTime - 1) == nextFireTime) {
+            return;
+        }
+
+        this.schedule = MisfirePolicies.fixedRate(nextFireTime, intervalInMs);
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public MisfirePolicy getMisfirePolicy() {
+        return this.misfirePolicy;
+    }
+
+    /**
+     * 
+     * @return The misfire group (null for none)
+     */
+    public String getMisfireGroup() {
+        return this.misfireGroup;
+    }
+
+    /**
+     * 
+     * @return The next time the worker will fire ({@link #NONE} if it won't
+     *         fire again or isn't known yet)
+     */
+    public long getNextFireTime() {
+        final long fireTime = this.nextFireTime.get();
+        return fireTime == UNKNOWN ? NONE : fireTime;
+    }
+
+    /**
+     * 
+     * @return Whether the worker is paused
+     */
+    public boolean isPaused() {
+        return this.paused;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public String getPollerName() {
+        return this.pollerName;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public WorkerScheduler getPoller() {
+        return this.poller;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public Runnable getWorker() {
+        return this.worker;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    Clock getClock() {
+        return this.clock;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public WorkerMetrics getMetrics() {
+        return this.metrics;
+    }
+}
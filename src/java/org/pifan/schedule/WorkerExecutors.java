@@ -0,0 +1,174 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.schedule;
+
+import java.lang.reflect.Method;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.pifan.util.PropertiesUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the executors fired workers are run on, selected by the
+ * <code>poller.&lt;pollerName&gt;.executionMode</code> property:
+ * <ul>
+ * <li>"pool" (the default): a fixed pool of
+ * <code>poller.&lt;pollerName&gt;.numThreads</code> threads</li>
+ * <li>"virtual": a new virtual thread per fired worker, so blocking workers
+ * don't need the pool sizing. On JDKs without virtual threads this falls back
+ * to a bounded pool of up to
+ * <code>poller.&lt;pollerName&gt;.maxWorkerThreads</code> platform threads;
+ * once its queue is full the firing thread runs the worker itself.</li>
+ * </ul>
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class WorkerExecutors {
+    /**
+     * Logger.
+     */
+    private static final Logger logger = LoggerFactory.getLogger(WorkerExecutors.class);
+
+    /**
+     * 
+     */
+    public static final String POOL = "pool";
+    public static final String VIRTUAL = "virtual";
+
+    /**
+     * 
+     */
+    private static final int defaultMaxWorkerThreads = 32;
+    private static final int fallbackQueueSize = 1024;
+
+    /**
+     * Private non-instantiable constructor.
+     */
+    private WorkerExecutors() {
+    }
+
+    /**
+     * 
+     * @param properties
+     * @param pollerName
+     * @return Whether the virtual execution mode is selected
+     */
+    public static boolean isVirtualMode(Properties properties, String pollerName) {
+        String mode = PropertiesUtils.getStringValue(properties, "poller." + pollerName + ".executionMode", POOL);
+
+        if (VIRTUAL.equalsIgnoreCase(mode)) {
+            return true;
+        } else if (POOL.equalsIgnoreCase(mode)) {
+            return false;
+        }
+
+        throw new IllegalArgumentException("Unknown worker execution mode: " + mode);
+    }
+
+    /**
+     * 
+     * @param pollerName
+     * @param numThreads
+     * @return A fixed pool of daemon threads (started on demand)
+     */
+    public static ExecutorService newPool(String pollerName, int numThreads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), newThreadFactory(pollerName + "-worker-"));
+        executor.allowCoreThreadTimeOut(true);
+
+        return executor;
+    }
+
+    /**
+     * 
+     * @param properties
+     * @param pollerName
+     * @return A virtual thread per task executor or, if the JDK doesn't have
+     *         virtual threads, a bounded platform thread executor
+     */
+    public static ExecutorService newVirtualExecutor(Properties properties, String pollerName) {
+        ExecutorService executor = newVirtualThreadPerTaskExecutor(pollerName + "-vworker-");
+        if (executor != null) {
+            logger.info("Running workers on virtual threads [pollerName: {}]", pollerName);
+            return executor;
+        }
+
+        int maxThreads = PropertiesUtils.getIntegerValue(properties, "poller." + pollerName + ".maxWorkerThreads",
+                defaultMaxWorkerThreads);
+
+        logger.info("Virtual threads not available, running workers on platform threads [pollerName: {}]",
+                pollerName);
+        logger.info("  max worker threads: {}", maxThreads);
+
+        ThreadPoolExecutor fallback = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(fallbackQueueSize), newThreadFactory(pollerName + "-worker-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        fallback.allowCoreThreadTimeOut(true);
+
+        return fallback;
+    }
+
+    /**
+     * Looked up reflectively since we still build for Java 8.
+     * 
+     * @param namePrefix
+     * @return The executor or null if virtual threads aren't available
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor(String namePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+            Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newExecutor.invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // pre-21 JDK (or preview features not enabled)
+            logger.debug("Virtual threads not available: {}", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * 
+     * @param namePrefix
+     * @return
+     */
+    private static ThreadFactory newThreadFactory(final String namePrefix) {
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        return r -> {
+            Thread thread = new Thread(r, namePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,177 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.schedule;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.pifan.util.LatencyHistogram;
+
+/**
+ * Run statistics for a single registered worker.
+ * <p>
+ * Run durations (in microseconds) and fire time lag (how long after its
+ * scheduled fire time the worker actually started, in milliseconds) are kept
+ * in fixed size {@link LatencyHistogram}s, so recording a run never allocates
+ * or locks and the memory used doesn't grow with the number of runs.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class WorkerMetrics {
+    /**
+     * 
+     */
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder misfires = new LongAdder();
+    private final LongAdder skips = new LongAdder();
+
+    /**
+     * 
+     */
+    private final LatencyHistogram durations = new LatencyHistogram("us");
+    private final LatencyHistogram lags = new LatencyHistogram("ms");
+
+    /**
+     * 
+     */
+    private volatile long lastRunTime = 0;
+
+    /**
+     * 
+     */
+    WorkerMetrics() {
+        super();
+    }
+
+    /**
+     * 
+     * @param durationNanos
+     * @param success
+     * @param finishTime When the run finished
+     */
+    void recordRun(long durationNanos, boolean success, long finishTime) {
+        this.runs.increment();
+        if (!success) {
+            this.failures.increment();
+        }
+
+        this.durations.record(durationNanos / 1000);
+
+        this.lastRunTime = finishTime;
+    }
+
+    /**
+     * 
+     * @param lagInMs How long after the scheduled fire time the worker started
+     */
+    void recordLag(long lagInMs) {
+        this.lags.record(lagInMs);
+    }
+
+    /**
+     * 
+     */
+    void recordMisfire() {
+        this.misfires.increment();
+    }
+
+    /**
+     * 
+     */
+    void recordSkip() {
+        this.skips.increment();
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public long getRunCount() {
+        return this.runs.sum();
+    }
+
+    /**
+     * 
+     * @return The number of runs that completed normally
+     */
+    public long getSuccessCount() {
+        return Math.max(0, this.runs.sum() - this.failures.sum());
+    }
+
+    /**
+     * 
+     * @return The number of runs that threw
+     */
+    public long getFailureCount() {
+        return this.failures.sum();
+    }
+
+    /**
+     * 
+     * @return The number of times the worker missed its fire time by more
+     *         than the scheduler's misfire threshold
+     */
+    public long getMisfireCount() {
+        return this.misfires.sum();
+    }
+
+    /**
+     * 
+     * @return The number of misfires that didn't run the worker because of
+     *         its {@link MisfirePolicy}
+     */
+    public long getSkipCount() {
+        return this.skips.sum();
+    }
+
+    /**
+     * 
+     * @return The run durations in microseconds
+     */
+    public LatencyHistogram getDurations() {
+        return this.durations;
+    }
+
+    /**
+     * 
+     * @return The fire time lag in milliseconds
+     */
+    public LatencyHistogram getLags() {
+        return this.lags;
+    }
+
+    /**
+     * 
+     * @return The time the last run finished (0 if it hasn't run)
+     */
+    public long getLastRunTime() {
+        return this.lastRunTime;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "WorkerMetrics [runs: " + this.getRunCount() + ", failures: " + this.getFailureCount()
+                + ", misfires: " + this.getMisfireCount() + ", skips: " + this.getSkipCount() + ", durations: "
+                + this.durations + ", lags: " + this.lags + "]";
+    }
+}
@@ -0,0 +1,140 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.schedule;
+
+import java.util.Collection;
+
+import org.pifan.util.Clock;
+
+/**
+ * Runs named workers on a CRON, fixed rate or one-off schedule.
+ * <p>
+ * Registering a worker replaces any worker already registered with the same
+ * name. A worker that can't be registered (e.g. an invalid CRON expression or
+ * interval) is logged and left unregistered, and so is any worker that was
+ * registered with the same name.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public interface WorkerScheduler {
+    /**
+     * Register a worker to run based on the given CRON expression.
+     * 
+     * @param worker
+     * @param cronExp The CRON expression
+     * @param workerName
+     */
+    void registerWorker(Runnable worker, String cronExp, String workerName);
+
+    /**
+     * 
+     * @param worker
+     * @param intervalInMs
+     * @param delayInMs
+     * @param workerName
+     */
+    void registerWorker(Runnable worker, long intervalInMs, long delayInMs, String workerName);
+
+    /**
+     * 
+     * @param worker
+     * @param intervalInMs
+     * @param delayInMs
+     * @param workerName
+     */
+    void registerWorkerAtFixedRate(Runnable worker, long intervalInMs, long delayInMs, String workerName);
+
+    /**
+     * 
+     * @param worker
+     * @param delay
+     * @param workerName
+     */
+    void registerWorkerOnce(Runnable worker, long delay, String workerName);
+
+    /**
+     * 
+     * @param workerName
+     */
+    void unregisterWorker(String workerName);
+
+    /**
+     * 
+     * @param workerName
+     * @return The run metrics for the given worker or null if there's no such
+     *         worker registered
+     */
+    WorkerMetrics getWorkerMetrics(String workerName);
+
+    /**
+     * 
+     * @param workerName
+     * @return The worker's descriptor or null if there's no such worker
+     *         registered
+     */
+    WorkerDescriptor getWorker(String workerName);
+
+    /**
+     * 
+     * @return A snapshot of the registered workers
+     */
+    Collection<WorkerDescriptor> getWorkers();
+
+    /**
+     * Stop running the given worker (it stays registered) until it's
+     * resumed.
+     * 
+     * @param workerName
+     * @return Whether there's such a worker registered
+     */
+    boolean pauseWorker(String workerName);
+
+    /**
+     * 
+     * @param workerName
+     * @return Whether there's such a worker registered
+     */
+    boolean resumeWorker(String workerName);
+
+    /**
+     * Set what the worker does when it misfires. The policy is kept for the
+     * worker name, so it can be set before the worker is registered and
+     * survives re-registration.
+     * 
+     * @param workerName
+     * @param policy The policy (null to go back to the configured default)
+     * @param group The misfire group for {@link MisfirePolicy#COALESCE} (null
+     *            for none)
+     * @return Whether there's such a worker registered
+     */
+    boolean setMisfirePolicy(String workerName, MisfirePolicy policy, String group);
+
+    /**
+     * 
+     * @return The clock fire times are measured against
+     */
+    Clock getClock();
+
+    /**
+     * Stop firing workers. Workers that are already running are allowed to
+     * finish.
+     */
+    void shutdown();
+}
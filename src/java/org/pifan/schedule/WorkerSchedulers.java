@@ -0,0 +1,72 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.schedule;
+
+import java.util.Properties;
+
+import org.pifan.util.PropertiesUtils;
+
+/**
+ * Creates the {@link WorkerScheduler} selected by the
+ * <code>poller.engine</code> property: "quartz" (the default) for
+ * {@link JobScheduler}, "wheel" for the lightweight
+ * {@link TimingWheelScheduler} or "virtual" for the
+ * {@link VirtualTimeScheduler} (for replaying schedules in virtual time).
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class WorkerSchedulers {
+    /**
+     * 
+     */
+    public static final String ENGINE_PROPERTY = "poller.engine";
+
+    /**
+     * 
+     */
+    public static final String QUARTZ = "quartz";
+    public static final String WHEEL = "wheel";
+    public static final String VIRTUAL = "virtual";
+
+    /**
+     * Private non-instantiable constructor.
+     */
+    private WorkerSchedulers() {
+    }
+
+    /**
+     * 
+     * @param properties
+     * @return A new (started) scheduler
+     */
+    public static WorkerScheduler create(Properties properties) {
+        String engine = PropertiesUtils.getStringValue(properties, ENGINE_PROPERTY, QUARTZ);
+
+        if (QUARTZ.equalsIgnoreCase(engine)) {
+            return new JobScheduler(properties);
+        } else if (WHEEL.equalsIgnoreCase(engine)) {
+            return new TimingWheelScheduler(properties);
+        } else if (VIRTUAL.equalsIgnoreCase(engine)) {
+            return new VirtualTimeScheduler(properties);
+        }
+
+        throw new IllegalArgumentException("Unknown scheduler engine: " + engine);
+    }
+}
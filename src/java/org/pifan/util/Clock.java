@@ -0,0 +1,64 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.util;
+
+/**
+ * The source of the current time.
+ * <p>
+ * Everything that schedules or timestamps reads the time through a clock so
+ * the same code can run against the wall clock ({@link #SYSTEM}) or against a
+ * {@link VirtualClock} that's advanced as fast as the CPU allows.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public interface Clock {
+    /**
+     * The wall clock.
+     */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public String toString() {
+            return "SYSTEM";
+        }
+    };
+
+    /**
+     * 
+     * @return The current time in milliseconds since the epoch
+     */
+    long currentTimeMillis();
+
+    /**
+     * 
+     * @return A monotonic time in nanoseconds (only meaningful relative to
+     *         another reading from the same clock)
+     */
+    long nanoTime();
+}
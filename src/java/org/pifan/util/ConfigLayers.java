@@ -0,0 +1,448 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An immutable stack of configuration layers where a key in a higher layer
+ * overrides the same key in every layer below it (see {@link Layer}).
+ * <p>
+ * Each layer is a sorted array of keys so a key is resolved with one binary
+ * search per layer and the keys under a prefix are a contiguous range of
+ * each layer. {@link #view(String)} finds those ranges once (a couple of
+ * binary searches per layer) and every lookup through the view then searches
+ * only within them, comparing the prefix and the key in place rather than
+ * building the full key. Nothing is copied for a view or an overlay
+ * resolution, unlike {@link PropertiesUtils#filter(Properties, String)} and
+ * {@link PropertiesUtils#merge(Properties, Properties)}.
+ * <p>
+ * Replacing a layer (e.g. when the file is reloaded) or changing a runtime
+ * override returns a new instance that shares every other layer with this
+ * one. {@link #snapshot()} flattens the layers into a {@link ConfigSnapshot}
+ * for typed lookups.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class ConfigLayers {
+    /**
+     * The layers, lowest precedence first.
+     */
+    public enum Layer {
+        /**
+         * The built-in defaults.
+         */
+        DEFAULTS,
+
+        /**
+         * The configuration file.
+         */
+        FILE,
+
+        /**
+         * <code>-D</code> system properties.
+         */
+        SYSTEM,
+
+        /**
+         * Overrides set while running.
+         */
+        RUNTIME;
+    }
+
+    /**
+     * 
+     */
+    private static final Layer[] layerValues = Layer.values();
+
+    /**
+     * 
+     */
+    private static final ConfigLayers empty;
+
+    static {
+        final Sorted[] layers = new Sorted[layerValues.length];
+        Arrays.fill(layers, Sorted.EMPTY);
+        empty = new ConfigLayers(layers);
+    }
+
+    /**
+     * A single layer's keys (sorted) and their values.
+     */
+    private static final class Sorted {
+        private static final Sorted EMPTY = new Sorted(new String[0], new String[0]);
+
+        private final String[] keys;
+        private final String[] values;
+
+        private Sorted(String[] keys, String[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        private static Sorted of(Map<String, String> sorted) {
+            return new Sorted(sorted.keySet().toArray(new String[sorted.size()]),
+                    sorted.values().toArray(new String[sorted.size()]));
+        }
+
+        private Map<String, String> toMap() {
+            final Map<String, String> map = new TreeMap<>();
+            for (int i = 0; i < this.keys.length; i++) {
+                map.put(this.keys[i], this.values[i]);
+            }
+            return map;
+        }
+    }
+
+    /**
+     * By {@link Layer#ordinal()}.
+     */
+    private final Sorted[] layers;
+
+    /**
+     * The prefix of this view ("" for all keys) and, for each layer, the
+     * range of keys that start with it.
+     */
+    private final String prefix;
+    private final int[] from;
+    private final int[] to;
+
+    /**
+     * 
+     * @param layers
+     */
+    private ConfigLayers(Sorted[] layers) {
+        super();
+
+        this.layers = layers;
+        this.prefix = "";
+        this.from = new int[layers.length];
+        this.to = new int[layers.length];
+
+        for (int l = 0; l < layers.length; l++) {
+            this.to[l] = layers[l].keys.length;
+        }
+    }
+
+    /**
+     * 
+     * @param parent
+     * @param prefix
+     */
+    private ConfigLayers(ConfigLayers parent, String prefix) {
+        super();
+
+        this.layers = parent.layers;
+        this.prefix = parent.prefix + prefix;
+        this.from = new int[this.layers.length];
+        this.to = new int[this.layers.length];
+
+        // narrow the parent's ranges down to the keys starting with the new prefix
+        for (int l = 0; l < this.layers.length; l++) {
+            final String[] keys = this.layers[l].keys;
+
+            int lo = parent.from[l];
+            int hi = parent.to[l];
+
+            // the first key >= the prefix
+            int a = lo;
+            int b = hi;
+            while (a < b) {
+                int mid = (a + b) >>> 1;
+                if (keys[mid].compareTo(this.prefix) < 0) {
+                    a = mid + 1;
+                } else {
+                    b = mid;
+                }
+            }
+            lo = a;
+
+            // the first key after that without the prefix
+            b = hi;
+            while (a < b) {
+                int mid = (a + b) >>> 1;
+                if (keys[mid].startsWith(this.prefix)) {
+                    a = mid + 1;
+                } else {
+                    b = mid;
+                }
+            }
+
+            this.from[l] = lo;
+            this.to[l] = a;
+        }
+    }
+
+    /**
+     * 
+     * @return No layers
+     */
+    public static ConfigLayers empty() {
+        return empty;
+    }
+
+    /**
+     * 
+     * @param layer
+     * @param properties
+     * @return A copy with the given layer replaced (every other layer is
+     *         shared)
+     */
+    public ConfigLayers with(Layer layer, Properties properties) {
+        final Map<String, String> sorted = new TreeMap<>();
+        if (properties != null) {
+            for (String key : properties.stringPropertyNames()) {
+                sorted.put(key, properties.getProperty(key));
+            }
+        }
+
+        return this.with(layer, Sorted.of(sorted));
+    }
+
+    /**
+     * 
+     * @param key
+     * @param value The value (null to remove the override)
+     * @return A copy with the given runtime override set
+     */
+    public ConfigLayers withOverride(String key, String value) {
+        final Map<String, String> sorted = this.root().layers[Layer.RUNTIME.ordinal()].toMap();
+        if (value == null) {
+            sorted.remove(key);
+        } else {
+            sorted.put(key, value);
+        }
+
+        return this.with(Layer.RUNTIME, Sorted.of(sorted));
+    }
+
+    /**
+     * 
+     * @param layer
+     * @param sorted
+     * @return
+     */
+    private ConfigLayers with(Layer layer, Sorted sorted) {
+        final Sorted[] layers = this.layers.clone();
+        layers[layer.ordinal()] = sorted;
+
+        ConfigLayers root = new ConfigLayers(layers);
+        return this.prefix.isEmpty() ? root : root.view(this.prefix);
+    }
+
+    /**
+     * 
+     * @return The view of every key
+     */
+    private ConfigLayers root() {
+        return this.prefix.isEmpty() ? this : new ConfigLayers(this.layers);
+    }
+
+    /**
+     * 
+     * @param prefix
+     * @return A view of the keys starting with the given prefix (relative to
+     *         this view), with the prefix stripped
+     */
+    public ConfigLayers view(String prefix) {
+        if (prefix.isEmpty()) {
+            return this;
+        }
+
+        return new ConfigLayers(this, prefix);
+    }
+
+    /**
+     * 
+     * @return The full prefix of this view ("" for every key)
+     */
+    public String getPrefix() {
+        return this.prefix;
+    }
+
+    /**
+     * 
+     * @param l The layer's ordinal
+     * @param key
+     * @return The key's index in the layer or -1
+     */
+    private int indexOf(int l, String key) {
+        final String[] keys = this.layers[l].keys;
+
+        int a = this.from[l];
+        int b = this.to[l] - 1;
+        while (a <= b) {
+            int mid = (a + b) >>> 1;
+            int cmp = this.compare(keys[mid], key);
+            if (cmp < 0) {
+                a = mid + 1;
+            } else if (cmp > 0) {
+                b = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Compare a full key with this view's prefix + the given key without
+     * building the latter.
+     * 
+     * @param candidate A key that starts with this view's prefix
+     * @param key
+     * @return
+     */
+    private int compare(String candidate, String key) {
+        final int offset = this.prefix.length();
+        final int length = Math.min(candidate.length() - offset, key.length());
+
+        for (int i = 0; i < length; i++) {
+            int diff = candidate.charAt(offset + i) - key.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+
+        return (candidate.length() - offset) - key.length();
+    }
+
+    /**
+     * 
+     * @param key
+     * @return The highest layer the key is set in or null if it isn't set
+     */
+    public Layer getLayer(String key) {
+        for (int l = this.layers.length - 1; l >= 0; l--) {
+            if (this.indexOf(l, key) >= 0) {
+                return layerValues[l];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 
+     * @param key
+     * @return
+     */
+    public boolean containsKey(String key) {
+        return this.getLayer(key) != null;
+    }
+
+    /**
+     * 
+     * @param key
+     * @return The value from the highest layer it's set in or null if it
+     *         isn't set
+     */
+    public String getStringValue(String key) {
+        return this.getStringValue(key, null);
+    }
+
+    /**
+     * 
+     * @param key
+     * @param defaultValue
+     * @return The value from the highest layer it's set in
+     */
+    public String getStringValue(String key, String defaultValue) {
+        for (int l = this.layers.length - 1; l >= 0; l--) {
+            int index = this.indexOf(l, key);
+            if (index >= 0) {
+                return this.layers[l].values[index];
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * 
+     * @return The keys in this view (relative to its prefix) across every
+     *         layer, sorted
+     */
+    public Set<String> keySet() {
+        final Set<String> keys = new TreeSet<>();
+        final int offset = this.prefix.length();
+
+        for (int l = 0; l < this.layers.length; l++) {
+            final String[] layerKeys = this.layers[l].keys;
+            for (int i = this.from[l]; i < this.to[l]; i++) {
+                keys.add(layerKeys[i].substring(offset));
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     * 
+     * @param layer
+     * @return The number of keys in this view set in the given layer
+     */
+    public int size(Layer layer) {
+        return this.to[layer.ordinal()] - this.from[layer.ordinal()];
+    }
+
+    /**
+     * 
+     * @return The resolved properties in this view (relative to its prefix)
+     */
+    public Properties toProperties() {
+        final Properties properties = new Properties();
+        final int offset = this.prefix.length();
+
+        // lowest layer first so the higher layers overwrite
+        for (int l = 0; l < this.layers.length; l++) {
+            final Sorted layer = this.layers[l];
+            for (int i = this.from[l]; i < this.to[l]; i++) {
+                properties.setProperty(layer.keys[i].substring(offset), layer.values[i]);
+            }
+        }
+
+        return properties;
+    }
+
+    /**
+     * 
+     * @return The resolved properties in this view, parsed for typed lookups
+     */
+    public ConfigSnapshot snapshot() {
+        return ConfigSnapshot.of(this.toProperties());
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ConfigLayers [prefix: ").append(this.prefix);
+        for (Layer layer : layerValues) {
+            sb.append(", ").append(layer.name().toLowerCase()).append(": ").append(this.size(layer));
+        }
+        return sb.append("]").toString();
+    }
+}
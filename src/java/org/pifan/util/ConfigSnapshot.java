@@ -0,0 +1,441 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.util;
+
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An immutable snapshot of a set of properties with every value parsed up
+ * front.
+ * <p>
+ * Each value is parsed once, when the snapshot is built, as every type it's
+ * valid for, so the typed getters are a single hash lookup with no parsing,
+ * no exceptions, no locking and no allocation. The getters behave like their
+ * {@link PropertiesUtils} counterparts: a missing or invalid value returns the
+ * default.
+ * <p>
+ * {@link #view(String)} returns a view of the keys under a prefix (like
+ * {@link PropertiesUtils#filter(Properties, String)} but with the prefix
+ * stripped) that shares the snapshot's values rather than copying them. A
+ * view looks a key up by carrying on the prefix's hash over the key and
+ * comparing the two parts in place, so it never builds the full key. The keys
+ * are also kept sorted so a view's keys are a contiguous range found with a
+ * binary search when the view is created.
+ * <p>
+ * A snapshot never changes so a new one is simply published (e.g. through a
+ * volatile field) whenever the configuration is reloaded.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class ConfigSnapshot {
+    /**
+     * 
+     */
+    private static final ConfigSnapshot empty = of(new Properties());
+
+    /**
+     * A value parsed as every type it's valid for.
+     */
+    private static final class Value {
+        private static final int INT = 1;
+        private static final int LONG = 2;
+        private static final int FLOAT = 4;
+        private static final int DOUBLE = 8;
+
+        private final String string;
+        private final int valid;
+        private final int intValue;
+        private final long longValue;
+        private final float floatValue;
+        private final double doubleValue;
+        private final boolean booleanValue;
+
+        private Value(String string) {
+            int valid = 0;
+
+            int intValue = 0;
+            try {
+                intValue = Integer.parseInt(string);
+                valid |= INT;
+            } catch (NumberFormatException e) {
+                // not an int
+            }
+
+            long longValue = 0;
+            try {
+                longValue = Long.parseLong(string);
+                valid |= LONG;
+            } catch (NumberFormatException e) {
+                // not a long
+            }
+
+            float floatValue = 0;
+            double doubleValue = 0;
+            try {
+                floatValue = Float.parseFloat(string);
+                doubleValue = Double.parseDouble(string);
+                valid |= FLOAT | DOUBLE;
+            } catch (NumberFormatException e) {
+                // not a number
+            }
+
+            this.string = string;
+            this.valid = valid;
+            this.intValue = intValue;
+            this.longValue = longValue;
+            this.floatValue = floatValue;
+            this.doubleValue = doubleValue;
+            this.booleanValue = Boolean.parseBoolean(string);
+        }
+    }
+
+    /**
+     * Every value by its full key, in an open addressing (linear probing)
+     * table that's at most half full; shared by all views.
+     */
+    private final String[] keys;
+    private final Value[] values;
+    private final int mask;
+
+    /**
+     * The table slot of every key in key order; shared by all views.
+     */
+    private final int[] sortedSlots;
+
+    /**
+     * The prefix prepended to every key looked up through this view and its
+     * hash code.
+     */
+    private final String prefix;
+    private final int prefixHash;
+
+    /**
+     * The range of {@link #sortedSlots} for the keys in this view.
+     */
+    private final int from;
+    private final int to;
+
+    /**
+     * 
+     * @param keys
+     * @param values
+     * @param sortedSlots
+     */
+    private ConfigSnapshot(String[] keys, Value[] values, int[] sortedSlots) {
+        super();
+
+        this.keys = keys;
+        this.values = values;
+        this.mask = keys.length - 1;
+        this.sortedSlots = sortedSlots;
+        this.prefix = "";
+        this.prefixHash = 0;
+        this.from = 0;
+        this.to = sortedSlots.length;
+    }
+
+    /**
+     * 
+     * @param parent
+     * @param prefix
+     */
+    private ConfigSnapshot(ConfigSnapshot parent, String prefix) {
+        super();
+
+        this.keys = parent.keys;
+        this.values = parent.values;
+        this.mask = parent.mask;
+        this.sortedSlots = parent.sortedSlots;
+        this.prefix = parent.prefix + prefix;
+        this.prefixHash = this.prefix.hashCode();
+
+        // the first key >= the prefix
+        int a = parent.from;
+        int b = parent.to;
+        while (a < b) {
+            int mid = (a + b) >>> 1;
+            if (this.sortedKey(mid).compareTo(this.prefix) < 0) {
+                a = mid + 1;
+            } else {
+                b = mid;
+            }
+        }
+        this.from = a;
+
+        // the first key after that without the prefix
+        b = parent.to;
+        while (a < b) {
+            int mid = (a + b) >>> 1;
+            if (this.sortedKey(mid).startsWith(this.prefix)) {
+                a = mid + 1;
+            } else {
+                b = mid;
+            }
+        }
+        this.to = a;
+    }
+
+    /**
+     * 
+     * @param properties
+     * @return A snapshot of the given properties
+     */
+    public static ConfigSnapshot of(Properties properties) {
+        final Set<String> names = properties.stringPropertyNames();
+
+        int size = Integer.highestOneBit(Math.max(1, names.size()) * 2);
+        if (size < names.size() * 2) {
+            size = size << 1;
+        }
+
+        final String[] keys = new String[size];
+        final Value[] values = new Value[size];
+        final int mask = size - 1;
+
+        final int[] sortedSlots = new int[names.size()];
+        int count = 0;
+
+        for (String key : new TreeSet<>(names)) {
+            int index = spread(key.hashCode()) & mask;
+            while (keys[index] != null) {
+                index = (index + 1) & mask;
+            }
+
+            keys[index] = key;
+            values[index] = new Value(properties.getProperty(key));
+            sortedSlots[count++] = index;
+        }
+
+        return new ConfigSnapshot(keys, values, sortedSlots);
+    }
+
+    /**
+     * 
+     * @param i
+     * @return The i'th key in key order
+     */
+    private String sortedKey(int i) {
+        return this.keys[this.sortedSlots[i]];
+    }
+
+    /**
+     * 
+     * @param hash
+     * @return
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * 
+     * @return An empty snapshot
+     */
+    public static ConfigSnapshot empty() {
+        return empty;
+    }
+
+    /**
+     * 
+     * @param prefix
+     * @return A view of the keys starting with the given prefix (relative to
+     *         this view), with the prefix stripped
+     */
+    public ConfigSnapshot view(String prefix) {
+        if (prefix.isEmpty()) {
+            return this;
+        }
+
+        return new ConfigSnapshot(this, prefix);
+    }
+
+    /**
+     * 
+     * @return The full prefix of this view ("" for the snapshot itself)
+     */
+    public String getPrefix() {
+        return this.prefix;
+    }
+
+    /**
+     * 
+     * @param key
+     * @return
+     */
+    private Value get(String key) {
+        final String prefix = this.prefix;
+        final int prefixLength = prefix.length();
+        final int keyLength = key.length();
+
+        // the hash code of prefix + key (see String.hashCode())
+        int hash = this.prefixHash;
+        if (prefixLength == 0) {
+            hash = key.hashCode();
+        } else {
+            for (int i = 0; i < keyLength; i++) {
+                hash = 31 * hash + key.charAt(i);
+            }
+        }
+
+        int index = spread(hash) & this.mask;
+
+        String candidate;
+        while ((candidate = this.keys[index]) != null) {
+            if (candidate.length() == prefixLength + keyLength && candidate.startsWith(prefix)
+                    && candidate.regionMatches(prefixLength, key, 0, keyLength)) {
+                return this.values[index];
+            }
+            index = (index + 1) & this.mask;
+        }
+
+        return null;
+    }
+
+    /**
+     * 
+     * @param key
+     * @return
+     */
+    public boolean containsKey(String key) {
+        return this.get(key) != null;
+    }
+
+    /**
+     * 
+     * @param key
+     * @return The value or null if there's no such key
+     */
+    public String getStringValue(String key) {
+        return this.getStringValue(key, null);
+    }
+
+    /**
+     * 
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    public String getStringValue(String key, String defaultValue) {
+        Value value = this.get(key);
+        return value == null ? defaultValue : value.string;
+    }
+
+    /**
+     * 
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    public boolean getBooleanValue(String key, boolean defaultValue) {
+        Value value = this.get(key);
+        return value == null ? defaultValue : value.booleanValue;
+    }
+
+    /**
+     * 
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    public int getIntegerValue(String key, int defaultValue) {
+        Value value = this.get(key);
+        return value == null || (value.valid & Value.INT) == 0 ? defaultValue : value.intValue;
+    }
+
+    /**
+     * 
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    public long getLongValue(String key, long defaultValue) {
+        Value value = this.get(key);
+        return value == null || (value.valid & Value.LONG) == 0 ? defaultValue : value.longValue;
+    }
+
+    /**
+     * 
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    public float getFloatValue(String key, float defaultValue) {
+        Value value = this.get(key);
+        return value == null || (value.valid & Value.FLOAT) == 0 ? defaultValue : value.floatValue;
+    }
+
+    /**
+     * 
+     * @param key
+     * @param defaultValue
+     * @return
+     */
+    public double getDoubleValue(String key, double defaultValue) {
+        Value value = this.get(key);
+        return value == null || (value.valid & Value.DOUBLE) == 0 ? defaultValue : value.doubleValue;
+    }
+
+    /**
+     * 
+     * @return The keys in this view (relative to its prefix), sorted
+     */
+    public Set<String> keySet() {
+        final Set<String> keys = new TreeSet<>();
+
+        for (int i = this.from; i < this.to; i++) {
+            keys.add(this.sortedKey(i).substring(this.prefix.length()));
+        }
+
+        return keys;
+    }
+
+    /**
+     * 
+     * @return The number of keys in this view
+     */
+    public int size() {
+        return this.to - this.from;
+    }
+
+    /**
+     * 
+     * @return A copy of the properties in this view (relative to its prefix)
+     */
+    public Properties toProperties() {
+        final Properties properties = new Properties();
+
+        for (int i = this.from; i < this.to; i++) {
+            int slot = this.sortedSlots[i];
+            properties.setProperty(this.keys[slot].substring(this.prefix.length()), this.values[slot].string);
+        }
+
+        return properties;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ConfigSnapshot [prefix: " + this.prefix + ", keys: " + this.size() + "]";
+    }
+}
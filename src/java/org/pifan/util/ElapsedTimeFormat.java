@@ -0,0 +1,331 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.util;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Map;
+
+import org.pifan.util.TimeUtil.TimeLabel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A compiled {@link TimeUtil#elapsedTime(Long, String, Boolean, Boolean, Map)}
+ * format.
+ * <p>
+ * The format string (e.g. "HmsS", "DHmsS" or "msS") is only scanned once, when
+ * it's compiled, and the labels (including their singular forms) are worked out
+ * up front. Formatting then just splits the duration and appends the digits
+ * straight into the caller's {@link StringBuilder} or {@link CharBuffer}
+ * without allocating anything. Instances are immutable so a single instance
+ * can be shared by any number of threads.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class ElapsedTimeFormat {
+    /**
+     * 
+     */
+    private static final Logger logger = LoggerFactory.getLogger(ElapsedTimeFormat.class);
+
+    /**
+     * 
+     */
+    private static final long SECOND = 1000;
+    private static final long MINUTE = SECOND * 60;
+    private static final long HOUR = MINUTE * 60;
+    private static final long DAY = HOUR * 24;
+
+    /**
+     * The units in the order they're written.
+     */
+    private static final char[] unitChars = { 'D', 'H', 'm', 's' };
+    private static final TimeLabel[] unitLabels = { TimeLabel.DAY, TimeLabel.HOUR, TimeLabel.MINUTE,
+            TimeLabel.SECOND };
+
+    /**
+     * 
+     */
+    private final String format;
+    private final boolean includeLabels;
+    private final boolean includeLabelsForZeroValues;
+
+    /**
+     * Which of the units (days, hours, minutes, seconds) are written and
+     * whether the milliseconds are.
+     */
+    private final boolean[] units = new boolean[unitChars.length];
+    private final boolean includeMs;
+
+    /**
+     * The label for each unit and the label to use when the value is 1 (null
+     * for no label).
+     */
+    private final String[] labels = new String[unitChars.length];
+    private final String[] singularLabels = new String[unitChars.length];
+
+    /**
+     * The locale's zero digit (what {@link java.text.DecimalFormat} writes).
+     */
+    private final char zeroDigit;
+
+    /**
+     * 
+     * @param format
+     * @param includeLabels
+     * @param includeLabelsForZeroValues
+     * @param timeLabels
+     */
+    private ElapsedTimeFormat(String format, boolean includeLabels, boolean includeLabelsForZeroValues,
+            Map<TimeLabel, String> timeLabels) {
+        super();
+
+        this.format = format;
+        this.includeLabels = includeLabels;
+        this.includeLabelsForZeroValues = includeLabelsForZeroValues;
+
+        for (int unit = 0; unit < unitChars.length; unit++) {
+            this.units[unit] = format.indexOf(unitChars[unit]) >= 0;
+
+            String label = includeLabels ? timeLabels.get(unitLabels[unit]) : null;
+            if (StringUtils.isValidString(label)) {
+                this.labels[unit] = label;
+                this.singularLabels[unit] = singular(label);
+            }
+        }
+        this.includeMs = format.indexOf('S') >= 0;
+
+        this.zeroDigit = DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT)).getZeroDigit();
+    }
+
+    /**
+     * Compile the given format with labels (including zero values).
+     * 
+     * @param format
+     * @return
+     */
+    public static ElapsedTimeFormat compile(String format) {
+        return compile(format, true, true, TimeUtil.getDefaultTimeLabels());
+    }
+
+    /**
+     * 
+     * @param format Any combination of D (days), H (hours), m (minutes), s
+     *            (seconds) and S (milliseconds)
+     * @param includeLabels
+     * @param includeLabelsForZeroValues
+     * @param timeLabels
+     * @return
+     */
+    public static ElapsedTimeFormat compile(String format, boolean includeLabels, boolean includeLabelsForZeroValues,
+            Map<TimeLabel, String> timeLabels) {
+        if (format == null) {
+            throw new IllegalArgumentException("Null elapsed time format!");
+        }
+        if (includeLabels && timeLabels == null) {
+            throw new IllegalArgumentException("Null time labels!");
+        }
+
+        return new ElapsedTimeFormat(format, includeLabels, includeLabelsForZeroValues, timeLabels);
+    }
+
+    /**
+     * 
+     * @param durationInMs
+     * @return The formatted elapsed time
+     */
+    public String format(long durationInMs) {
+        return this.formatTo(durationInMs, new StringBuilder(32)).toString();
+    }
+
+    /**
+     * 
+     * @param durationInMs
+     * @param sb
+     * @return The given builder
+     */
+    public StringBuilder formatTo(long durationInMs, StringBuilder sb) {
+        try {
+            this.write(durationInMs, sb);
+        } catch (IOException e) {
+            // never thrown by a StringBuilder
+            throw new IllegalStateException(e);
+        }
+        return sb;
+    }
+
+    /**
+     * 
+     * @param durationInMs
+     * @param buffer
+     * @return The given buffer
+     * @throws java.nio.BufferOverflowException If the buffer is too small
+     */
+    public CharBuffer formatTo(long durationInMs, CharBuffer buffer) {
+        try {
+            this.write(durationInMs, buffer);
+        } catch (IOException e) {
+            // never thrown by a CharBuffer
+            throw new IllegalStateException(e);
+        }
+        return buffer;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public String getFormat() {
+        return this.format;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public boolean isIncludeLabels() {
+        return this.includeLabels;
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public boolean isIncludeLabelsForZeroValues() {
+        return this.includeLabelsForZeroValues;
+    }
+
+    /**
+     * 
+     * @param durationInMs
+     * @param out
+     * @throws IOException
+     */
+    private void write(long durationInMs, Appendable out) throws IOException {
+        if (durationInMs < 0) {
+            logger.warn("Duration is < 0...reseting to 0");
+            durationInMs = 0;
+        }
+
+        long remaining = durationInMs;
+
+        boolean previousAdded = false;
+
+        for (int unit = 0; unit < unitChars.length; unit++) {
+            final long unitMs = unitMs(unit);
+            final long value = remaining / unitMs;
+            remaining -= value * unitMs;
+
+            if (!this.units[unit]) {
+                continue;
+            }
+
+            if (previousAdded && !this.includeLabels) {
+                out.append(':');
+            }
+
+            if (value > 0 || this.includeLabelsForZeroValues) {
+                this.appendDigits(out, value, this.includeLabels ? 1 : 2);
+
+                String label = value == 1 ? this.singularLabels[unit] : this.labels[unit];
+                if (label != null) {
+                    out.append(label);
+                }
+                previousAdded = true;
+            }
+        }
+
+        if (this.includeMs) {
+            out.append(',');
+            this.appendDigits(out, remaining, 3);
+        }
+    }
+
+    /**
+     * Append the (non-negative) value padded with zeros to the minimum number
+     * of digits.
+     * 
+     * @param out
+     * @param value
+     * @param minDigits
+     * @throws IOException
+     */
+    private void appendDigits(Appendable out, long value, int minDigits) throws IOException {
+        int digits = 1;
+        long divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+            digits++;
+        }
+
+        for (int i = digits; i < minDigits; i++) {
+            out.append(this.zeroDigit);
+        }
+
+        while (divisor > 0) {
+            out.append((char) (this.zeroDigit + (value / divisor) % 10));
+            divisor /= 10;
+        }
+    }
+
+    /**
+     * 
+     * @param unit
+     * @return
+     */
+    private static long unitMs(int unit) {
+        switch (unit) {
+        case 0:
+            return DAY;
+        case 1:
+            return HOUR;
+        case 2:
+            return MINUTE;
+        default:
+            return SECOND;
+        }
+    }
+
+    /**
+     * A label ending in "s" loses the "s" when the value is 1 (keeping any
+     * leading/trailing space).
+     * 
+     * @param label
+     * @return
+     */
+    private static String singular(String label) {
+        if (!StringUtils.endsWith(label, "s", true)) {
+            return label;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        if (label.startsWith(" ")) {
+            sb.append(" ");
+        }
+        sb.append(StringUtils.trimTrailingText(label.trim(), "s"));
+        if (label.endsWith(" ")) {
+            sb.append(" ");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,132 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory fences for the sequence-checked readers (and their writers) that
+ * copy plain array data and then re-check a sequence number.
+ * <p>
+ * A volatile load only keeps <i>later</i> accesses after it; the plain loads
+ * before it can still be satisfied after it (and on ARM they actually are),
+ * so a reader has to fence between copying the data and re-checking the
+ * sequence. Likewise a release store doesn't keep the plain stores after it
+ * from becoming visible first, so a writer that marks a slot as being
+ * rewritten has to fence before rewriting it.
+ * <p>
+ * Uses the <code>VarHandle</code> fences on Java 9+ and
+ * <code>sun.misc.Unsafe</code> on Java 8; the handles are constants so the JIT
+ * reduces each call to the fence instruction. If neither can be found a
+ * (stronger) full fence is used instead.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class Fences {
+    /**
+     * 
+     */
+    private static final MethodHandle loadLoad;
+    private static final MethodHandle storeStore;
+
+    /**
+     * Only used by the fallback full fence.
+     */
+    private static final AtomicLong fallback = new AtomicLong();
+
+    static {
+        MethodHandle load = null;
+        MethodHandle store = null;
+
+        final MethodType voidType = MethodType.methodType(void.class);
+        try {
+            // Java 9+
+            Class<?> varHandle = Class.forName("java.lang.invoke.VarHandle");
+            load = MethodHandles.publicLookup().findStatic(varHandle, "loadLoadFence", voidType);
+            store = MethodHandles.publicLookup().findStatic(varHandle, "storeStoreFence", voidType);
+        } catch (ReflectiveOperationException e) {
+            try {
+                // Java 8
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                Object unsafe = theUnsafe.get(null);
+
+                load = MethodHandles.lookup().findVirtual(unsafeClass, "loadFence", voidType).bindTo(unsafe);
+                store = MethodHandles.lookup().findVirtual(unsafeClass, "storeFence", voidType).bindTo(unsafe);
+            } catch (ReflectiveOperationException | RuntimeException e2) {
+                load = null;
+                store = null;
+            }
+        }
+
+        loadLoad = load;
+        storeStore = store;
+    }
+
+    /**
+     * Private non-instantiable constructor.
+     */
+    private Fences() {
+    }
+
+    /**
+     * Loads before the fence aren't reordered with loads after it.
+     */
+    public static void loadFence() {
+        if (loadLoad == null) {
+            fullFence();
+            return;
+        }
+
+        try {
+            loadLoad.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Stores before the fence aren't reordered with stores after it.
+     */
+    public static void storeFence() {
+        if (storeStore == null) {
+            fullFence();
+            return;
+        }
+
+        try {
+            storeStore.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 
+     */
+    private static void fullFence() {
+        fallback.getAndIncrement();
+    }
+}
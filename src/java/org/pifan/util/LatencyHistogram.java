@@ -0,0 +1,229 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed memory, lock-free, log-linear histogram (in the style of
+ * HdrHistogram) for latencies.
+ * <p>
+ * Values from 0 to 31 get a bucket each; above that every power of two range
+ * is split into 16 equal buckets, so a recorded value is off by at most ~3%.
+ * Values above {@link #MAX_VALUE} are counted in the top bucket. The whole
+ * histogram is a single {@link AtomicLongArray} of {@value #BUCKETS} counts
+ * (~4 KB) so recording is a couple of atomic increments with no allocation,
+ * and reads never block writers (a read taken while values are being recorded
+ * may be off by the values in flight).
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class LatencyHistogram {
+    /**
+     * 
+     */
+    private static final int subBucketBits = 5;
+    private static final int subBucketCount = 1 << subBucketBits;
+    private static final int subBucketHalf = subBucketCount >> 1;
+
+    /**
+     * The largest value that's bucketed accurately (2^32 - 1).
+     */
+    public static final long MAX_VALUE = (1L << 32) - 1;
+
+    /**
+     * 
+     */
+    public static final int BUCKETS = indexOf(MAX_VALUE) + 1;
+
+    /**
+     * 
+     */
+    private final String unit;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 
+     * @param unit The unit values are recorded in (e.g. "us"), for display only
+     */
+    public LatencyHistogram(String unit) {
+        super();
+
+        this.unit = unit;
+    }
+
+    /**
+     * 
+     * @param value The value to record; negative values are recorded as 0
+     */
+    public void record(long value) {
+        final long v = value < 0 ? 0 : value;
+
+        this.counts.incrementAndGet(indexOf(Math.min(v, MAX_VALUE)));
+        this.total.incrementAndGet();
+        this.sum.addAndGet(v);
+
+        long current;
+        while (v > (current = this.max.get()) && !this.max.compareAndSet(current, v)) {
+            // retry
+        }
+    }
+
+    /**
+     * 
+     * @return The number of values recorded
+     */
+    public long getCount() {
+        return this.total.get();
+    }
+
+    /**
+     * 
+     * @return The largest value recorded (0 if empty)
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * 
+     * @return The mean of the values recorded (0 if empty)
+     */
+    public double getMean() {
+        final long count = this.total.get();
+        return count == 0 ? 0 : (double) this.sum.get() / count;
+    }
+
+    /**
+     * 
+     * @return The sum of the values recorded
+     */
+    public long getSum() {
+        return this.sum.get();
+    }
+
+    /**
+     * 
+     * @param percentile 0 to 100
+     * @return The (upper bound of the bucket holding the) value at the given
+     *         percentile (0 if empty)
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += this.counts.get(i);
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        final long target = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueAt(i), this.max.get());
+            }
+        }
+
+        return this.max.get();
+    }
+
+    /**
+     * Copy the bucket counts into the given array (which must have at least
+     * {@link #BUCKETS} elements).
+     * 
+     * @param countsOut
+     * @return The total of the copied counts
+     */
+    public long copyCounts(long[] countsOut) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            countsOut[i] = this.counts.get(i);
+            count += countsOut[i];
+        }
+        return count;
+    }
+
+    /**
+     * 
+     * @return The unit values are recorded in
+     */
+    public String getUnit() {
+        return this.unit;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "LatencyHistogram [count: " + this.getCount() + ", mean: " + String.format("%.1f", this.getMean())
+                + ", p50: " + this.getValueAtPercentile(50) + ", p99: " + this.getValueAtPercentile(99) + ", max: "
+                + this.getMax() + " " + this.unit + "]";
+    }
+
+    /**
+     * 
+     * @param value A value between 0 and {@link #MAX_VALUE}
+     * @return The bucket the value is counted in
+     */
+    public static int indexOf(long value) {
+        if (value < subBucketCount) {
+            return (int) value;
+        }
+
+        // the power of two range, then the linear sub-bucket within it
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - (subBucketBits - 1);
+        final int sub = (int) (value >>> shift) - subBucketHalf;
+
+        return subBucketCount + (shift - 1) * subBucketHalf + sub;
+    }
+
+    /**
+     * 
+     * @param index
+     * @return The lowest value counted in the given bucket
+     */
+    public static long lowestValueAt(int index) {
+        if (index < subBucketCount) {
+            return index;
+        }
+
+        final int shift = (index - subBucketCount) / subBucketHalf + 1;
+        final int sub = (index - subBucketCount) % subBucketHalf + subBucketHalf;
+
+        return (long) sub << shift;
+    }
+
+    /**
+     * 
+     * @param index
+     * @return The highest value counted in the given bucket
+     */
+    public static long highestValueAt(int index) {
+        return index + 1 < BUCKETS ? lowestValueAt(index + 1) - 1 : MAX_VALUE;
+    }
+}
@@ -0,0 +1,162 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free, multi-producer single-consumer queue.
+ * <p>
+ * Each slot carries a sequence number (the classic Vyukov bounded queue) so
+ * producers only contend on a single compare-and-set of the tail and the
+ * consumer never takes a lock. Only one thread may call {@link #poll()}.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ * @param <E>
+ */
+public final class MpscArrayQueue<E> {
+    /**
+     * 
+     */
+    private final int capacity;
+    private final int mask;
+
+    /**
+     * 
+     */
+    private final AtomicReferenceArray<E> buffer;
+    private final AtomicLongArray sequences;
+
+    /**
+     * The next position a producer will claim.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The next position the consumer will read (only touched by the consumer
+     * but read by producers for {@link #size()}).
+     */
+    private volatile long head = 0;
+
+    /**
+     * 
+     * @param capacity The queue capacity (rounded up to a power of two)
+     */
+    public MpscArrayQueue(int capacity) {
+        super();
+
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be > 0: " + capacity);
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size = size << 1;
+        }
+
+        this.capacity = size;
+        this.mask = size - 1;
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+    }
+
+    /**
+     * 
+     * @param e
+     * @return False if the queue is full
+     */
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException("Null queue element");
+        }
+
+        while (true) {
+            long pos = this.tail.get();
+            int index = (int) (pos & this.mask);
+            long seq = this.sequences.get(index);
+
+            if (seq == pos) {
+                if (this.tail.compareAndSet(pos, pos + 1)) {
+                    this.buffer.lazySet(index, e);
+                    this.sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+            } else if (seq < pos) {
+                // the consumer hasn't freed this slot yet
+                return false;
+            }
+
+            // another producer got here first, try again
+        }
+    }
+
+    /**
+     * Must only be called from the single consumer thread.
+     * 
+     * @return The next element or null if the queue is empty
+     */
+    public E poll() {
+        long pos = this.head;
+        int index = (int) (pos & this.mask);
+
+        if (this.sequences.get(index) != pos + 1) {
+            // empty (or the producer hasn't finished publishing)
+            return null;
+        }
+
+        E e = this.buffer.get(index);
+        this.buffer.lazySet(index, null);
+        this.sequences.lazySet(index, pos + this.capacity);
+        this.head = pos + 1;
+
+        return e;
+    }
+
+    /**
+     * 
+     * @return Whether the queue is empty
+     */
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    /**
+     * 
+     * @return The approximate number of queued elements
+     */
+    public int size() {
+        long size = this.tail.get() - this.head;
+        return (int) Math.max(0, Math.min(size, this.capacity));
+    }
+
+    /**
+     * 
+     * @return
+     */
+    public int capacity() {
+        return this.capacity;
+    }
+}
@@ -19,19 +19,19 @@
 
 package org.pifan.util;
 
-import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 import org.quartz.TimeOfDay;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * 
@@ -39,11 +39,6 @@ import org.slf4j.LoggerFactory;
  * @author Dave Irwin (dhirwinjr@gmail.com)
  */
 public final class TimeUtil {
-    /**
-     * 
-     */
-    private static final Logger logger = LoggerFactory.getLogger(TimeUtil.class);
-
     /**
      * 
      */
@@ -59,16 +54,10 @@ public final class TimeUtil {
     private static final Map<TimeLabel, String> defaultTimeLabels = new HashMap<>();
 
     /**
-     * 
+     * The compiled elapsed time formats (using the default labels) by format
+     * string; each entry holds the 4 label/zero value combinations.
      */
-    private static final String singleDigitPattern = "0";
-    private static final DecimalFormat singleDigitElapsedTimeFormatter = new DecimalFormat(singleDigitPattern);
-
-    private static final String twoDigitPattern = "00";
-    private static final DecimalFormat twoDigitElapsedTimeFormatter = new DecimalFormat(twoDigitPattern);
-
-    private static final String msPattern = "000";
-    private static final DecimalFormat elapsedMsFormatter = new DecimalFormat(msPattern);
+    private static final ConcurrentMap<String, ElapsedTimeFormat[]> elapsedTimeFormats = new ConcurrentHashMap<>();
 
     /**
      * 
@@ -229,180 +218,50 @@ public final class TimeUtil {
             return "N/A";
         }
 
-        if (durationInMs < 0) {
-            logger.warn("Duration is < 0...reseting to 0");
-            durationInMs = 0L;
-        }
-
-        long seconds = 0;
-        long minutes = 0;
-        long hours = 0;
-        long days = 0;
-
-        // get the number of days
-        days = durationInMs / DAY;
-        durationInMs = durationInMs - (days * DAY);
-
-        // get the number of hours
-        hours = durationInMs / HOUR;
-        durationInMs = durationInMs - (hours * HOUR);
-
-        // get the number of minutes
-        minutes = durationInMs / MINUTE;
-        durationInMs = durationInMs - (minutes * MINUTE);
-
-        // get the number of seconds
-        seconds = durationInMs / SECOND;
-        durationInMs = durationInMs - (seconds * SECOND);
-
-        StringBuilder sb = new StringBuilder();
-
-        boolean previousAdded = false;
-
-        // check to add days
-        if (elapsedFormat.contains("D")) {
-            if (days > 0 || includeLabelsForZeroValues) {
-                if (includeLabels) {
-                    sb.append(singleDigitElapsedTimeFormatter.format(days));
-                } else {
-                    sb.append(twoDigitElapsedTimeFormatter.format(days));
-                }
-
-                if (includeLabels) {
-                    String label = customTimeLabels.get(TimeLabel.DAY);
-                    if (StringUtils.isValidString(label)) {
-                        if (days == 1 && StringUtils.endsWith(label, "s", true)) {
-                            String trimmedLabel = StringUtils.trimTrailingText(label.trim(), "s");
-
-                            if (label.startsWith(" ")) {
-                                sb.append(" ");
-                            }
-                            sb.append(trimmedLabel);
-                            if (label.endsWith(" ")) {
-                                sb.append(" ");
-                            }
-                        } else {
-                            sb.append(label);
-                        }
-                    }
-                }
-                previousAdded = true;
-            }
-        }
-
-        // check to add hours
-        if (elapsedFormat.contains("H")) {
-            if (previousAdded && !includeLabels) {
-                sb.append(":");
-            }
-
-            if (hours > 0 || includeLabelsForZeroValues) {
-                if (includeLabels) {
-                    sb.append(singleDigitElapsedTimeFormatter.format(hours));
-                } else {
-                    sb.append(twoDigitElapsedTimeFormatter.format(hours));
-                }
-
-                if (includeLabels) {
-                    String label = customTimeLabels.get(TimeLabel.HOUR);
-                    if (StringUtils.isValidString(label)) {
-                        if (hours == 1 && StringUtils.endsWith(label, "s", true)) {
-                            String trimmedLabel = StringUtils.trimTrailingText(label.trim(), "s");
-
-                            if (label.startsWith(" ")) {
-                                sb.append(" ");
-                            }
-                            sb.append(trimmedLabel);
-                            if (label.endsWith(" ")) {
-                                sb.append(" ");
-                            }
-                        } else {
-                            sb.append(label);
-                        }
-                    }
-                }
-                previousAdded = true;
-            }
+        ElapsedTimeFormat format;
+        if (customTimeLabels == defaultTimeLabels) {
+            format = getElapsedTimeFormat(elapsedFormat, includeLabels, includeLabelsForZeroValues);
+        } else {
+            format = ElapsedTimeFormat.compile(elapsedFormat, includeLabels, includeLabelsForZeroValues,
+                    customTimeLabels);
         }
 
-        // check to add minutes
-        if (elapsedFormat.contains("m")) {
-            if (previousAdded && !includeLabels) {
-                sb.append(":");
-            }
-
-            if (minutes > 0 || includeLabelsForZeroValues) {
-                if (includeLabels) {
-                    sb.append(singleDigitElapsedTimeFormatter.format(minutes));
-                } else {
-                    sb.append(twoDigitElapsedTimeFormatter.format(minutes));
-                }
-
-                if (includeLabels) {
-                    String label = customTimeLabels.get(TimeLabel.MINUTE);
-                    if (StringUtils.isValidString(label)) {
-                        if (minutes == 1 && StringUtils.endsWith(label, "s", true)) {
-                            String trimmedLabel = StringUtils.trimTrailingText(label.trim(), "s");
-
-                            if (label.startsWith(" ")) {
-                                sb.append(" ");
-                            }
-                            sb.append(trimmedLabel);
-                            if (label.endsWith(" ")) {
-                                sb.append(" ");
-                            }
-                        } else {
-                            sb.append(label);
-                        }
-                    }
-                }
-                previousAdded = true;
-            }
-        }
+        return format.format(durationInMs);
+    }
 
-        // check to add seconds
-        if (elapsedFormat.contains("s")) {
-            if (previousAdded && !includeLabels) {
-                sb.append(":");
+    /**
+     * Get the compiled elapsed time format (using the default labels), compiling
+     * it the first time it's asked for.
+     * 
+     * @param elapsedFormat
+     * @param includeLabels
+     * @param includeLabelsForZeroValues
+     * @return
+     */
+    public static final ElapsedTimeFormat getElapsedTimeFormat(String elapsedFormat, boolean includeLabels,
+            boolean includeLabelsForZeroValues) {
+        ElapsedTimeFormat[] formats = elapsedTimeFormats.get(elapsedFormat);
+        if (formats == null) {
+            formats = new ElapsedTimeFormat[4];
+            for (int i = 0; i < formats.length; i++) {
+                formats[i] = ElapsedTimeFormat.compile(elapsedFormat, (i & 2) != 0, (i & 1) != 0, defaultTimeLabels);
             }
 
-            if (seconds > 0 || includeLabelsForZeroValues) {
-                if (includeLabels) {
-                    sb.append(singleDigitElapsedTimeFormatter.format(seconds));
-                } else {
-                    sb.append(twoDigitElapsedTimeFormatter.format(seconds));
-                }
-
-                if (includeLabels) {
-                    String label = customTimeLabels.get(TimeLabel.SECOND);
-                    if (StringUtils.isValidString(label)) {
-                        if (seconds == 1 && StringUtils.endsWith(label, "s", true)) {
-                            String trimmedLabel = StringUtils.trimTrailingText(label.trim(), "s");
-
-                            if (label.startsWith(" ")) {
-                                sb.append(" ");
-                            }
-                            sb.append(trimmedLabel);
-                            if (label.endsWith(" ")) {
-                                sb.append(" ");
-                            }
-                        } else {
-                            sb.append(label);
-                        }
-                    }
-                }
-                previousAdded = true;
+            ElapsedTimeFormat[] existing = elapsedTimeFormats.putIfAbsent(elapsedFormat, formats);
+            if (existing != null) {
+                formats = existing;
             }
         }
 
-        // check to add milliseconds
-        if (elapsedFormat.contains("S")) {
-            if (durationInMs >= 0) {
-                sb.append("," + elapsedMsFormatter.format(durationInMs));
-            }
-        }
+        return formats[(includeLabels ? 2 : 0) | (includeLabelsForZeroValues ? 1 : 0)];
+    }
 
-        return sb.toString();
+    /**
+     * 
+     * @return The default (D, H, M and no seconds) time labels
+     */
+    public static final Map<TimeLabel, String> getDefaultTimeLabels() {
+        return Collections.unmodifiableMap(defaultTimeLabels);
     }
 
     /**
@@ -473,7 +332,18 @@ public final class TimeUtil {
      * @return
      */
     public static int getCurrentTimeInMin() {
-        long currTimeInMs = System.currentTimeMillis();
+        return getCurrentTimeInMin(Clock.SYSTEM);
+    }
+
+    /**
+     * Get the current time (according to the given clock) in minutes since
+     * midnight, January 1, 1970 UTC.
+     * 
+     * @param clock
+     * @return
+     */
+    public static int getCurrentTimeInMin(Clock clock) {
+        long currTimeInMs = clock.currentTimeMillis();
         return convertToMin(currTimeInMs);
     }
 
@@ -0,0 +1,98 @@
+/**************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *************************************************************************/
+
+package org.pifan.util;
+
+/**
+ * A {@link Clock} that only moves when it's told to.
+ * <p>
+ * Time never goes backwards and {@link #nanoTime()} moves in step with
+ * {@link #currentTimeMillis()}.
+ * 
+ * @author Dave Irwin (dhirwinjr@gmail.com)
+ */
+public final class VirtualClock implements Clock {
+    /**
+     * 
+     */
+    private volatile long millis;
+
+    /**
+     * Start at the current wall clock time.
+     */
+    public VirtualClock() {
+        this(System.currentTimeMillis());
+    }
+
+    /**
+     * 
+     * @param startTime The time to start at (in milliseconds since the epoch)
+     */
+    public VirtualClock(long startTime) {
+        super();
+
+        this.millis = startTime;
+    }
+
+    /**
+     * @see org.pifan.util.Clock#currentTimeMillis()
+     */
+    @Override
+    public long currentTimeMillis() {
+        return this.millis;
+    }
+
+    /**
+     * @see org.pifan.util.Clock#nanoTime()
+     */
+    @Override
+    public long nanoTime() {
+        return this.millis * 1000000L;
+    }
+
+    /**
+     * 
+     * @param time
+     * @throws IllegalArgumentException If the time is before the current time
+     */
+    public synchronized void advanceTo(long time) {
+        if (time < this.millis) {
+            throw new IllegalArgumentException("Virtual clock can't go backwards [now: " + this.millis + ", time: "
+                    + time + "]");
+        }
+
+        this.millis = time;
+    }
+
+    /**
+     * 
+     * @param durationInMs
+     */
+    public synchronized void advanceBy(long durationInMs) {
+        this.advanceTo(this.millis + durationInMs);
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "VirtualClock [now: " + this.millis + "]";
+    }
+}